@@ -66,8 +66,7 @@ vec3 evalLightProbesCoeff(vec3 coord, vec3 dir, int coeff) {
 	const vec3 frac = coord	- fcoord;
 	const ivec3 icoord = ivec3(fcoord);
 
-	const int atlasCoords = texelFetch(isampler3D(world.occupancy.tex), icoord, 0).x;
-	const int tile_id = wind3D(unpackivec3(atlasCoords), world.atlas_tile_size);
+	const int tile_id = texelFetch(isampler3D(world.occupancy.tex), icoord, 0).x;
 
 	vec3 samplingCoords = vec3(unwind2D(tile_id, world.probes_lerp_half_size), 0.0f) * 2.0f + frac + 0.5f;
 	const vec3 lerpTexSize = vec3(world.probes_lerp_half_size, world.probes_lerp_half_size, 16) * 2.0f;
@@ -92,8 +91,7 @@ vec3 evalLightProbes(vec3 coord, vec3 dir) {
 	const vec3 frac = coord	- fcoord;
 	const ivec3 icoord = ivec3(fcoord);
 
-	const int atlasCoords = texelFetch(isampler3D(world.occupancy.tex), icoord, 0).x;
-	const int tile_id = wind3D(unpackivec3(atlasCoords), world.atlas_tile_size);
+	const int tile_id = texelFetch(isampler3D(world.occupancy.tex), icoord, 0).x;
 
 	vec3 samplingCoords = vec3(unwind2D(tile_id, world.probes_lerp_half_size), 0.0f) * 2.0f + frac + 0.5f;
 	const vec3 lerpTexSize = vec3(world.probes_lerp_half_size, world.probes_lerp_half_size, 16) * 2.0f;
@@ -141,8 +139,7 @@ void evalLightProbes(
 	const vec3 frac = coord	- fcoord;
 	const ivec3 icoord = ivec3(fcoord);
 
-	const int atlasCoords = texelFetch(isampler3D(world.occupancy.tex), icoord, 0).x;
-	const int tile_id = wind3D(unpackivec3(atlasCoords), world.atlas_tile_size);
+	const int tile_id = texelFetch(isampler3D(world.occupancy.tex), icoord, 0).x;
 
 	vec3 samplingCoords = vec3(unwind2D(tile_id, world.probes_lerp_half_size), 0.0f) * 2.0f + frac + 0.5f;
 	const vec3 lerpTexSize = vec3(world.probes_lerp_half_size, world.probes_lerp_half_size, 16) * 2.0f;
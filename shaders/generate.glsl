@@ -128,8 +128,8 @@ void main(void){
         // write the tile descriptor
         ArrayStore(TileDescriptor, world.tiles, tile_index, TileDescriptor(ivec3(world_coords / 4), 1));
 
-        const int atlasCoords = packivec3(unwind3D(tile_index, world.atlas_tile_size));
-        imageStore(layout(r32i) iimage3D(world.occupancy.img), ivec3(world_coords / 4), ivec4(atlasCoords, 0, 0, 0));
+        // the occupancy holds the linear index of the tile in the atlas
+        imageStore(layout(r32i) iimage3D(world.occupancy.img), ivec3(world_coords / 4), ivec4(tile_index, 0, 0, 0));
         
         // write the compressed_occupancy mask
         const ivec3 coarseCoords = world_coords / 16;
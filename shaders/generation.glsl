@@ -1,9 +1,6 @@
 #ifndef GENERATION
 #define GENERATION
 
-uniform uint64_t noiseTexHandle;
-const int noiseTexWidth = 16; // Must be a power of 2
-
 vec4 cubicLerpPolynomial(const float t){
 	return vec4(1, t, t*t, t*t*t) *
 		mat4(
@@ -14,7 +11,8 @@ vec4 cubicLerpPolynomial(const float t){
 		);
 }
 
-vec4 cubicLerpTex(vec3 c) {
+vec4 cubicLerpTex(sampler3D noiseTex, vec3 c) {
+	const int noiseTexWidth = textureSize(noiseTex, 0).x; // Must be a power of 2
 	c *= noiseTexWidth;
 	const int M = noiseTexWidth - 1;
 	
@@ -35,7 +33,7 @@ vec4 cubicLerpTex(vec3 c) {
 			#pragma unroll
 			for(int i=0; i<=3; i++){
 				const ivec3 lookup = (i_part + ivec3(i-1, j-1, k-1)) & M;
-				const vec4 value = texelFetch(sampler3D(noiseTexHandle), lookup, 0);
+				const vec4 value = texelFetch(noiseTex, lookup, 0);
 				f += value * (a0[i] * a1[j] * a2[k]);
 			}
 		}
@@ -45,7 +43,8 @@ vec4 cubicLerpTex(vec3 c) {
 }
 
 
-float lerpTex(vec3 c){
+float lerpTex(sampler3D noiseTex, vec3 c){
+	const int noiseTexWidth = textureSize(noiseTex, 0).x; // Must be a power of 2
 	c *= noiseTexWidth;
 	const int M = noiseTexWidth - 1;
 	
@@ -55,43 +54,29 @@ float lerpTex(vec3 c){
 	const vec3 v = vec3(1.0f) - u;
 	
 	float value = 0.0f;
-	value += texelFetch(sampler3D(noiseTexHandle), (i_part + ivec3(0,0,0)) & M, 0).x * v.x * v.y * v.z;
-	value += texelFetch(sampler3D(noiseTexHandle), (i_part + ivec3(1,0,0)) & M, 0).x * u.x * v.y * v.z;
-	value += texelFetch(sampler3D(noiseTexHandle), (i_part + ivec3(0,1,0)) & M, 0).x * v.x * u.y * v.z;
-	value += texelFetch(sampler3D(noiseTexHandle), (i_part + ivec3(1,1,0)) & M, 0).x * u.x * u.y * v.z;
-	value += texelFetch(sampler3D(noiseTexHandle), (i_part + ivec3(0,0,1)) & M, 0).x * v.x * v.y * u.z;
-	value += texelFetch(sampler3D(noiseTexHandle), (i_part + ivec3(1,0,1)) & M, 0).x * u.x * v.y * u.z;
-	value += texelFetch(sampler3D(noiseTexHandle), (i_part + ivec3(0,1,1)) & M, 0).x * v.x * u.y * u.z;
-	value += texelFetch(sampler3D(noiseTexHandle), (i_part + ivec3(1,1,1)) & M, 0).x * u.x * u.y * u.z;
+	value += texelFetch(noiseTex, (i_part + ivec3(0,0,0)) & M, 0).x * v.x * v.y * v.z;
+	value += texelFetch(noiseTex, (i_part + ivec3(1,0,0)) & M, 0).x * u.x * v.y * v.z;
+	value += texelFetch(noiseTex, (i_part + ivec3(0,1,0)) & M, 0).x * v.x * u.y * v.z;
+	value += texelFetch(noiseTex, (i_part + ivec3(1,1,0)) & M, 0).x * u.x * u.y * v.z;
+	value += texelFetch(noiseTex, (i_part + ivec3(0,0,1)) & M, 0).x * v.x * v.y * u.z;
+	value += texelFetch(noiseTex, (i_part + ivec3(1,0,1)) & M, 0).x * u.x * v.y * u.z;
+	value += texelFetch(noiseTex, (i_part + ivec3(0,1,1)) & M, 0).x * v.x * u.y * u.z;
+	value += texelFetch(noiseTex, (i_part + ivec3(1,1,1)) & M, 0).x * u.x * u.y * u.z;
 	
 	return value;
 }
 
-float generateDensity(ivec3 world_coords) {
+// float terrainDensity(float x, float y, float z) and the uniforms of its
+// noise textures, generated from the density graph of the World, see
+// TerrainGenerator.terrainDensity()
+#include "/density.glsl"
 
-    sampler3D NoiseTex = sampler3D(noiseTexHandle);
+float generateDensity(ivec3 world_coords) {
 
     // map voxel coordinates to [-1, 1]
     vec3 c = 2.0f * (vec3(world_coords) + 0.5f) / (4.0f * vec3(min(world.tiles_width, world.tiles_depth))) - 1.0f;
 
-    float density = c.y+0.5f;
-    
-    // Perlin's noise
-    float amplitude = 0.4f;
-    float frequency = 0.1f;
-    
-    for(int i=0; i<6; i++){
-    	const vec4 f = cubicLerpTex(c * frequency);
-    	
-    	density += amplitude * abs(f.x);
-    	
-        amplitude /= 2.453f;
-        frequency *= 1.734f;
-        
-        c += f.yzw * amplitude * 1.5f; // The warp sholololowwww
-    }
-
-    return density;
+    return terrainDensity(c.x, c.y, c.z);
 }
 
 
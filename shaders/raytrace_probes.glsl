@@ -45,8 +45,8 @@ vec3 computeRadiance(vec3 start, vec3 ray, out float t_voxel) {
 		if(!isinf(t_voxel)){
 			const vec3 voxel_hit_pos = start + ray * t_voxel;
 			
-			const int packedAtlasCoords = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell >> 2u), 0).x;
-			const ivec3 atlasCoords = unpackivec3(packedAtlasCoords) * 4 + ivec3(cell & 3u);
+			const int tile_id = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell >> 2u), 0).x;
+			const ivec3 atlasCoords = unwind3D(tile_id, world.atlas_tile_size) * 4 + ivec3(cell & 3u);
 			const int voxel_type = texelFetch(isampler3D(world.block_ids.tex), atlasCoords, 0).x;
 			
 			const vec3 normal = -sign(ray) * vec3(last_step);
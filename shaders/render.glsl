@@ -12,6 +12,7 @@ layout(local_size_x = 8, local_size_y = 8, local_size_z = 1) in;
 #include "/definitions.glsl"
 #include "/render_common.glsl"
 #include "/PBR.glsl"
+#include "/tile_directory.glsl"
 
 uniform vec4 K;
 uniform mat4 ViewMatrix;
@@ -49,8 +50,8 @@ void main(void){
 			//const bool sunVisible = testSunVisibility(voxel_hit_pos, sunDir);
 			//const bool sunVisible = false;
 		
-			const int packedAtlasCoords = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell >> 2u), 0).x;
-			const ivec3 atlasCoords = unpackivec3(packedAtlasCoords) * 4 + ivec3(cell & 3u);
+			const int tile_id = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell >> 2u), 0).x;
+			const ivec3 atlasCoords = unwind3D(tile_id, world.atlas_tile_size) * 4 + ivec3(cell & 3u);
 			const int voxel_type = texelFetch(isampler3D(world.block_ids.tex), atlasCoords, 0).x;
 			
 			const vec3 normal = -sign(ray) * vec3(last_step);
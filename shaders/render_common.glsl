@@ -53,8 +53,7 @@ bool testBlockAllocated(const ivec3 coords){
 		return false;
 	}
 
-	const int atlasCoords = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell_s2), 0).x;
-	const int tile_id = wind3D(unpackivec3(atlasCoords), world.atlas_tile_size);
+	const int tile_id = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell_s2), 0).x;
 	const uint64_t compressedOccupancy1 = fetchCompressedOccupancy(1, tile_id);
 
 	if(!checkMask(compressedOccupancy1, cell_s0 & 3)){
@@ -76,17 +75,16 @@ bool testBlockSolid(const ivec3 coords){
 	const ivec3 cell_s0 = coords >> 0;
 	const ivec3 cell_s2 = coords >> 2;
 
-	const int atlasCoords = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell_s2), 0).x;
+	const int tile_id = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell_s2), 0).x;
 	
-	if(atlasCoords == -2){
+	if(tile_id == -2){
 		// fully solid
 		return true;
-	}else if(atlasCoords == -1){
+	}else if(tile_id == -1){
 		// fully air
 		return false;
 	}
 	
-	const int tile_id = wind3D(unpackivec3(atlasCoords), world.atlas_tile_size);
 	const uint64_t compressedOccupancy1 = fetchCompressedOccupancy(1, tile_id);
 
 	return checkMask(compressedOccupancy1, cell_s0 & 3);
@@ -126,8 +124,7 @@ int testOccupancy(
 		return 4;
 	}
 
-	const int atlasCoords = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell_s2), 0).x;
-	const int tile_id = wind3D(unpackivec3(atlasCoords), world.atlas_tile_size);
+	const int tile_id = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell_s2), 0).x;
 	const uint64_t compressedOccupancy1 = fetchCompressedOccupancy(1, tile_id);
 
 	if(!checkMask(compressedOccupancy1, cell_s0 & 3)){
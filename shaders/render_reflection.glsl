@@ -108,8 +108,8 @@ void main(void){
             bvec3 last_step;
             uvec3 cell = trace(start, ray, tmin, tmax, t_voxel, iterations, last_step);
             if(!isinf(t_voxel)){
-                const int packedAtlasCoords = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell >> 2u), 0).x;
-                const ivec3 atlasCoords = unpackivec3(packedAtlasCoords) * 4 + ivec3(cell & 3u);
+                const int tile_id = texelFetch(isampler3D(world.occupancy.tex), ivec3(cell >> 2u), 0).x;
+                const ivec3 atlasCoords = unwind3D(tile_id, world.atlas_tile_size) * 4 + ivec3(cell & 3u);
                 color = texelFetch(sampler3D(world.atlas_colors.tex), atlasCoords, 0);
                 normal = -mix(vec3(last_step), -vec3(last_step), lessThan(ray, vec3(0)));
 
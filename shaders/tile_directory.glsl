@@ -0,0 +1,49 @@
+#ifndef TILE_DIRECTORY
+#define TILE_DIRECTORY
+
+#include "/definitions.glsl"
+
+// Sparse tile directory, see TileDirectory.java
+// Included by render.glsl, so that it is compiled with the renderer.
+// directory: ivec4* with one ivec4(coords, tile_index) per slot, the number of
+// slots being a power of 2. tile_index is -1 in the empty slots.
+
+int tileHash(ivec3 c){
+	uint h = uint(c.x) * 0x8DA6B343u ^ uint(c.y) * 0xD8163841u ^ uint(c.z) * 0xCB1AB31Fu;
+	// murmur3 finalizer
+	h ^= h >> 16;
+	h *= 0x85EBCA6Bu;
+	h ^= h >> 13;
+	h *= 0xC2B2AE35u;
+	h ^= h >> 16;
+	return int(h);
+}
+
+/**
+ * Same code as the dense occupancy: -1 (air), -2 (solid) or the index of the
+ * tile in the atlas. The hash is only probed for the tiles whose bit is set
+ * in compressed_occupancy.
+ */
+int lookupTileDirectory(const buffer_handle directory, const ivec3 tile){
+	const ivec3 worldSuperTileSize = ivec3(world.tiles_width, world.tiles_height, world.tiles_depth) / 4;
+	const ivec3 super_tile = tile >> 2;
+	const int super_tile_id = super_tile.x + worldSuperTileSize.x * (super_tile.y + super_tile.z * worldSuperTileSize.y);
+
+	if(!checkMask(fetchCompressedOccupancy(0, super_tile_id), tile & 3)){
+		const uint64_t inside = ArrayLoad(uint64_t, world.compressed_inside_terrain, super_tile_id, 0UL);
+		return checkMask(inside, tile & 3) ? -2 : -1;
+	}
+
+	const int mask = int(directory.size) - 1;
+	int slot = tileHash(tile) & mask;
+	for(int i = 0; i <= mask; i++){
+		const ivec4 entry = ArrayLoad(ivec4, directory, slot, ivec4(0, 0, 0, -1));
+		if(entry.w == -1 || entry.xyz == tile){
+			return entry.w;
+		}
+		slot = (slot + 1) & mask;
+	}
+	return -1;
+}
+
+#endif
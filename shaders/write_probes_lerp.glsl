@@ -59,9 +59,8 @@ void main(){
 		if(c.x >= 0 && c.y >= 0 && c.z >= 0 && 
 			c.x < world.tiles_width && c.y < world.tiles_height && c.z < world.tiles_depth){
 			
-			const int atlasCoords = imageLoad(tiles_occupancy, c).r;
-			if(atlasCoords >= 0){
-				const int tile_index = wind3D(unpackivec3(atlasCoords), world.atlas_tile_size);
+			const int tile_index = imageLoad(tiles_occupancy, c).r;
+			if(tile_index >= 0){
 				const ivec2 C = unwind2D(tile_index, world.probes_lerp_half_size);
 				imageStore(probes_lerp, ivec3(C, coeff) * 2 + ivec3(1) - unwind3D(i, 2), value);				
 			}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * Minimal timing harness: warms the JIT up, then reports the median and the
+ * best time per operation over several measured runs.
+ */
+public class Benchmark {
+
+	public interface Body {
+		/**
+		 * @return any value derived from the work, so that it can't be removed
+		 */
+		double run();
+	}
+
+	public static double sink = 0.0;
+
+	private final int warmupRuns;
+	private final int measuredRuns;
+
+	public Benchmark(int warmupRuns, int measuredRuns) {
+		this.warmupRuns = warmupRuns;
+		this.measuredRuns = measuredRuns;
+	}
+
+	public Benchmark() {
+		this(10, 20);
+	}
+
+	/**
+	 * @param operations number of operations done by one call of the body
+	 * @return the median time per operation, in ns
+	 */
+	public double measure(String name, long operations, Body body) {
+		for (int i = 0; i < warmupRuns; i++) {
+			sink += body.run();
+		}
+
+		long[] times = new long[measuredRuns];
+		for (int i = 0; i < measuredRuns; i++) {
+			long start = System.nanoTime();
+			sink += body.run();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+
+		double median = times[measuredRuns / 2] / (double) operations;
+		System.out.println(String.format("%-40s median %10.3f ns/op   best %10.3f ns/op", name, median,
+				times[0] / (double) operations));
+		return median;
+	}
+}
@@ -0,0 +1,92 @@
+package benchmarks;
+
+import java.util.Random;
+
+import voxels.BrickGrid;
+import voxels.RayHit;
+import voxels.TerrainData;
+import voxels.TerrainGenerator;
+
+/**
+ * Compares bricks of 4^3 and 8^3 voxels on the same terrain: the memory of the
+ * hierarchy, and the iterations and the time of the traversal of rays going
+ * down from the sky and of rays grazing the surface.
+ */
+public class BrickBenchmark {
+
+	public static void main(String[] args) {
+		TerrainData data = new TerrainGenerator(64, 16, 64, 1 << 16, TerrainGenerator.generateNoise(1234))
+				.generate();
+		BrickGrid[] grids = { BrickGrid.build(data, 4), BrickGrid.build(data, 8) };
+
+		final int rays = 1 << 14;
+		float[] sky = rays(data, rays, new Random(0), false);
+		float[] grazing = rays(data, rays, new Random(1), true);
+
+		for (BrickGrid grid : grids) {
+			System.out.println(String.format("brick %d^3: %d mixed bricks, metadata %d KB, masks %d KB", grid.brick_size,
+					grid.numMixedBricks(), grid.metadataBytes() / 1024, grid.maskBytes() / 1024));
+		}
+		System.out.println();
+
+		// both sizes must hit the same voxels
+		RayHit a = new RayHit(), b = new RayHit();
+		int mismatches = 0;
+		for (float[] r : new float[][] { sky, grazing }) {
+			for (int i = 0; i < rays; i++) {
+				boolean ha = trace(grids[0], r, i, a), hb = trace(grids[1], r, i, b);
+				if (ha != hb || (ha && (a.x != b.x || a.y != b.y || a.z != b.z))) {
+					mismatches++;
+				}
+			}
+		}
+		System.out.println("different hits between the two sizes: " + mismatches);
+		System.out.println();
+
+		Benchmark bench = new Benchmark();
+		for (String name : new String[] { "sky", "grazing" }) {
+			float[] r = name.equals("sky") ? sky : grazing;
+			for (BrickGrid grid : grids) {
+				RayHit hit = new RayHit();
+				long iterations = 0;
+				for (int i = 0; i < rays; i++) {
+					trace(grid, r, i, hit);
+					iterations += hit.iterations;
+				}
+				bench.measure(String.format("%s rays, brick %d^3", name, grid.brick_size), rays, () -> {
+					int hits = 0;
+					for (int i = 0; i < rays; i++) {
+						if (trace(grid, r, i, hit))
+							hits++;
+					}
+					return hits;
+				});
+				System.out.println(String.format("    %.2f iterations per ray", iterations / (double) rays));
+			}
+		}
+	}
+
+	private static boolean trace(BrickGrid grid, float[] r, int i, RayHit hit) {
+		return grid.trace(r[i * 6], r[i * 6 + 1], r[i * 6 + 2], r[i * 6 + 3], r[i * 6 + 4], r[i * 6 + 5], hit);
+	}
+
+	/**
+	 * Rays starting above the terrain, going down or nearly horizontal
+	 */
+	private static float[] rays(TerrainData data, int n, Random random, boolean grazing) {
+		float W = data.width * 4, H = data.height * 4, D = data.depth * 4;
+		float[] r = new float[n * 6];
+		for (int i = 0; i < n; i++) {
+			r[i * 6] = random.nextFloat() * W;
+			r[i * 6 + 1] = H - 1.0f;
+			r[i * 6 + 2] = random.nextFloat() * D;
+			double theta = random.nextDouble() * 2.0 * Math.PI;
+			double down = grazing ? 0.05 + 0.15 * random.nextDouble() : 0.5 + 0.5 * random.nextDouble();
+			double horizontal = Math.sqrt(1.0 - down * down);
+			r[i * 6 + 3] = (float) (horizontal * Math.cos(theta));
+			r[i * 6 + 4] = (float) -down;
+			r[i * 6 + 5] = (float) (horizontal * Math.sin(theta));
+		}
+		return r;
+	}
+}
@@ -0,0 +1,30 @@
+package benchmarks;
+
+import voxels.DedupTileStore;
+import voxels.TerrainData;
+import voxels.TerrainGenerator;
+
+/**
+ * Deduplication of the tile contents of generated terrains: the number of
+ * stored tiles per unique content, and the memory of the store against the
+ * atlas slots of the same tiles (8 bytes of mask and 64 of block types).
+ */
+public class DedupBenchmark {
+
+	public static void main(String[] args) {
+		int[][] sizes = { { 32, 16, 32 }, { 128, 32, 128 } };
+		for (int[] size : sizes) {
+			TerrainGenerator generator = new TerrainGenerator(size[0], size[1], size[2], 1 << 18,
+					TerrainGenerator.generateNoise(42));
+			TerrainData data = generator.generate();
+			generator.generateBlocks(data);
+
+			DedupTileStore store = DedupTileStore.build(data);
+			long atlasBytes = (long) store.tiles() * (Long.BYTES + 64);
+			System.out.println(String.format(
+					"%dx%dx%d tiles: %d tiles, %d unique contents, dedup ratio %.2f, %.1f MB against %.1f MB of atlas",
+					size[0], size[1], size[2], store.tiles(), store.uniqueContents(), store.dedupRatio(),
+					store.memoryBytes() * 1.0E-6, atlasBytes * 1.0E-6));
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.util.Random;
+
+import utils.Noise3D;
+import voxels.DensityFunction;
+import voxels.TerrainGenerator;
+
+/**
+ * Compares the compiled density graph of the terrain with the evaluation
+ * walking its nodes.
+ */
+public class DensityBenchmark {
+
+	public static void main(String[] args) {
+		Noise3D noise = TerrainGenerator.generateNoise(1234);
+		DensityFunction density = TerrainGenerator.terrainDensity(noise);
+
+		long start = System.nanoTime();
+		DensityFunction.Sampler sampler = density.compile().get();
+		System.out.println(String.format("compilation: %.1f ms", (System.nanoTime() - start) / 1e6));
+
+		final int points = 1 << 16;
+		float[] x = new float[points], y = new float[points], z = new float[points];
+		Random random = new Random(0);
+		for (int i = 0; i < points; i++) {
+			x[i] = random.nextFloat() * 2.0f - 1.0f;
+			y[i] = random.nextFloat() * 2.0f - 1.0f;
+			z[i] = random.nextFloat() * 2.0f - 1.0f;
+		}
+
+		Benchmark bench = new Benchmark();
+		double evaluated = bench.measure("DensityFunction.evaluate", points, () -> {
+			double sum = 0.0;
+			for (int i = 0; i < points; i++)
+				sum += density.evaluate(x[i], y[i], z[i]);
+			return sum;
+		});
+		double compiled = bench.measure("DensityFunction.compile", points, () -> {
+			double sum = 0.0;
+			for (int i = 0; i < points; i++)
+				sum += sampler.density(x[i], y[i], z[i]);
+			return sum;
+		});
+
+		System.out.println();
+		System.out.println(String.format("speedup compiled: %.2fx", evaluated / compiled));
+	}
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.util.Random;
+
+import utils.Noise3D;
+import utils.PerlinNoise3D;
+import utils.SimplexNoise3D;
+
+/**
+ * Compares the gradient and simplex noises with the value noise of Noise3D,
+ * for random points and for grids.
+ */
+public class GradientNoiseBenchmark {
+
+	public static void main(String[] args) {
+		final int size = 64;
+		final float step = 0.37f;
+		final float frequency = 0.25f;
+
+		Noise3D value = new Noise3D(1234, 64, -1, 1);
+		PerlinNoise3D perlin = new PerlinNoise3D(1234, 64);
+		SimplexNoise3D simplex = new SimplexNoise3D(1234, 64);
+
+		final int points = size * size * size;
+		float[] x = new float[points], y = new float[points], z = new float[points];
+		Random random = new Random(0);
+		for (int i = 0; i < points; i++) {
+			x[i] = random.nextFloat() * 100.0f;
+			y[i] = random.nextFloat() * 100.0f;
+			z[i] = random.nextFloat() * 100.0f;
+		}
+		float[] dest = new float[points];
+
+		Benchmark bench = new Benchmark();
+
+		double cubic = bench.measure("Noise3D.cubicSampling", points, () -> {
+			for (int i = 0; i < points; i++)
+				dest[i] = value.cubicSampling(x[i], y[i], z[i], 1.0f, frequency);
+			return dest[17];
+		});
+		double catmullRom = bench.measure("Noise3D.catmullRomSampling", points, () -> {
+			for (int i = 0; i < points; i++)
+				dest[i] = value.catmullRomSampling(x[i], y[i], z[i], 1.0f, frequency);
+			return dest[17];
+		});
+		double perlinPoints = bench.measure("PerlinNoise3D.sample", points, () -> {
+			perlin.sample(x, y, z, points, 1.0f, frequency, dest);
+			return dest[17];
+		});
+		double simplexPoints = bench.measure("SimplexNoise3D.sample", points, () -> {
+			simplex.sample(x, y, z, points, 1.0f, frequency, dest);
+			return dest[17];
+		});
+
+		double cubicGrid = bench.measure("Noise3D.cubicSamplingGrid", points, () -> {
+			value.cubicSamplingGrid(0, 0, 0, step, size, size, size, 1.0f, frequency, dest, 0);
+			return dest[17];
+		});
+		double perlinGrid = bench.measure("PerlinNoise3D.sampleGrid", points, () -> {
+			perlin.sampleGrid(0, 0, 0, step, size, size, size, 1.0f, frequency, dest, 0);
+			return dest[17];
+		});
+		double simplexGrid = bench.measure("SimplexNoise3D.sampleGrid", points, () -> {
+			simplex.sampleGrid(0, 0, 0, step, size, size, size, 1.0f, frequency, dest, 0);
+			return dest[17];
+		});
+
+		System.out.println();
+		System.out.println(String.format("perlin / cubic points:      %.2fx", cubic / perlinPoints));
+		System.out.println(String.format("simplex / cubic points:     %.2fx", cubic / simplexPoints));
+		System.out.println(String.format("simplex / catmullRom points: %.2fx", catmullRom / simplexPoints));
+		System.out.println(String.format("perlin / cubic grid:        %.2fx", cubicGrid / perlinGrid));
+		System.out.println(String.format("simplex / cubic grid:       %.2fx", cubicGrid / simplexGrid));
+	}
+}
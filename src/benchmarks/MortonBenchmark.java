@@ -0,0 +1,207 @@
+package benchmarks;
+
+import java.util.Random;
+
+import utils.Morton;
+import voxels.AtlasCompactor;
+import voxels.TerrainData;
+import voxels.TerrainGenerator;
+
+/**
+ * Compares the row-major and the Morton layouts: the cost of the codes, the
+ * neighbour queries in a large grid, and the locality of the atlas slots of
+ * neighbouring tiles, before and after compacting the atlas.
+ *
+ * Java can't read the hardware cache counters, so the cache misses are
+ * estimated by counting the distinct 64 bytes lines touched by each query.
+ */
+public class MortonBenchmark {
+
+	private static final int LINE = 64;
+
+	public static void main(String[] args) {
+		codes();
+		neighbourQueries();
+		atlasNeighbours();
+	}
+
+	private static void codes() {
+		final int points = 1 << 16;
+		int[] x = new int[points], y = new int[points], z = new int[points];
+		Random random = new Random(0);
+		for (int i = 0; i < points; i++) {
+			x[i] = random.nextInt(1024);
+			y[i] = random.nextInt(1024);
+			z[i] = random.nextInt(1024);
+		}
+		int[] codes = new int[points];
+
+		Benchmark bench = new Benchmark();
+		double naive = bench.measure("bit loop encode", points, () -> {
+			for (int i = 0; i < points; i++) {
+				int c = 0;
+				for (int b = 0; b < 10; b++) {
+					c |= (((x[i] >> b) & 1) | (((y[i] >> b) & 1) << 1) | (((z[i] >> b) & 1) << 2)) << (3 * b);
+				}
+				codes[i] = c;
+			}
+			return codes[17];
+		});
+		double table = bench.measure("Morton.encode", points, () -> {
+			for (int i = 0; i < points; i++)
+				codes[i] = Morton.encode(x[i], y[i], z[i]);
+			return codes[17];
+		});
+		bench.measure("Morton.decodeX/Y/Z", points, () -> {
+			int sum = 0;
+			for (int i = 0; i < points; i++)
+				sum += Morton.decodeX(codes[i]) + Morton.decodeY(codes[i]) + Morton.decodeZ(codes[i]);
+			return sum;
+		});
+		System.out.println(String.format("table / bit loop encode: %.2fx", naive / table));
+		System.out.println();
+	}
+
+	/**
+	 * Sums the 3x3x3 neighbourhoods of random cells of a 256^3 grid
+	 */
+	private static void neighbourQueries() {
+		final int S = 256;
+		final int queries = 1 << 16;
+		int[] rowMajor = new int[S * S * S];
+		int[] morton = new int[S * S * S];
+		Random random = new Random(1);
+		for (int z = 0; z < S; z++) {
+			for (int y = 0; y < S; y++) {
+				for (int x = 0; x < S; x++) {
+					int v = random.nextInt(100);
+					rowMajor[x + S * (y + S * z)] = v;
+					morton[Morton.encode(x, y, z)] = v;
+				}
+			}
+		}
+		int[] qx = new int[queries], qy = new int[queries], qz = new int[queries];
+		for (int i = 0; i < queries; i++) {
+			qx[i] = 1 + random.nextInt(S - 2);
+			qy[i] = 1 + random.nextInt(S - 2);
+			qz[i] = 1 + random.nextInt(S - 2);
+		}
+
+		Benchmark bench = new Benchmark();
+		double rowMajorTime = bench.measure("3x3x3 neighbours, row-major", queries, () -> {
+			long sum = 0;
+			for (int i = 0; i < queries; i++) {
+				int center = qx[i] + S * (qy[i] + S * qz[i]);
+				for (int dz = -1; dz <= 1; dz++)
+					for (int dy = -1; dy <= 1; dy++)
+						for (int dx = -1; dx <= 1; dx++)
+							sum += rowMajor[center + dx + S * (dy + S * dz)];
+			}
+			return sum;
+		});
+		double mortonTime = bench.measure("3x3x3 neighbours, Morton", queries, () -> {
+			long sum = 0;
+			for (int i = 0; i < queries; i++) {
+				int corner = Morton.encode(qx[i] - 1, qy[i] - 1, qz[i] - 1);
+				for (int dz = 0, cz = corner; dz < 3; dz++, cz = Morton.incZ(cz))
+					for (int dy = 0, cy = cz; dy < 3; dy++, cy = Morton.incY(cy))
+						for (int dx = 0, cx = cy; dx < 3; dx++, cx = Morton.incX(cx))
+							sum += morton[cx];
+			}
+			return sum;
+		});
+
+		long rowMajorLines = 0, mortonLines = 0;
+		long[] lines = new long[27];
+		for (int i = 0; i < queries; i++) {
+			int n = 0;
+			for (int dz = -1; dz <= 1; dz++)
+				for (int dy = -1; dy <= 1; dy++)
+					for (int dx = -1; dx <= 1; dx++)
+						lines[n++] = (qx[i] + dx + S * (qy[i] + dy + S * (qz[i] + dz))) * Integer.BYTES / LINE;
+			rowMajorLines += distinct(lines, n);
+			n = 0;
+			for (int dz = -1; dz <= 1; dz++)
+				for (int dy = -1; dy <= 1; dy++)
+					for (int dx = -1; dx <= 1; dx++)
+						lines[n++] = (long) Morton.encode(qx[i] + dx, qy[i] + dy, qz[i] + dz) * Integer.BYTES / LINE;
+			mortonLines += distinct(lines, n);
+		}
+		System.out.println(String.format("row-major / Morton time: %.2fx", rowMajorTime / mortonTime));
+		System.out.println(String.format("cache lines per query: row-major %.2f, Morton %.2f",
+				rowMajorLines / (double) queries, mortonLines / (double) queries));
+		System.out.println();
+	}
+
+	/**
+	 * Atlas slots of the 6 neighbours of each surface tile, allocated in
+	 * row-major or in Morton order, then compacted by AtlasCompactor
+	 */
+	private static void atlasNeighbours() {
+		for (TerrainGenerator.TileOrder order : TerrainGenerator.TileOrder.values()) {
+			TerrainGenerator generator = new TerrainGenerator(64, 16, 64, 1 << 16,
+					TerrainGenerator.generateNoise(1234));
+			generator.tileOrder = order;
+			TerrainData data = generator.generate();
+			System.out.println(String.format("atlas lines per tile neighbourhood, %s allocation: %.2f", order,
+					atlasLines(data)));
+
+			long start = System.nanoTime();
+			AtlasCompactor compactor = new AtlasCompactor(data);
+			compactor.run();
+			double ms = (System.nanoTime() - start) * 1e-6;
+			System.out.println(String.format(
+					"atlas compaction in %.1f ms: fragmentation %.1f%% -> %.1f%%, span %d -> %d, lines per tile neighbourhood %.2f",
+					ms, 100.0 * compactor.fragmentationBefore, 100.0 * AtlasCompactor.fragmentation(data),
+					compactor.spanBefore, AtlasCompactor.span(data), atlasLines(data)));
+		}
+	}
+
+	/**
+	 * @return the mean number of lines of compressed_atlas read by the
+	 *         neighbourhood of each tile
+	 */
+	private static double atlasLines(TerrainData data) {
+		long lines = 0, tiles = 0;
+		long[] queryLines = new long[7];
+		for (int z = 0; z < data.depth; z++) {
+			for (int y = 0; y < data.height; y++) {
+				for (int x = 0; x < data.width; x++) {
+					int code = data.occupancy[data.tileIndex(x, y, z)];
+					if (code < 0) {
+						continue;
+					}
+					int n = 0;
+					queryLines[n++] = (long) code * Long.BYTES / LINE;
+					for (int d = 0; d < 6; d++) {
+						int nx = x + (d == 0 ? -1 : d == 1 ? 1 : 0);
+						int ny = y + (d == 2 ? -1 : d == 3 ? 1 : 0);
+						int nz = z + (d == 4 ? -1 : d == 5 ? 1 : 0);
+						if (nx < 0 || ny < 0 || nz < 0 || nx >= data.width || ny >= data.height || nz >= data.depth) {
+							continue;
+						}
+						int neighbour = data.occupancy[data.tileIndex(nx, ny, nz)];
+						if (neighbour >= 0) {
+							queryLines[n++] = (long) neighbour * Long.BYTES / LINE;
+						}
+					}
+					lines += distinct(queryLines, n);
+					tiles++;
+				}
+			}
+		}
+		return lines / (double) tiles;
+	}
+
+	private static int distinct(long[] values, int n) {
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			boolean seen = false;
+			for (int j = 0; j < i && !seen; j++)
+				seen = values[j] == values[i];
+			if (!seen)
+				count++;
+		}
+		return count;
+	}
+}
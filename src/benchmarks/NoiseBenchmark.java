@@ -0,0 +1,146 @@
+package benchmarks;
+
+import org.joml.Vector3f;
+
+import utils.Noise2D;
+import utils.Noise3D;
+
+/**
+ * Compares the scalar sampling methods of the noise with the bulk ones, and
+ * the analytic gradients with central finite differences.
+ */
+public class NoiseBenchmark {
+
+	public static void main(String[] args) {
+		final int size = 64;
+		final float step = 0.37f;
+		final float frequency = 0.25f;
+
+		Noise3D noise3D = new Noise3D(1234, 64, -1, 1);
+		Noise2D noise2D = new Noise2D(1234, 256, -1, 1);
+		float[] dest = new float[size * size * size];
+
+		Benchmark bench = new Benchmark();
+		long ops3D = (long) size * size * size;
+		final int size2D = 512;
+		long ops2D = (long) size2D * size2D;
+
+		double scalarLinear = bench.measure("Noise3D.linearSampling scalar", ops3D, () -> {
+			for (int k = 0; k < size; k++)
+				for (int j = 0; j < size; j++)
+					for (int i = 0; i < size; i++)
+						dest[(k * size + j) * size + i] = noise3D.linearSampling(i * step, j * step, k * step, 1.0f,
+								frequency);
+			return dest[17];
+		});
+		double gridLinear = bench.measure("Noise3D.linearSamplingGrid", ops3D, () -> {
+			noise3D.linearSamplingGrid(0, 0, 0, step, size, size, size, 1.0f, frequency, dest, 0);
+			return dest[17];
+		});
+
+		double scalarCubic = bench.measure("Noise3D.cubicSampling scalar", ops3D, () -> {
+			for (int k = 0; k < size; k++)
+				for (int j = 0; j < size; j++)
+					for (int i = 0; i < size; i++)
+						dest[(k * size + j) * size + i] = noise3D.cubicSampling(i * step, j * step, k * step, 1.0f,
+								frequency);
+			return dest[17];
+		});
+		double gridCubic = bench.measure("Noise3D.cubicSamplingGrid", ops3D, () -> {
+			noise3D.cubicSamplingGrid(0, 0, 0, step, size, size, size, 1.0f, frequency, dest, 0);
+			return dest[17];
+		});
+
+		final int points = size * size * size;
+		float[] x = new float[points], y = new float[points], z = new float[points];
+		java.util.Random random = new java.util.Random(0);
+		for (int i = 0; i < points; i++) {
+			x[i] = random.nextFloat() * 100.0f;
+			y[i] = random.nextFloat() * 100.0f;
+			z[i] = random.nextFloat() * 100.0f;
+		}
+		double scalarPoints = bench.measure("Noise3D.cubicSampling scalar points", points, () -> {
+			for (int i = 0; i < points; i++)
+				dest[i] = noise3D.cubicSampling(x[i], y[i], z[i], 1.0f, frequency);
+			return dest[17];
+		});
+		double bulkPoints = bench.measure("Noise3D.cubicSampling points", points, () -> {
+			noise3D.cubicSampling(x, y, z, points, 1.0f, frequency, dest);
+			return dest[17];
+		});
+
+		double scalar2D = bench.measure("Noise2D.cubicSampling scalar", ops2D, () -> {
+			for (int j = 0; j < size2D; j++)
+				for (int i = 0; i < size2D; i++)
+					dest[j * size2D + i] = noise2D.cubicSampling(i * step, j * step, 1.0f, frequency);
+			return dest[17];
+		});
+		double grid2D = bench.measure("Noise2D.cubicSamplingGrid", ops2D, () -> {
+			noise2D.cubicSamplingGrid(0, 0, step, size2D, size2D, 1.0f, frequency, dest, 0);
+			return dest[17];
+		});
+
+		final float h = 0.01f;
+		final Vector3f gradient = new Vector3f();
+		double[] finiteDifferences = new double[3];
+		double[] analytic = new double[3];
+		String[] kernels = { "linear", "cubic", "catmullRom" };
+		for (int kernel = 0; kernel < 3; kernel++) {
+			final int kind = kernel;
+			finiteDifferences[kernel] = bench.measure("Noise3D." + kernels[kernel] + " finite differences", points,
+					() -> {
+						for (int i = 0; i < points; i++) {
+							float v = sample(noise3D, kind, x[i], y[i], z[i], frequency);
+							float gx = sample(noise3D, kind, x[i] + h, y[i], z[i], frequency)
+									- sample(noise3D, kind, x[i] - h, y[i], z[i], frequency);
+							float gy = sample(noise3D, kind, x[i], y[i] + h, z[i], frequency)
+									- sample(noise3D, kind, x[i], y[i] - h, z[i], frequency);
+							float gz = sample(noise3D, kind, x[i], y[i], z[i] + h, frequency)
+									- sample(noise3D, kind, x[i], y[i], z[i] - h, frequency);
+							dest[i] = v + (gx + gy + gz) / (2.0f * h);
+						}
+						return dest[17];
+					});
+			analytic[kernel] = bench.measure("Noise3D." + kernels[kernel] + "SamplingGradient", points, () -> {
+				for (int i = 0; i < points; i++) {
+					float v = sampleGradient(noise3D, kind, x[i], y[i], z[i], frequency, gradient);
+					dest[i] = v + gradient.x + gradient.y + gradient.z;
+				}
+				return dest[17];
+			});
+		}
+
+		System.out.println();
+		System.out.println(String.format("speedup linear 3D grid: %.2fx", scalarLinear / gridLinear));
+		System.out.println(String.format("speedup cubic 3D grid:  %.2fx", scalarCubic / gridCubic));
+		System.out.println(String.format("speedup cubic 3D points: %.2fx", scalarPoints / bulkPoints));
+		System.out.println(String.format("speedup cubic 2D grid:  %.2fx", scalar2D / grid2D));
+		for (int kernel = 0; kernel < 3; kernel++) {
+			System.out.println(String.format("speedup %s gradient: %.2fx", kernels[kernel],
+					finiteDifferences[kernel] / analytic[kernel]));
+		}
+	}
+
+	private static float sample(Noise3D noise, int kernel, float x, float y, float z, float frequency) {
+		switch (kernel) {
+		case 0:
+			return noise.linearSampling(x, y, z, 1.0f, frequency);
+		case 1:
+			return noise.cubicSampling(x, y, z, 1.0f, frequency);
+		default:
+			return noise.catmullRomSampling(x, y, z, 1.0f, frequency);
+		}
+	}
+
+	private static float sampleGradient(Noise3D noise, int kernel, float x, float y, float z, float frequency,
+			Vector3f gradient) {
+		switch (kernel) {
+		case 0:
+			return noise.linearSamplingGradient(x, y, z, 1.0f, frequency, gradient);
+		case 1:
+			return noise.cubicSamplingGradient(x, y, z, 1.0f, frequency, gradient);
+		default:
+			return noise.catmullRomSamplingGradient(x, y, z, 1.0f, frequency, gradient);
+		}
+	}
+}
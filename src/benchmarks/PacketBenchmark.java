@@ -0,0 +1,145 @@
+package benchmarks;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import utils.Camera;
+import voxels.OccupancyPyramid;
+import voxels.PacketTracer;
+import voxels.RayHit;
+import voxels.TerrainData;
+import voxels.TerrainGenerator;
+
+/**
+ * Compares single rays with packets of PacketTracer.LANES rays, on the rays
+ * of a camera, ordered by squares of pixels, and on the rays of one probe,
+ * ordered along a spiral of the sphere.
+ *
+ * Compiled by the vector profile of the pom, run with --add-modules
+ * jdk.incubator.vector.
+ */
+public class PacketBenchmark {
+
+	public static void main(String[] args) {
+		TerrainData data = new TerrainGenerator(64, 16, 64, 1 << 16, TerrainGenerator.generateNoise(1234))
+				.generate();
+		OccupancyPyramid single = new OccupancyPyramid(data, 1);
+		PacketTracer packets = new PacketTracer(data);
+		System.out.println(PacketTracer.LANES + " rays per packet");
+
+		float W = data.width * 4, H = data.height * 4, D = data.depth * 4;
+		float[][] camera = cameraRays(new Vector3f(-0.1f * W, 1.2f * H, -0.1f * D), new Vector3f(W, H, D).mul(0.5f),
+				512, 256);
+		float[][] probe = probeRays(surfaceProbe(data), 1 << 14);
+
+		Benchmark bench = new Benchmark();
+		for (String name : new String[] { "camera", "probe" }) {
+			float[][] r = name.equals("camera") ? camera : probe;
+			int n = r[0].length;
+			RayHit[] a = new RayHit[n], b = new RayHit[n];
+			for (int i = 0; i < n; i++) {
+				a[i] = new RayHit();
+				b[i] = new RayHit();
+			}
+
+			double singleTime = bench.measure(name + " rays, single", n, () -> {
+				int hits = 0;
+				for (int i = 0; i < n; i++) {
+					if (single.trace(r[0][i], r[1][i], r[2][i], r[3][i], r[4][i], r[5][i], a[i]))
+						hits++;
+				}
+				return hits;
+			});
+			packets.packetIterations = packets.coherentIterations = packets.scalarIterations = 0;
+			double packetTime = bench.measure(name + " rays, packets", n, () -> {
+				packets.trace(r[0], r[1], r[2], r[3], r[4], r[5], 0, n, b);
+				return b[n / 2].t;
+			});
+
+			int mismatches = 0;
+			long iterations = 0;
+			for (int i = 0; i < n; i++) {
+				iterations += a[i].iterations;
+				if (a[i].t != b[i].t || a[i].iterations != b[i].iterations || a[i].last_step != b[i].last_step
+						|| (a[i].t != Float.POSITIVE_INFINITY
+								&& (a[i].x != b[i].x || a[i].y != b[i].y || a[i].z != b[i].z))) {
+					mismatches++;
+				}
+			}
+			long lanes = packets.packetIterations * PacketTracer.LANES;
+			System.out.println(String.format(
+					"    single / packets: %.2fx, %.1f iterations per ray, %.0f%% coherent packet iterations, %.0f%% scalar iterations, %d different results",
+					singleTime / packetTime, iterations / (double) n,
+					100.0 * packets.coherentIterations / packets.packetIterations,
+					100.0 * packets.scalarIterations / (packets.scalarIterations + lanes), mismatches));
+		}
+	}
+
+	/**
+	 * Rays of the pixels of a camera, in squares of pixels
+	 */
+	private static float[][] cameraRays(Vector3f eye, Vector3f center, int width, int height) {
+		Matrix4f view = new Matrix4f().setLookAt(eye, center, new Vector3f(0, 1, 0));
+		Vector4f K = Camera.intrinsics(Camera.perspective(width, height, new Matrix4f()), width, height);
+		Matrix3f Rt = new Matrix3f().set(view).transpose();
+		int side = (int) Math.sqrt(PacketTracer.LANES);
+		int square = PacketTracer.LANES / side;
+		float[][] r = new float[6][width * height];
+		Vector3f ray = new Vector3f();
+		int i = 0;
+		for (int y0 = 0; y0 < height; y0 += side) {
+			for (int x0 = 0; x0 < width; x0 += square) {
+				for (int y = y0; y < y0 + side; y++) {
+					for (int x = x0; x < x0 + square; x++) {
+						// see computeRay()
+						ray.set((x + 0.5f - K.z) / K.x, -(y + 0.5f - K.w) / K.y, -1.0f);
+						Rt.transform(ray).normalize();
+						set(r, i++, eye, ray);
+					}
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Rays of a probe along a Fibonacci spiral, so that consecutive rays are
+	 * close
+	 */
+	private static float[][] probeRays(Vector3f probe, int n) {
+		float[][] r = new float[6][n];
+		Vector3f ray = new Vector3f();
+		for (int i = 0; i < n; i++) {
+			double y = 1.0 - 2.0 * (i + 0.5) / n;
+			double radius = Math.sqrt(1.0 - y * y);
+			double phi = i * Math.PI * (3.0 - Math.sqrt(5.0));
+			ray.set((float) (radius * Math.cos(phi)), (float) y, (float) (radius * Math.sin(phi)));
+			set(r, i, probe, ray);
+		}
+		return r;
+	}
+
+	/**
+	 * A point of the air 2 voxels above the surface, in the middle of the
+	 * terrain
+	 */
+	private static Vector3f surfaceProbe(TerrainData data) {
+		int x = data.width * 2, z = data.depth * 2;
+		int y = data.height * 4 - 1;
+		while (y > 0 && !data.testBlockSolid(x, y - 1, z)) {
+			y--;
+		}
+		return new Vector3f(x + 0.5f, y + 2.5f, z + 0.5f);
+	}
+
+	private static void set(float[][] r, int i, Vector3f start, Vector3f ray) {
+		r[0][i] = start.x;
+		r[1][i] = start.y;
+		r[2][i] = start.z;
+		r[3][i] = ray.x;
+		r[4][i] = ray.y;
+		r[5][i] = ray.z;
+	}
+}
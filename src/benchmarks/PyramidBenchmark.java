@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.Random;
+
+import voxels.OccupancyPyramid;
+import voxels.RayHit;
+import voxels.TerrainData;
+import voxels.TerrainGenerator;
+import voxels.TileDistanceField;
+import voxels.VoxelTracer;
+
+/**
+ * Compares the 16/4/1 skips of the GPU traversal with the full occupancy
+ * pyramid and the tile distance field, on camera rays seeing the terrain from above it and from beyond one
+ * of its sides. The average iterations per ray hitting the terrain box are the
+ * value shown by World from PerformanceCounters.mainWindowIterationCount.
+ */
+public class PyramidBenchmark {
+
+	public static void main(String[] args) {
+		TerrainData data = new TerrainGenerator(256, 32, 256, 1 << 18, TerrainGenerator.generateNoise(1234))
+				.generate();
+		OccupancyPyramid gpu = new OccupancyPyramid(data, 1);
+		OccupancyPyramid pyramid = new OccupancyPyramid(data);
+		TileDistanceField distances = new TileDistanceField(data);
+		System.out.println("pyramid levels: " + pyramid.levels);
+
+		final int rays = 1 << 15;
+		Random random = new Random(0);
+		float W = data.width * 4, H = data.height * 4, D = data.depth * 4;
+		float[] above = new float[rays * 6], side = new float[rays * 6];
+		for (int i = 0; i < rays; i++) {
+			// looking down from above the terrain
+			ray(above, i, W * 0.5f, H * 2.0f, D * 0.5f, random.nextFloat() * W, 0.0f, random.nextFloat() * D);
+			// looking across the terrain from beyond one of its sides
+			ray(side, i, -W * 0.5f, H * 1.5f, D * 0.5f, random.nextFloat() * W, random.nextFloat() * H * 0.5f,
+					random.nextFloat() * D);
+		}
+
+		Benchmark bench = new Benchmark();
+		for (String name : new String[] { "above", "side" }) {
+			float[] r = name.equals("above") ? above : side;
+			VoxelTracer[] structures = { gpu, pyramid, distances };
+			String[] names = { "1 level", pyramid.levels + " levels", "distance field" };
+			double[] average = new double[structures.length];
+			for (int s = 0; s < structures.length; s++) {
+				VoxelTracer p = structures[s];
+				RayHit hit = new RayHit();
+				bench.measure(name + " rays, " + names[s], rays, () -> {
+					int hits = 0;
+					for (int i = 0; i < rays; i++) {
+						if (trace(p, r, i, hit))
+							hits++;
+					}
+					return hits;
+				});
+				long iterations = 0;
+				for (int i = 0; i < rays; i++) {
+					trace(p, r, i, hit);
+					iterations += hit.iterations;
+				}
+				average[s] = iterations / (double) rays;
+			}
+			for (int s = 1; s < structures.length; s++) {
+				System.out.println(String.format("average iterations, %s: %.2f -> %.2f (-%.1f%%)", names[s], average[0],
+						average[s], 100.0 * (1.0 - average[s] / average[0])));
+			}
+		}
+	}
+
+	private static void ray(float[] r, int i, float fromX, float fromY, float fromZ, float toX, float toY, float toZ) {
+		float dx = toX - fromX, dy = toY - fromY, dz = toZ - fromZ;
+		float l = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		r[i * 6] = fromX;
+		r[i * 6 + 1] = fromY;
+		r[i * 6 + 2] = fromZ;
+		r[i * 6 + 3] = dx / l;
+		r[i * 6 + 4] = dy / l;
+		r[i * 6 + 5] = dz / l;
+	}
+
+	private static boolean trace(VoxelTracer p, float[] r, int i, RayHit hit) {
+		return p.trace(r[i * 6], r[i * 6 + 1], r[i * 6 + 2], r[i * 6 + 3], r[i * 6 + 4], r[i * 6 + 5], hit);
+	}
+}
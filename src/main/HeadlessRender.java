@@ -0,0 +1,90 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import utils.Camera;
+import voxels.CpuRenderer;
+import voxels.OccupancyPyramid;
+import voxels.SunVisibilityCache;
+import voxels.TerrainData;
+import voxels.TerrainGenerator;
+import voxels.TileDistanceField;
+
+/**
+ * Renders the terrain of the default world on the CPU, without a window nor a
+ * GPU, with the sun shadows of a SunVisibilityCache, and writes it to a PNG.
+ *
+ * Arguments: [width] [height] [output file] [--pyramid | --distance],
+ * --pyramid tracing with all the levels of the OccupancyPyramid and --distance
+ * with the TileDistanceField instead of the GPU skips, the iterations being
+ * compared to the GPU skips.
+ */
+public class HeadlessRender {
+
+	private static final int MAX_TILES = 1 << 19; // as in MainClass
+
+	public static void main(String[] args) throws IOException {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 1280;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 720;
+		File output = new File(args.length > 2 ? args[2] : "render.png");
+		String mode = args.length > 3 ? args[3] : "";
+
+		// same world as MainClass
+		float voxelSize = 2.0f / 64.0f;
+		int W = 2 * 64, H = 64, D = 2 * 64;
+		TerrainGenerator generator = new TerrainGenerator(W, H, D, MAX_TILES,
+				TerrainGenerator.generateNoise(System.currentTimeMillis()));
+		TerrainData data = generator.generate();
+		generator.generateBlocks(data);
+		System.out.println(String.format("Density cache hit rate: %.1f%%", 100.0 * generator.getDensityCacheHitRate()));
+		Vector3f minCorner = new Vector3f(W, H, D).mul(voxelSize * -0.5f);
+		CpuRenderer gpuSkips = new CpuRenderer(new OccupancyPyramid(data, 1), minCorner, voxelSize);
+		CpuRenderer renderer = switch (mode) {
+		case "--pyramid" -> new CpuRenderer(new OccupancyPyramid(data), minCorner, voxelSize);
+		case "--distance" -> new CpuRenderer(new TileDistanceField(data), minCorner, voxelSize);
+		default -> gpuSkips;
+		};
+
+		// sun shadows, then moved as by a slow day cycle
+		long begin = System.nanoTime();
+		SunVisibilityCache sun = new SunVisibilityCache(new TileDistanceField(data), renderer.sunDir);
+		System.out.println(String.format(
+				"Sun visibility: %d exposed faces, %d lit, %.1f MB, %.1f ms, %.0f%% quick accepts of %d rays",
+				sun.exposedFaces(), sun.visibleFaces(), sun.memoryBytes() * 1.0E-6, (System.nanoTime() - begin) * 1.0E-6,
+				100.0 * sun.quickAccepts / (sun.quickAccepts + sun.tracedRays), sun.quickAccepts + sun.tracedRays));
+		begin = System.nanoTime();
+		sun.setSunDir(new Vector3f(renderer.sunDir).rotateY(0.01f));
+		System.out.println(String.format("Sun moved by 0.01 rad: %d of %d columns in %.1f ms, %d stable",
+				sun.recomputedColumns, W * D * 16, (System.nanoTime() - begin) * 1.0E-6, sun.stableColumns));
+		renderer.sunDir.set(sun.sunDir);
+		renderer.sunVisibility = sun;
+
+		// looking at the center of the terrain from above one of its corners
+		Vector3f size = new Vector3f(W, H, D).mul(4.0f * voxelSize);
+		Vector3f center = new Vector3f(minCorner).fma(0.5f, size);
+		Vector3f eye = new Vector3f(minCorner).add(-0.1f * size.x, 1.2f * size.y, -0.1f * size.z);
+		Matrix4f view = new Matrix4f().setLookAt(eye, center, new Vector3f(0, 1, 0));
+		Vector4f K = Camera.intrinsics(Camera.perspective(width, height, new Matrix4f()), width, height);
+
+		renderer.render(K, view, width, height); // warms up the JIT
+		CpuRenderer.Frame frame = renderer.render(K, view, width, height);
+		frame.writePNG(output);
+
+		System.out.println(String.format("%dx%d in %.1f ms, %.2f Mrays/s", width, height, frame.nanos * 1.0E-6,
+				frame.raysPerSecond() * 1.0E-6));
+		if (renderer == gpuSkips) {
+			System.out.println(String.format("Average iterations: %.1f", frame.averageIterations()));
+		} else {
+			double reference = gpuSkips.render(K, view, width, height).averageIterations();
+			System.out.println(String.format("Average iterations: %.1f (%.1f with the GPU skips, -%.1f%%)",
+					frame.averageIterations(), reference, 100.0 * (1.0 - frame.averageIterations() / reference)));
+		}
+		System.out.println(String.format("Valid pixels: %.3f", frame.mainWindowValidPixels / (double) (width * height)));
+		System.out.println("Written to " + output);
+	}
+}
@@ -13,4 +13,6 @@ module repentance {
 	requires org.lwjgl.stb;
 	requires imgui.binding;
 	requires imgui.app;
+	requires java.compiler;
+	requires java.desktop;
 }
\ No newline at end of file
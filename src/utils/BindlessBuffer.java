@@ -55,6 +55,22 @@ public class BindlessBuffer {
         glDeleteBuffers(ID);
     }
 
+    /**
+     * Copies data at the given offset through a staging buffer, since the
+     * storage of this buffer is immutable
+     */
+    public void upload(long offset, ByteBuffer data){
+        int staging;
+        try(MemoryStack s = MemoryStack.stackPush()){
+            IntBuffer idbuff = s.callocInt(1);
+            glCreateBuffers(idbuff);
+            staging = idbuff.get(0);
+        }
+        glNamedBufferStorage(staging, data, 0);
+        glCopyNamedBufferSubData(staging, ID, 0, offset, data.remaining());
+        glDeleteBuffers(staging);
+    }
+
     /**
      * increments the position by 8
      */
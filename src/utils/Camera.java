@@ -141,22 +141,38 @@ public class Camera {
 		invViewMat.set((Matrix4fc) viewMat);
 		invViewMat.invert();
 		if (width != 0.0f && height != 0.0f) {
-			if (Float.isFinite(FAR_PLANE)) {
-				projMat.setPerspective(FOV_Y, width / height, NEAR_PLANE, FAR_PLANE);
-			} else {
-				float aspect = width / height;
-				float tanHalfFOV_Y = (float) Math.tan(FOV_Y / 2.0f);
-				projMat.zero();
-				projMat.m00(1.0f / (aspect * tanHalfFOV_Y));
-				projMat.m11(1.0f / tanHalfFOV_Y);
-				projMat.m22(EPSILON - 1.0f);
-				projMat.m23(-1.0f);
-				projMat.m32((EPSILON - 2.0f) * NEAR_PLANE);
-			}
+			perspective(width, height, projMat);
 		}
 
 	}
 
+	/**
+	 * The projection of the camera for the given window size
+	 */
+	public static Matrix4f perspective(float width, float height, Matrix4f dest) {
+		if (Float.isFinite(FAR_PLANE)) {
+			dest.setPerspective(FOV_Y, width / height, NEAR_PLANE, FAR_PLANE);
+		} else {
+			float aspect = width / height;
+			float tanHalfFOV_Y = (float) Math.tan(FOV_Y / 2.0f);
+			dest.zero();
+			dest.m00(1.0f / (aspect * tanHalfFOV_Y));
+			dest.m11(1.0f / tanHalfFOV_Y);
+			dest.m22(EPSILON - 1.0f);
+			dest.m23(-1.0f);
+			dest.m32((EPSILON - 2.0f) * NEAR_PLANE);
+		}
+		return dest;
+	}
+
+	/**
+	 * The intrinsics (fx, fy, cx, cy) of the given projection in pixels, as
+	 * read by computeRay() in render_common.glsl
+	 */
+	public static Vector4f intrinsics(Matrix4fc projection, int width, int height) {
+		return new Vector4f(projection.m00() * width / 2f, projection.m11() * height / 2f, width / 2f, height / 2f);
+	}
+
 	public Matrix4fc getProjectionMatrix() {
 		return projMat;
 	}
@@ -0,0 +1,91 @@
+package utils;
+
+/**
+ * IEEE 754 binary16 conversions, used to reproduce on the CPU the values the
+ * GPU sees in RGBA16F textures.
+ */
+public class HalfFloat {
+
+	/**
+	 * Converts a float to half precision bits, rounding to nearest even.
+	 */
+	public static short toHalf(float f) {
+		int bits = Float.floatToRawIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int exp = (bits >>> 23) & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+
+		if (exp == 0xFF) {
+			// inf or NaN
+			return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+		}
+
+		int e = exp - 127 + 15;
+		if (e >= 0x1F) {
+			// overflow
+			return (short) (sign | 0x7C00);
+		}
+
+		if (e <= 0) {
+			// subnormal or zero
+			if (e < -10) {
+				return (short) sign;
+			}
+			mantissa |= 0x800000;
+			int shift = 14 - e;
+			int half = mantissa >> shift;
+			int remainder = mantissa & ((1 << shift) - 1);
+			int midpoint = 1 << (shift - 1);
+			if (remainder > midpoint || (remainder == midpoint && (half & 1) != 0)) {
+				half++;
+			}
+			return (short) (sign | half);
+		}
+
+		int half = (e << 10) | (mantissa >> 13);
+		int remainder = mantissa & 0x1FFF;
+		if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+			half++; // may carry into the exponent, which is the correct rounding
+		}
+		return (short) (sign | half);
+	}
+
+	// every half is decoded once, sampling the noise reads this table
+	private static final float[] TO_FLOAT = new float[1 << 16];
+	static {
+		for (int i = 0; i < TO_FLOAT.length; i++) {
+			TO_FLOAT[i] = decode((short) i);
+		}
+	}
+
+	public static float toFloat(short h) {
+		return TO_FLOAT[h & 0xFFFF];
+	}
+
+	private static float decode(short h) {
+		int bits = h & 0xFFFF;
+		int sign = (bits & 0x8000) << 16;
+		int exp = (bits >>> 10) & 0x1F;
+		int mantissa = bits & 0x3FF;
+
+		if (exp == 0) {
+			if (mantissa == 0) {
+				return Float.intBitsToFloat(sign);
+			}
+			// subnormal
+			float f = mantissa * (1.0f / (1 << 24));
+			return sign == 0 ? f : -f;
+		}
+		if (exp == 0x1F) {
+			return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+		}
+		return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mantissa << 13));
+	}
+
+	/**
+	 * Rounds a float to the nearest value representable in half precision.
+	 */
+	public static float quantize(float f) {
+		return toFloat(toHalf(f));
+	}
+}
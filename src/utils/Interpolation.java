@@ -76,6 +76,80 @@ public class Interpolation {
 		return dest;
 	}
 
+	/**
+	 * Derivative of the weight of b in cubicInterpolation(), with respect to
+	 * amount
+	 */
+	public static float cubicInterpolationSlope(float amount) {
+		return 6.0f * amount * (1.0f - amount);
+	}
+
+	/**
+	 * Catmull-Rom weight of the sample before a, for amount in [0, 1], see
+	 * cubicLerpPolynomial() in generation.glsl
+	 */
+	public static float catmullRomWeight0(float t) {
+		return t * (-0.5f + t * (1.0f - 0.5f * t));
+	}
+
+	/**
+	 * Catmull-Rom weight of a
+	 */
+	public static float catmullRomWeight1(float t) {
+		return 1.0f + t * t * (-2.5f + 1.5f * t);
+	}
+
+	/**
+	 * Catmull-Rom weight of b
+	 */
+	public static float catmullRomWeight2(float t) {
+		return t * (0.5f + t * (2.0f - 1.5f * t));
+	}
+
+	/**
+	 * Catmull-Rom weight of the sample after b
+	 */
+	public static float catmullRomWeight3(float t) {
+		return t * t * (-0.5f + 0.5f * t);
+	}
+
+	/**
+	 * Derivative of catmullRomWeight0()
+	 */
+	public static float catmullRomSlope0(float t) {
+		return -0.5f + t * (2.0f - 1.5f * t);
+	}
+
+	/**
+	 * Derivative of catmullRomWeight1()
+	 */
+	public static float catmullRomSlope1(float t) {
+		return t * (-5.0f + 4.5f * t);
+	}
+
+	/**
+	 * Derivative of catmullRomWeight2()
+	 */
+	public static float catmullRomSlope2(float t) {
+		return 0.5f + t * (4.0f - 4.5f * t);
+	}
+
+	/**
+	 * Derivative of catmullRomWeight3()
+	 */
+	public static float catmullRomSlope3(float t) {
+		return t * (-1.0f + 1.5f * t);
+	}
+
+	/**
+	 * Catmull-Rom interpolation between a and b, p and q are the samples
+	 * before a and after b
+	 */
+	public static float catmullRomInterpolation(float p, float a, float b, float q, float amount) {
+		return catmullRomWeight0(amount) * p + catmullRomWeight1(amount) * a + catmullRomWeight2(amount) * b
+				+ catmullRomWeight3(amount) * q;
+	}
+
 	public static float angularInterpolation(float a, float b, float amount) {
 
 		a = a % 360f;
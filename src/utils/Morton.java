@@ -0,0 +1,181 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * 3D Morton (Z-order) codes: the bits of x, y and z are interleaved as
+ * ...z1y1x1z0y0x0, so that cells close in space are close in memory.
+ *
+ * The interleaving is done with lookup tables, one byte of each coordinate at
+ * a time, as the pdep/pext instructions are not reachable from Java. The int
+ * codes hold 10 bits per coordinate (the range of packivec3), the long codes
+ * 21 bits.
+ */
+public class Morton {
+
+	public static final int MAX_COORD = (1 << 10) - 1;
+	public static final int MAX_COORD_64 = (1 << 21) - 1;
+
+	// the dilated bits of each axis
+	public static final int MASK_X = 0x09249249;
+	public static final int MASK_Y = MASK_X << 1;
+	public static final int MASK_Z = MASK_X << 2;
+	public static final long MASK_X_64 = 0x1249249249249249L;
+	public static final long MASK_Y_64 = MASK_X_64 << 1;
+	public static final long MASK_Z_64 = MASK_X_64 << 2;
+
+	// 8 bits -> 24 bits with 2 zeros between each bit
+	private static final int[] SPREAD = new int[256];
+	// 9 bits of a code -> its 3 bits of x, y and z, packed as x | y << 3 | z << 6
+	private static final short[] COMPACT = new short[512];
+
+	static {
+		for (int v = 0; v < 256; v++) {
+			int s = 0;
+			for (int b = 0; b < 8; b++) {
+				s |= ((v >> b) & 1) << (3 * b);
+			}
+			SPREAD[v] = s;
+		}
+		for (int c = 0; c < 512; c++) {
+			int x = 0, y = 0, z = 0;
+			for (int b = 0; b < 3; b++) {
+				x |= ((c >> (3 * b)) & 1) << b;
+				y |= ((c >> (3 * b + 1)) & 1) << b;
+				z |= ((c >> (3 * b + 2)) & 1) << b;
+			}
+			COMPACT[c] = (short) (x | (y << 3) | (z << 6));
+		}
+	}
+
+	private Morton() {
+	}
+
+	/**
+	 * @return the dilated bits of v, 2 zeros between each of its 10 low bits
+	 */
+	public static int spread(int v) {
+		return (SPREAD[(v >> 8) & 3] << 24) | SPREAD[v & 0xFF];
+	}
+
+	public static long spread64(int v) {
+		return ((long) SPREAD[(v >> 16) & 0x1F] << 48) | ((long) SPREAD[(v >> 8) & 0xFF] << 24) | SPREAD[v & 0xFF];
+	}
+
+	/**
+	 * @return the 30 bits code of the given coords, each one in [0, 1024[
+	 */
+	public static int encode(int x, int y, int z) {
+		return spread(x) | (spread(y) << 1) | (spread(z) << 2);
+	}
+
+	/**
+	 * @return the 63 bits code of the given coords, each one in [0, 2^21[
+	 */
+	public static long encode64(int x, int y, int z) {
+		return spread64(x) | (spread64(y) << 1) | (spread64(z) << 2);
+	}
+
+	/**
+	 * @return the coords of the given code, packed as packivec3() does
+	 */
+	public static int decode(int code) {
+		int packed = 0;
+		for (int i = 0; i < 4; i++) {
+			int c = COMPACT[(code >>> (9 * i)) & 0x1FF];
+			int shift = 3 * i;
+			packed |= ((c & 7) << shift) | (((c >> 3) & 7) << (shift + 10)) | (((c >> 6) & 7) << (shift + 20));
+		}
+		return packed;
+	}
+
+	public static int decodeX(int code) {
+		return compact(code);
+	}
+
+	public static int decodeY(int code) {
+		return compact(code >>> 1);
+	}
+
+	public static int decodeZ(int code) {
+		return compact(code >>> 2);
+	}
+
+	public static int decodeX64(long code) {
+		return compact64(code);
+	}
+
+	public static int decodeY64(long code) {
+		return compact64(code >>> 1);
+	}
+
+	public static int decodeZ64(long code) {
+		return compact64(code >>> 2);
+	}
+
+	/**
+	 * The code and its index do not fit in one long with encode64(), so the
+	 * codes are sorted alone and found back by binary search.
+	 *
+	 * @param codes distinct encode64() codes
+	 * @return for each of the first count codes, its rank in increasing order
+	 */
+	public static int[] ranks(long[] codes, int count) {
+		long[] sorted = Arrays.copyOf(codes, count);
+		Arrays.sort(sorted);
+		int[] rank = new int[count];
+		for (int i = 0; i < count; i++) {
+			rank[i] = Arrays.binarySearch(sorted, codes[i]);
+		}
+		return rank;
+	}
+
+	// the bits 0, 3, 6, ... of code
+	private static int compact(int code) {
+		return (COMPACT[code & 0x1FF] & 7) | ((COMPACT[(code >>> 9) & 0x1FF] & 7) << 3)
+				| ((COMPACT[(code >>> 18) & 0x1FF] & 7) << 6) | ((COMPACT[(code >>> 27) & 0x1FF] & 7) << 9);
+	}
+
+	private static int compact64(long code) {
+		int v = 0;
+		for (int i = 0; i < 7; i++) {
+			v |= (COMPACT[(int) (code >>> (9 * i)) & 0x1FF] & 7) << (3 * i);
+		}
+		return v;
+	}
+
+	/**
+	 * Moves a code by (dx, dy, dz) without decoding it, the coords wrapping
+	 * around at 1024. The offsets may be negative.
+	 */
+	public static int add(int code, int dx, int dy, int dz) {
+		int x = ((code | ~MASK_X) + (spread(dx) & MASK_X)) & MASK_X;
+		int y = ((code | ~MASK_Y) + ((spread(dy) << 1) & MASK_Y)) & MASK_Y;
+		int z = ((code | ~MASK_Z) + ((spread(dz) << 2) & MASK_Z)) & MASK_Z;
+		return x | y | z;
+	}
+
+	public static int incX(int code) {
+		return (((code | ~MASK_X) + 1) & MASK_X) | (code & ~MASK_X);
+	}
+
+	public static int incY(int code) {
+		return (((code | ~MASK_Y) + 2) & MASK_Y) | (code & ~MASK_Y);
+	}
+
+	public static int incZ(int code) {
+		return (((code | ~MASK_Z) + 4) & MASK_Z) | (code & ~MASK_Z);
+	}
+
+	public static int decX(int code) {
+		return (((code & MASK_X) - 1) & MASK_X) | (code & ~MASK_X);
+	}
+
+	public static int decY(int code) {
+		return (((code & MASK_Y) - 2) & MASK_Y) | (code & ~MASK_Y);
+	}
+
+	public static int decZ(int code) {
+		return (((code & MASK_Z) - 4) & MASK_Z) | (code & ~MASK_Z);
+	}
+}
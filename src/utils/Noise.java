@@ -1,43 +1,259 @@
 package utils;
 
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public abstract class Noise {
 
-	protected final float[] noiseTexture;
+	public enum Storage {
+		ARRAY,       // the lattice is materialised in a float[]
+		HASHED,      // the lattice values are computed from the seed when sampled
+		DIRECT,      // the lattice is materialised off-heap, as 32 bit floats
+		DIRECT_HALF, // the lattice is materialised off-heap, as 16 bit floats
+		ARRAY_HALF;  // same values as DIRECT_HALF, decoded in a float[] to be sampled faster
+	}
+
+	protected final float[] noiseTexture; // null if the lattice is not in an array
+	protected final ByteBuffer directTexture; // null if the lattice is not off-heap
+	protected final boolean halfFloat; // the values are rounded to half precision
 
 	protected final int texture_size; // must be a power of 2 !
 	protected final int texture_mask;
 	protected final int dimensions;
+	protected final int channels; // interleaved values per lattice point, the sampling methods read the first one
+	protected final int texture_length; // number of lattice points
 
-	Noise(long seed, int size, int dimensions, float minValue, float maxValue) {
+	protected long seed;
+	protected float minValue;
+	protected float maxValue;
+
+	Noise(long seed, int size, int dimensions, int channels, float minValue, float maxValue, Storage storage) {
 		if (size <= 0 || ((size & (size - 1)) != 0)) {
 			throw new IllegalArgumentException("The noise texture size must be a power of 2: " + size);
 		}
+		if (channels <= 0) {
+			throw new IllegalArgumentException("The noise texture needs at least one channel: " + channels);
+		}
 		this.texture_size = size;
 		this.texture_mask = size - 1;
 		this.dimensions = dimensions;
+		this.channels = channels;
 
-		int texture_length = 1;
+		long texture_length = 1;
 		for (int i = 0; i < dimensions; i++) {
 			texture_length *= texture_size;
 		}
-		noiseTexture = new float[texture_length];
+		long bytes = texture_length * channels * (storage == Storage.DIRECT_HALF ? 2 : 4);
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"The noise texture is too large: " + size + "^" + dimensions + " x " + channels);
+		}
+		this.texture_length = (int) texture_length;
+		this.halfFloat = storage == Storage.DIRECT_HALF || storage == Storage.ARRAY_HALF;
+
+		int values = this.texture_length * channels;
+		noiseTexture = storage == Storage.ARRAY || storage == Storage.ARRAY_HALF ? new float[values] : null;
+		if (storage == Storage.DIRECT || storage == Storage.DIRECT_HALF) {
+			directTexture = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+		} else {
+			directTexture = null;
+		}
 
 		generateNoiseTexture(seed, minValue, maxValue);
 	}
 
+	/**
+	 * Value of the lattice point number index for the given seed. This is a
+	 * stateless hash, so any lattice point can be computed on its own, in any
+	 * order, and always gives the same value for the same seed.
+	 */
+	public static float latticeValue(long seed, long index, float minValue, float maxValue) {
+		// splitmix64 of the counter
+		long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		float u = (z >>> 40) * 0x1.0p-24f; // in [0, 1[
+		return (maxValue - minValue) * u + minValue;
+	}
+
 	public void generateNoiseTexture(long seed, float minValue, float maxValue) {
-		Random random = new Random(seed);
+		this.seed = seed;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		if (noiseTexture == null && directTexture == null) {
+			return;
+		}
+
+		final int values = texture_length * channels;
+		final int grain = 1 << 16;
+		if (values <= grain) {
+			fillNoiseTexture(0, values);
+		} else {
+			ParallelFor.run(0, values, grain, this::fillNoiseTexture);
+		}
+	}
 
-		float amplitude = maxValue - minValue;
-		for (int i = 0; i < noiseTexture.length; i++) {
-			noiseTexture[i] = amplitude * random.nextFloat() + minValue;
+	private void fillNoiseTexture(int start, int end) {
+		for (int i = start; i < end; i++) {
+			float value = latticeValue(seed, i, minValue, maxValue);
+			if (noiseTexture != null) {
+				noiseTexture[i] = halfFloat ? HalfFloat.quantize(value) : value;
+			} else if (halfFloat) {
+				directTexture.putShort(i * 2, HalfFloat.toHalf(value));
+			} else {
+				directTexture.putFloat(i * 4, value);
+			}
 		}
 	}
 
+	/**
+	 * Value of the first channel of the lattice at the given index
+	 */
+	protected final float texel(int index) {
+		return texel(index, 0);
+	}
+
+	/**
+	 * Value of the lattice at the given index and channel. DIRECT_HALF and
+	 * ARRAY_HALF are rounded, the other storages give exactly latticeValue().
+	 */
+	protected final float texel(int index, int channel) {
+		return value(index * channels + channel);
+	}
+
+	/**
+	 * Value number i of the lattice, the channels being interleaved
+	 */
+	protected final float value(int i) {
+		if (noiseTexture != null) {
+			return noiseTexture[i];
+		}
+		if (directTexture != null) {
+			return halfFloat ? HalfFloat.toFloat(directTexture.getShort(i * 2)) : directTexture.getFloat(i * 4);
+		}
+		return latticeValue(seed, i, minValue, maxValue);
+	}
+
+	/**
+	 * The off-heap lattice, in native byte order, with the channels interleaved
+	 * and the first axis varying fastest, as expected by glTexSubImage. The
+	 * returned buffer shares the memory of the noise, nothing is copied.
+	 * 
+	 * @return null if the storage is not DIRECT or DIRECT_HALF
+	 */
+	public ByteBuffer getDirectBuffer() {
+		if (directTexture == null) {
+			return null;
+		}
+		return directTexture.duplicate().order(ByteOrder.nativeOrder()).clear();
+	}
+
+	public boolean isHalfFloat() {
+		return halfFloat;
+	}
+
+	public int getSize() {
+		return texture_size;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public boolean isMaterialised() {
+		return noiseTexture != null || directTexture != null;
+	}
+
 	protected int toInt(float coord) {
 		return (coord > 0) ? (int) coord : ((int) coord) - 1;
 	}
 
+	protected static int floor(float coord) {
+		int i = (int) coord;
+		return coord < i ? i - 1 : i;
+	}
+
+	/**
+	 * Weight of the quintic interpolation of the gradient noises, its first and
+	 * second derivatives are 0 at the lattice points
+	 */
+	protected static float fade(float t) {
+		return t * t * t * (t * (t * 6.0f - 15.0f) + 10.0f);
+	}
+
+	/**
+	 * Gradient of the given lattice point for the gradient noises, in [0, 16[
+	 */
+	protected final int gradientIndex(int index) {
+		return (int) (texel(index) * 16.0f) & 15;
+	}
+
+	// the 12 vectors from the center of a cube to the middle of its edges, 4 of
+	// them being repeated to get 16 gradients, as in Ken Perlin's improved noise
+	private static final float[] GRADIENT_X = { 1, -1, 1, -1, 1, -1, 1, -1, 0, 0, 0, 0, 1, 0, -1, 0 };
+	private static final float[] GRADIENT_Y = { 1, 1, -1, -1, 0, 0, 0, 0, 1, -1, 1, -1, 1, -1, 1, -1 };
+	private static final float[] GRADIENT_Z = { 0, 0, 0, 0, 1, 1, -1, -1, 1, 1, -1, -1, 0, 1, 0, -1 };
+
+	// 8 gradients in 2D: the 4 diagonals and the 4 axis directions, twice
+	private static final float[] GRADIENT_2D_X = { 1, -1, 1, -1, 1, -1, 0, 0, 1, -1, 1, -1, 1, -1, 0, 0 };
+	private static final float[] GRADIENT_2D_Y = { 1, 1, -1, -1, 0, 0, 1, -1, 1, 1, -1, -1, 0, 0, 1, -1 };
+
+	/**
+	 * Dot product of (x, y, z) with the given gradient. The gradients are read
+	 * from tables rather than selected with branches, since random gradients
+	 * would make every branch unpredictable.
+	 */
+	protected static float gradientDot(int gradient, float x, float y, float z) {
+		return GRADIENT_X[gradient] * x + GRADIENT_Y[gradient] * y + GRADIENT_Z[gradient] * z;
+	}
+
+	protected static float gradientDot(int gradient, float x, float y) {
+		return GRADIENT_2D_X[gradient] * x + GRADIENT_2D_Y[gradient] * y;
+	}
+
+	/**
+	 * Lattice coords of the samples start, start + step, ..., along one axis of a
+	 * grid. The results are the same as the ones of the scalar sampling methods.
+	 * 
+	 * @param i0     receives the wrapped index of the lower neighbour
+	 * @param i1     receives the wrapped index of the upper neighbour
+	 * @param frac   receives the interpolation weight
+	 * @param smooth if true, the weights are those of cubicInterpolation()
+	 */
+	protected void prepareAxis(float start, float step, int n, float frequency, boolean smooth, int[] i0, int[] i1,
+			float[] frac) {
+		for (int i = 0; i < n; i++) {
+			float c = (start + i * step) * frequency;
+			int intC = toInt(c);
+			float f = c - intC;
+			frac[i] = smooth ? f * f * (3.0f - 2.0f * f) : f;
+			i0[i] = intC & texture_mask;
+			i1[i] = (intC + 1) & texture_mask;
+		}
+	}
+
+	/**
+	 * Same as prepareAxis() for the gradient noises
+	 * 
+	 * @param frac receives the offset of the sample from the lower neighbour
+	 * @param fade receives the interpolation weight
+	 */
+	protected void prepareGradientAxis(float start, float step, int n, float frequency, int[] i0, int[] i1,
+			float[] frac, float[] fade) {
+		for (int i = 0; i < n; i++) {
+			float c = (start + i * step) * frequency;
+			int intC = toInt(c);
+			float f = c - intC;
+			frac[i] = f;
+			fade[i] = fade(f);
+			i0[i] = intC & texture_mask;
+			i1[i] = (intC + 1) & texture_mask;
+		}
+	}
+
 }
@@ -3,13 +3,21 @@ package utils;
 public class Noise1D extends Noise{
 
 	public Noise1D(long seed, int size, float minValue, float maxValue) {
-		super(seed, size, 1, minValue, maxValue);
+		super(seed, size, 1, 1, minValue, maxValue, Storage.ARRAY);
+	}
+
+	public Noise1D(long seed, int size, float minValue, float maxValue, Storage storage) {
+		super(seed, size, 1, 1, minValue, maxValue, storage);
+	}
+
+	public Noise1D(long seed, int size, int channels, float minValue, float maxValue, Storage storage) {
+		super(seed, size, 1, channels, minValue, maxValue, storage);
 	}
 	
 	public float sample(float x, float amplitude, float frequency) {
 		x *= frequency;
 		int intX = toInt(x) & texture_mask;
-		float density = noiseTexture[intX];
+		float density = texel(intX);
 		return amplitude * density;
 	}
 	
@@ -20,8 +28,8 @@ public class Noise1D extends Noise{
 		intX &= texture_mask;
 		int intX_plus_1 = (intX+1) & texture_mask;
 		
-		float v0 = noiseTexture[intX];
-		float v1 = noiseTexture[intX_plus_1];
+		float v0 = texel(intX);
+		float v1 = texel(intX_plus_1);
 		
 		return amplitude * Interpolation.linearInterpolation(v0, v1, fracSamplingCoordsX);
 	}
@@ -33,11 +41,67 @@ public class Noise1D extends Noise{
 		intX &= texture_mask;
 		int intX_plus_1 = (intX+1) & texture_mask;
 		
-		float v0 = noiseTexture[intX];
-		float v1 = noiseTexture[intX_plus_1];
+		float v0 = texel(intX);
+		float v1 = texel(intX_plus_1);
 		
 		return amplitude * Interpolation.cubicInterpolation(v0, v1, fracSamplingCoordsX);
 	}
-	
+
+	/**
+	 * dest[offset + i] = linearSampling(x0 + i * step, amplitude, frequency) for
+	 * i in [0, n[
+	 */
+	public void linearSamplingGrid(float x0, float step, int n, float amplitude, float frequency, float[] dest,
+			int offset) {
+		sampleGrid(x0, step, n, amplitude, frequency, false, dest, offset);
+	}
+
+	/**
+	 * dest[offset + i] = cubicSampling(x0 + i * step, amplitude, frequency) for i
+	 * in [0, n[
+	 */
+	public void cubicSamplingGrid(float x0, float step, int n, float amplitude, float frequency, float[] dest,
+			int offset) {
+		sampleGrid(x0, step, n, amplitude, frequency, true, dest, offset);
+	}
+
+	/**
+	 * dest[i] = linearSampling(x[i], amplitude, frequency) for i in [0, count[
+	 */
+	public void linearSampling(float[] x, int count, float amplitude, float frequency, float[] dest) {
+		samplePoints(x, count, amplitude, frequency, false, dest);
+	}
+
+	/**
+	 * dest[i] = cubicSampling(x[i], amplitude, frequency) for i in [0, count[
+	 */
+	public void cubicSampling(float[] x, int count, float amplitude, float frequency, float[] dest) {
+		samplePoints(x, count, amplitude, frequency, true, dest);
+	}
+
+	private void sampleGrid(float x0, float step, int n, float amplitude, float frequency, boolean smooth,
+			float[] dest, int offset) {
+		final int[] ix0 = new int[n], ix1 = new int[n];
+		final float[] fx = new float[n];
+		prepareAxis(x0, step, n, frequency, smooth, ix0, ix1, fx);
+
+		for (int i = 0; i < n; i++) {
+			float v0 = texel(ix0[i]);
+			dest[offset + i] = amplitude * (v0 + (texel(ix1[i]) - v0) * fx[i]);
+		}
+	}
+
+	private void samplePoints(float[] x, int count, float amplitude, float frequency, boolean smooth, float[] dest) {
+		for (int i = 0; i < count; i++) {
+			float cx = x[i] * frequency;
+			int intX = toInt(cx);
+			float wx = cx - intX;
+			if (smooth) {
+				wx = wx * wx * (3.0f - 2.0f * wx);
+			}
+			float v0 = texel(intX & texture_mask);
+			dest[i] = amplitude * (v0 + (texel((intX + 1) & texture_mask) - v0) * wx);
+		}
+	}
 
 }
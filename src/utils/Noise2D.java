@@ -1,9 +1,19 @@
 package utils;
 
+import org.joml.Vector2f;
+
 public class Noise2D extends Noise{
 
 	public Noise2D(long seed, int size, float minValue, float maxValue) {
-		super(seed, size, 2, minValue, maxValue);
+		super(seed, size, 2, 1, minValue, maxValue, Storage.ARRAY);
+	}
+
+	public Noise2D(long seed, int size, float minValue, float maxValue, Storage storage) {
+		super(seed, size, 2, 1, minValue, maxValue, storage);
+	}
+
+	public Noise2D(long seed, int size, int channels, float minValue, float maxValue, Storage storage) {
+		super(seed, size, 2, channels, minValue, maxValue, storage);
 	}
 	
 	public float sample(float x, float y, float amplitude, float frequency) {
@@ -13,7 +23,7 @@ public class Noise2D extends Noise{
 		y *= frequency;
 		int intY = toInt(y) & texture_mask;
 		
-		float density = noiseTexture[intY * texture_size + intX];
+		float density = texel(intY * texture_size + intX);
 		return amplitude * density;
 	}
 	
@@ -30,11 +40,11 @@ public class Noise2D extends Noise{
 		intY &= texture_mask;
 		int intY_plus_1 = (intY+1) & texture_mask;
 		
-		float v0 = noiseTexture[intY * texture_size + intX];
-		float v1 = noiseTexture[intY * texture_size + intX_plus_1];
+		float v0 = texel(intY * texture_size + intX);
+		float v1 = texel(intY * texture_size + intX_plus_1);
 		
-		float v2 = noiseTexture[intY_plus_1 * texture_size + intX];
-		float v3 = noiseTexture[intY_plus_1 * texture_size + intX_plus_1];
+		float v2 = texel(intY_plus_1 * texture_size + intX);
+		float v3 = texel(intY_plus_1 * texture_size + intX_plus_1);
 		
 		float i1 = Interpolation.linearInterpolation(v0, v1, fracSamplingCoordsX);
 		float i2 = Interpolation.linearInterpolation(v2, v3, fracSamplingCoordsX);
@@ -55,16 +65,241 @@ public class Noise2D extends Noise{
 		intY &= texture_mask;
 		int intY_plus_1 = (intY+1) & texture_mask;
 		
-		float v0 = noiseTexture[intY * texture_size + intX];
-		float v1 = noiseTexture[intY * texture_size + intX_plus_1];
+		float v0 = texel(intY * texture_size + intX);
+		float v1 = texel(intY * texture_size + intX_plus_1);
 		
-		float v2 = noiseTexture[intY_plus_1 * texture_size + intX];
-		float v3 = noiseTexture[intY_plus_1 * texture_size + intX_plus_1];
+		float v2 = texel(intY_plus_1 * texture_size + intX);
+		float v3 = texel(intY_plus_1 * texture_size + intX_plus_1);
 		
 		float i1 = Interpolation.cubicInterpolation(v0, v1, fracSamplingCoordsX);
 		float i2 = Interpolation.cubicInterpolation(v2, v3, fracSamplingCoordsX);
 		
 		return amplitude * Interpolation.cubicInterpolation(i1, i2, fracSamplingCoordsY);
 	}
-	
+
+	/**
+	 * Bicubic Catmull-Rom interpolation over the 4x4 neighbouring lattice
+	 * points, the 2D counterpart of Noise3D.catmullRomSampling()
+	 */
+	public float catmullRomSampling(float x, float y, float amplitude, float frequency) {
+		x *= frequency;
+		y *= frequency;
+		float fx = (float) Math.floor(x);
+		float fy = (float) Math.floor(y);
+		int intX = (int) fx;
+		int intY = (int) fy;
+		float u = x - fx;
+		float v = y - fy;
+
+		final float wx0 = Interpolation.catmullRomWeight0(u), wx1 = Interpolation.catmullRomWeight1(u);
+		final float wx2 = Interpolation.catmullRomWeight2(u), wx3 = Interpolation.catmullRomWeight3(u);
+
+		final int x0 = (intX - 1) & texture_mask, x1 = intX & texture_mask;
+		final int x2 = (intX + 1) & texture_mask, x3 = (intX + 2) & texture_mask;
+
+		float result = 0.0f;
+		for (int j = 0; j < 4; j++) {
+			final int row = ((intY + j - 1) & texture_mask) * texture_size;
+			final float r = wx0 * texel(row + x0) + wx1 * texel(row + x1) + wx2 * texel(row + x2)
+					+ wx3 * texel(row + x3);
+			result += (j == 0 ? Interpolation.catmullRomWeight0(v)
+					: j == 1 ? Interpolation.catmullRomWeight1(v)
+							: j == 2 ? Interpolation.catmullRomWeight2(v) : Interpolation.catmullRomWeight3(v))
+					* r;
+		}
+		return amplitude * result;
+	}
+
+	/**
+	 * Same value as linearSampling(), the gradient of the noise with respect to
+	 * (x, y) is written in gradient
+	 */
+	public float linearSamplingGradient(float x, float y, float amplitude, float frequency, Vector2f gradient) {
+		return sampleGradient(x, y, amplitude, frequency, false, gradient);
+	}
+
+	/**
+	 * Same value as cubicSampling(), the gradient of the noise with respect to
+	 * (x, y) is written in gradient
+	 */
+	public float cubicSamplingGradient(float x, float y, float amplitude, float frequency, Vector2f gradient) {
+		return sampleGradient(x, y, amplitude, frequency, true, gradient);
+	}
+
+	private float sampleGradient(float x, float y, float amplitude, float frequency, boolean smooth,
+			Vector2f gradient) {
+		x *= frequency;
+		int intX = toInt(x);
+		float wx = x - intX;
+		intX &= texture_mask;
+		int intX_plus_1 = (intX + 1) & texture_mask;
+
+		y *= frequency;
+		int intY = toInt(y);
+		float wy = y - intY;
+		intY &= texture_mask;
+		int intY_plus_1 = (intY + 1) & texture_mask;
+
+		// derivatives of the weights
+		float dwx = 1.0f, dwy = 1.0f;
+		if (smooth) {
+			dwx = Interpolation.cubicInterpolationSlope(wx);
+			dwy = Interpolation.cubicInterpolationSlope(wy);
+			wx = wx * wx * (3.0f - 2.0f * wx);
+			wy = wy * wy * (3.0f - 2.0f * wy);
+		}
+
+		float v0 = texel(intY * texture_size + intX);
+		float v1 = texel(intY * texture_size + intX_plus_1);
+
+		float v2 = texel(intY_plus_1 * texture_size + intX);
+		float v3 = texel(intY_plus_1 * texture_size + intX_plus_1);
+
+		float i1 = v0 + (v1 - v0) * wx;
+		float i2 = v2 + (v3 - v2) * wx;
+
+		float d1 = v1 - v0, d2 = v3 - v2;
+
+		float scale = amplitude * frequency;
+		gradient.set(scale * dwx * (d1 + (d2 - d1) * wy), scale * dwy * (i2 - i1));
+		return amplitude * (i1 + (i2 - i1) * wy);
+	}
+
+	/**
+	 * Same value as catmullRomSampling(), the gradient of the noise with
+	 * respect to (x, y) is written in gradient
+	 */
+	public float catmullRomSamplingGradient(float x, float y, float amplitude, float frequency, Vector2f gradient) {
+		x *= frequency;
+		y *= frequency;
+		float fx = (float) Math.floor(x);
+		float fy = (float) Math.floor(y);
+		int intX = (int) fx;
+		int intY = (int) fy;
+		float u = x - fx;
+		float v = y - fy;
+
+		final float wx0 = Interpolation.catmullRomWeight0(u), wx1 = Interpolation.catmullRomWeight1(u);
+		final float wx2 = Interpolation.catmullRomWeight2(u), wx3 = Interpolation.catmullRomWeight3(u);
+		final float dx0 = Interpolation.catmullRomSlope0(u), dx1 = Interpolation.catmullRomSlope1(u);
+		final float dx2 = Interpolation.catmullRomSlope2(u), dx3 = Interpolation.catmullRomSlope3(u);
+
+		final int x0 = (intX - 1) & texture_mask, x1 = intX & texture_mask;
+		final int x2 = (intX + 1) & texture_mask, x3 = (intX + 2) & texture_mask;
+
+		// each row is summed with the weights and with their derivatives
+		float result = 0.0f, gx = 0.0f, gy = 0.0f;
+		for (int j = 0; j < 4; j++) {
+			final int row = ((intY + j - 1) & texture_mask) * texture_size;
+			final float t0 = texel(row + x0), t1 = texel(row + x1), t2 = texel(row + x2), t3 = texel(row + x3);
+			final float r = wx0 * t0 + wx1 * t1 + wx2 * t2 + wx3 * t3;
+			final float wy = j == 0 ? Interpolation.catmullRomWeight0(v)
+					: j == 1 ? Interpolation.catmullRomWeight1(v)
+							: j == 2 ? Interpolation.catmullRomWeight2(v) : Interpolation.catmullRomWeight3(v);
+			final float dy = j == 0 ? Interpolation.catmullRomSlope0(v)
+					: j == 1 ? Interpolation.catmullRomSlope1(v)
+							: j == 2 ? Interpolation.catmullRomSlope2(v) : Interpolation.catmullRomSlope3(v);
+			result += wy * r;
+			gx += wy * (dx0 * t0 + dx1 * t1 + dx2 * t2 + dx3 * t3);
+			gy += dy * r;
+		}
+
+		float scale = amplitude * frequency;
+		gradient.set(scale * gx, scale * gy);
+		return amplitude * result;
+	}
+
+	/**
+	 * Samples the grid (x0 + i * step, y0 + j * step) for i, j in [0, nx[ x [0,
+	 * ny[. The result of (i, j) is written at dest[offset + j * nx + i], and is
+	 * the same as linearSampling() for these coordinates.
+	 */
+	public void linearSamplingGrid(float x0, float y0, float step, int nx, int ny, float amplitude,
+			float frequency, float[] dest, int offset) {
+		sampleGrid(x0, y0, step, nx, ny, amplitude, frequency, false, dest, offset);
+	}
+
+	/**
+	 * Same as linearSamplingGrid() with the interpolation of cubicSampling()
+	 */
+	public void cubicSamplingGrid(float x0, float y0, float step, int nx, int ny, float amplitude,
+			float frequency, float[] dest, int offset) {
+		sampleGrid(x0, y0, step, nx, ny, amplitude, frequency, true, dest, offset);
+	}
+
+	/**
+	 * dest[i] = linearSampling(x[i], y[i], amplitude, frequency) for i in [0,
+	 * count[
+	 */
+	public void linearSampling(float[] x, float[] y, int count, float amplitude, float frequency, float[] dest) {
+		samplePoints(x, y, count, amplitude, frequency, false, dest);
+	}
+
+	/**
+	 * dest[i] = cubicSampling(x[i], y[i], amplitude, frequency) for i in [0,
+	 * count[
+	 */
+	public void cubicSampling(float[] x, float[] y, int count, float amplitude, float frequency, float[] dest) {
+		samplePoints(x, y, count, amplitude, frequency, true, dest);
+	}
+
+	private void sampleGrid(float x0, float y0, float step, int nx, int ny, float amplitude, float frequency,
+			boolean smooth, float[] dest, int offset) {
+		final int[] ix0 = new int[nx], ix1 = new int[nx];
+		final int[] iy0 = new int[ny], iy1 = new int[ny];
+		final float[] fx = new float[nx], fy = new float[ny];
+
+		prepareAxis(x0, step, nx, frequency, smooth, ix0, ix1, fx);
+		prepareAxis(y0, step, ny, frequency, smooth, iy0, iy1, fy);
+
+		for (int j = 0; j < ny; j++) {
+			final float wy = fy[j];
+			final int r0 = iy0[j] * texture_size;
+			final int r1 = iy1[j] * texture_size;
+			final int o = offset + j * nx;
+
+			for (int i = 0; i < nx; i++) {
+				final int a = ix0[i];
+				final int b = ix1[i];
+				final float wx = fx[i];
+
+				float v0 = texel(r0 + a);
+				float v2 = texel(r1 + a);
+
+				float i1 = v0 + (texel(r0 + b) - v0) * wx;
+				float i2 = v2 + (texel(r1 + b) - v2) * wx;
+
+				dest[o + i] = amplitude * (i1 + (i2 - i1) * wy);
+			}
+		}
+	}
+
+	private void samplePoints(float[] x, float[] y, int count, float amplitude, float frequency, boolean smooth,
+			float[] dest) {
+		for (int i = 0; i < count; i++) {
+			float cx = x[i] * frequency;
+			float cy = y[i] * frequency;
+			int intX = toInt(cx);
+			int intY = toInt(cy);
+			float wx = cx - intX;
+			float wy = cy - intY;
+			if (smooth) {
+				wx = wx * wx * (3.0f - 2.0f * wx);
+				wy = wy * wy * (3.0f - 2.0f * wy);
+			}
+			final int a = intX & texture_mask;
+			final int b = (intX + 1) & texture_mask;
+			final int r0 = (intY & texture_mask) * texture_size;
+			final int r1 = ((intY + 1) & texture_mask) * texture_size;
+
+			float v0 = texel(r0 + a);
+			float v2 = texel(r1 + a);
+
+			float i1 = v0 + (texel(r0 + b) - v0) * wx;
+			float i2 = v2 + (texel(r1 + b) - v2) * wx;
+
+			dest[i] = amplitude * (i1 + (i2 - i1) * wy);
+		}
+	}
+
 }
@@ -1,9 +1,20 @@
 package utils;
 
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
 public class Noise3D extends Noise {
 
 	public Noise3D(long seed, int size, float minValue, float maxValue) {
-		super(seed, size, 3, minValue, maxValue);
+		super(seed, size, 3, 1, minValue, maxValue, Storage.ARRAY);
+	}
+
+	public Noise3D(long seed, int size, float minValue, float maxValue, Storage storage) {
+		super(seed, size, 3, 1, minValue, maxValue, storage);
+	}
+
+	public Noise3D(long seed, int size, int channels, float minValue, float maxValue, Storage storage) {
+		super(seed, size, 3, channels, minValue, maxValue, storage);
 	}
 
 	public float sample(float x, float y, float z, float amplitude, float frequency) {
@@ -16,7 +27,7 @@ public class Noise3D extends Noise {
 		z *= frequency;
 		int intZ = toInt(z) & texture_mask;
 
-		float density = noiseTexture[texture_size * (intZ * texture_size + intY) + intX];
+		float density = texel(texture_size * (intZ * texture_size + intY) + intX);
 		return amplitude * density;
 	}
 
@@ -39,17 +50,17 @@ public class Noise3D extends Noise {
 		intZ &= texture_mask;
 		int intZ_plus_1 = (intZ + 1) & texture_mask;
 
-		float v0 = noiseTexture[texture_size * (intZ * texture_size + intY) + intX];
-		float v1 = noiseTexture[texture_size * (intZ * texture_size + intY) + intX_plus_1];
+		float v0 = texel(texture_size * (intZ * texture_size + intY) + intX);
+		float v1 = texel(texture_size * (intZ * texture_size + intY) + intX_plus_1);
 
-		float v2 = noiseTexture[texture_size * (intZ * texture_size + intY_plus_1) + intX];
-		float v3 = noiseTexture[texture_size * (intZ * texture_size + intY_plus_1) + intX_plus_1];
+		float v2 = texel(texture_size * (intZ * texture_size + intY_plus_1) + intX);
+		float v3 = texel(texture_size * (intZ * texture_size + intY_plus_1) + intX_plus_1);
 
-		float v4 = noiseTexture[texture_size * (intZ_plus_1 * texture_size + intY) + intX];
-		float v5 = noiseTexture[texture_size * (intZ_plus_1 * texture_size + intY) + intX_plus_1];
+		float v4 = texel(texture_size * (intZ_plus_1 * texture_size + intY) + intX);
+		float v5 = texel(texture_size * (intZ_plus_1 * texture_size + intY) + intX_plus_1);
 
-		float v6 = noiseTexture[texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX];
-		float v7 = noiseTexture[texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX_plus_1];
+		float v6 = texel(texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX);
+		float v7 = texel(texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX_plus_1);
 
 		float i1 = Interpolation.linearInterpolation(v0, v1, fracSamplingCoordsX);
 		float i2 = Interpolation.linearInterpolation(v2, v3, fracSamplingCoordsX);
@@ -81,17 +92,17 @@ public class Noise3D extends Noise {
 		intZ &= texture_mask;
 		int intZ_plus_1 = (intZ + 1) & texture_mask;
 
-		float v0 = noiseTexture[texture_size * (intZ * texture_size + intY) + intX];
-		float v1 = noiseTexture[texture_size * (intZ * texture_size + intY) + intX_plus_1];
+		float v0 = texel(texture_size * (intZ * texture_size + intY) + intX);
+		float v1 = texel(texture_size * (intZ * texture_size + intY) + intX_plus_1);
 
-		float v2 = noiseTexture[texture_size * (intZ * texture_size + intY_plus_1) + intX];
-		float v3 = noiseTexture[texture_size * (intZ * texture_size + intY_plus_1) + intX_plus_1];
+		float v2 = texel(texture_size * (intZ * texture_size + intY_plus_1) + intX);
+		float v3 = texel(texture_size * (intZ * texture_size + intY_plus_1) + intX_plus_1);
 
-		float v4 = noiseTexture[texture_size * (intZ_plus_1 * texture_size + intY) + intX];
-		float v5 = noiseTexture[texture_size * (intZ_plus_1 * texture_size + intY) + intX_plus_1];
+		float v4 = texel(texture_size * (intZ_plus_1 * texture_size + intY) + intX);
+		float v5 = texel(texture_size * (intZ_plus_1 * texture_size + intY) + intX_plus_1);
 
-		float v6 = noiseTexture[texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX];
-		float v7 = noiseTexture[texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX_plus_1];
+		float v6 = texel(texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX);
+		float v7 = texel(texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX_plus_1);
 
 		float i1 = Interpolation.cubicInterpolation(v0, v1, fracSamplingCoordsX);
 		float i2 = Interpolation.cubicInterpolation(v2, v3, fracSamplingCoordsX);
@@ -104,5 +115,391 @@ public class Noise3D extends Noise {
 		return amplitude * Interpolation.cubicInterpolation(i5, i6, fracSamplingCoordsZ);
 	}
 
+	/**
+	 * Same value as linearSampling(), the gradient of the noise with respect to
+	 * (x, y, z) is written in gradient
+	 */
+	public float linearSamplingGradient(float x, float y, float z, float amplitude, float frequency,
+			Vector3f gradient) {
+		return sampleGradient(x, y, z, amplitude, frequency, false, gradient);
+	}
+
+	/**
+	 * Same value as cubicSampling(), the gradient of the noise with respect to
+	 * (x, y, z) is written in gradient
+	 */
+	public float cubicSamplingGradient(float x, float y, float z, float amplitude, float frequency,
+			Vector3f gradient) {
+		return sampleGradient(x, y, z, amplitude, frequency, true, gradient);
+	}
+
+	private float sampleGradient(float x, float y, float z, float amplitude, float frequency, boolean smooth,
+			Vector3f gradient) {
+		x *= frequency;
+		int intX = toInt(x);
+		float wx = x - intX;
+		intX &= texture_mask;
+		int intX_plus_1 = (intX + 1) & texture_mask;
+
+		y *= frequency;
+		int intY = toInt(y);
+		float wy = y - intY;
+		intY &= texture_mask;
+		int intY_plus_1 = (intY + 1) & texture_mask;
+
+		z *= frequency;
+		int intZ = toInt(z);
+		float wz = z - intZ;
+		intZ &= texture_mask;
+		int intZ_plus_1 = (intZ + 1) & texture_mask;
+
+		// derivatives of the weights
+		float dwx = 1.0f, dwy = 1.0f, dwz = 1.0f;
+		if (smooth) {
+			dwx = Interpolation.cubicInterpolationSlope(wx);
+			dwy = Interpolation.cubicInterpolationSlope(wy);
+			dwz = Interpolation.cubicInterpolationSlope(wz);
+			wx = wx * wx * (3.0f - 2.0f * wx);
+			wy = wy * wy * (3.0f - 2.0f * wy);
+			wz = wz * wz * (3.0f - 2.0f * wz);
+		}
+
+		float v0 = texel(texture_size * (intZ * texture_size + intY) + intX);
+		float v1 = texel(texture_size * (intZ * texture_size + intY) + intX_plus_1);
+
+		float v2 = texel(texture_size * (intZ * texture_size + intY_plus_1) + intX);
+		float v3 = texel(texture_size * (intZ * texture_size + intY_plus_1) + intX_plus_1);
+
+		float v4 = texel(texture_size * (intZ_plus_1 * texture_size + intY) + intX);
+		float v5 = texel(texture_size * (intZ_plus_1 * texture_size + intY) + intX_plus_1);
+
+		float v6 = texel(texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX);
+		float v7 = texel(texture_size * (intZ_plus_1 * texture_size + intY_plus_1) + intX_plus_1);
+
+		float i1 = v0 + (v1 - v0) * wx;
+		float i2 = v2 + (v3 - v2) * wx;
+		float i3 = v4 + (v5 - v4) * wx;
+		float i4 = v6 + (v7 - v6) * wx;
+
+		float i5 = i1 + (i2 - i1) * wy;
+		float i6 = i3 + (i4 - i3) * wy;
+
+		// the differences along x are interpolated along y and z, the
+		// differences along y along z
+		float d1 = v1 - v0, d2 = v3 - v2, d3 = v5 - v4, d4 = v7 - v6;
+		float d5 = d1 + (d2 - d1) * wy;
+		float d6 = d3 + (d4 - d3) * wy;
+		float e1 = i2 - i1, e2 = i4 - i3;
+
+		float scale = amplitude * frequency;
+		gradient.set(scale * dwx * (d5 + (d6 - d5) * wz), scale * dwy * (e1 + (e2 - e1) * wz),
+				scale * dwz * (i6 - i5));
+		return amplitude * (i5 + (i6 - i5) * wz);
+	}
+
+	/**
+	 * Tricubic Catmull-Rom interpolation of the first channel over the 4x4x4
+	 * neighbouring lattice points, same kernel as cubicLerpTex() in
+	 * generation.glsl.
+	 */
+	public float catmullRomSampling(float x, float y, float z, float amplitude, float frequency) {
+		x *= frequency;
+		y *= frequency;
+		z *= frequency;
+		float fx = (float) Math.floor(x);
+		float fy = (float) Math.floor(y);
+		float fz = (float) Math.floor(z);
+		int intX = (int) fx;
+		int intY = (int) fy;
+		int intZ = (int) fz;
+
+		return amplitude * catmullRom(0, intX, intY, intZ, x - fx, y - fy, z - fz);
+	}
+
+	/**
+	 * Same as catmullRomSampling() for the first 4 channels, the noise must
+	 * have at least 4 channels. In generation.glsl the first channel is the
+	 * density and the 3 others are the domain warp.
+	 */
+	public Vector4f catmullRomSampling(float x, float y, float z, float amplitude, float frequency, Vector4f dest) {
+		if (channels < 4) {
+			throw new IllegalStateException("The noise has only " + channels + " channels");
+		}
+		if (dest == null) {
+			dest = new Vector4f();
+		}
+		x *= frequency;
+		y *= frequency;
+		z *= frequency;
+		float fx = (float) Math.floor(x);
+		float fy = (float) Math.floor(y);
+		float fz = (float) Math.floor(z);
+		int intX = (int) fx;
+		int intY = (int) fy;
+		int intZ = (int) fz;
+
+		catmullRom4(intX, intY, intZ, x - fx, y - fy, z - fz, dest);
+		return dest.mul(amplitude);
+	}
+
+	/**
+	 * Same value as catmullRomSampling(), the gradient of the noise with
+	 * respect to (x, y, z) is written in gradient
+	 */
+	public float catmullRomSamplingGradient(float x, float y, float z, float amplitude, float frequency,
+			Vector3f gradient) {
+		x *= frequency;
+		y *= frequency;
+		z *= frequency;
+		float fx = (float) Math.floor(x);
+		float fy = (float) Math.floor(y);
+		float fz = (float) Math.floor(z);
+		int intX = (int) fx;
+		int intY = (int) fy;
+		int intZ = (int) fz;
+		float u = x - fx;
+		float v = y - fy;
+		float w = z - fz;
+
+		final float wx0 = Interpolation.catmullRomWeight0(u), wx1 = Interpolation.catmullRomWeight1(u);
+		final float wx2 = Interpolation.catmullRomWeight2(u), wx3 = Interpolation.catmullRomWeight3(u);
+		final float wy0 = Interpolation.catmullRomWeight0(v), wy1 = Interpolation.catmullRomWeight1(v);
+		final float wy2 = Interpolation.catmullRomWeight2(v), wy3 = Interpolation.catmullRomWeight3(v);
+		final float wz0 = Interpolation.catmullRomWeight0(w), wz1 = Interpolation.catmullRomWeight1(w);
+		final float wz2 = Interpolation.catmullRomWeight2(w), wz3 = Interpolation.catmullRomWeight3(w);
+
+		final float dx0 = Interpolation.catmullRomSlope0(u), dx1 = Interpolation.catmullRomSlope1(u);
+		final float dx2 = Interpolation.catmullRomSlope2(u), dx3 = Interpolation.catmullRomSlope3(u);
+		final float dy0 = Interpolation.catmullRomSlope0(v), dy1 = Interpolation.catmullRomSlope1(v);
+		final float dy2 = Interpolation.catmullRomSlope2(v), dy3 = Interpolation.catmullRomSlope3(v);
+		final float dz0 = Interpolation.catmullRomSlope0(w), dz1 = Interpolation.catmullRomSlope1(w);
+		final float dz2 = Interpolation.catmullRomSlope2(w), dz3 = Interpolation.catmullRomSlope3(w);
+
+		final int x0 = (intX - 1) & texture_mask, x1 = intX & texture_mask;
+		final int x2 = (intX + 1) & texture_mask, x3 = (intX + 2) & texture_mask;
+
+		// same passes as catmullRom(), each one also sums the samples with the
+		// derivatives of the weights of its axis
+		float result = 0.0f, gx = 0.0f, gy = 0.0f, gz = 0.0f;
+		for (int k = 0; k < 4; k++) {
+			final int plane = ((intZ + k - 1) & texture_mask) * texture_size;
+			float column = 0.0f, columnX = 0.0f, columnY = 0.0f;
+			for (int j = 0; j < 4; j++) {
+				final int row = (plane + ((intY + j - 1) & texture_mask)) * texture_size;
+				final float t0 = texel(row + x0), t1 = texel(row + x1), t2 = texel(row + x2), t3 = texel(row + x3);
+				final float r = wx0 * t0 + wx1 * t1 + wx2 * t2 + wx3 * t3;
+				final float rx = dx0 * t0 + dx1 * t1 + dx2 * t2 + dx3 * t3;
+				final float wy = j == 0 ? wy0 : j == 1 ? wy1 : j == 2 ? wy2 : wy3;
+				column += wy * r;
+				columnX += wy * rx;
+				columnY += (j == 0 ? dy0 : j == 1 ? dy1 : j == 2 ? dy2 : dy3) * r;
+			}
+			final float wz = k == 0 ? wz0 : k == 1 ? wz1 : k == 2 ? wz2 : wz3;
+			result += wz * column;
+			gx += wz * columnX;
+			gy += wz * columnY;
+			gz += (k == 0 ? dz0 : k == 1 ? dz1 : k == 2 ? dz2 : dz3) * column;
+		}
+
+		float scale = amplitude * frequency;
+		gradient.set(scale * gx, scale * gy, scale * gz);
+		return amplitude * result;
+	}
+
+	private float catmullRom(int channel, int intX, int intY, int intZ, float u, float v, float w) {
+		// the weights only depend on one axis, they are computed once
+		final float wx0 = Interpolation.catmullRomWeight0(u), wx1 = Interpolation.catmullRomWeight1(u);
+		final float wx2 = Interpolation.catmullRomWeight2(u), wx3 = Interpolation.catmullRomWeight3(u);
+		final float wy0 = Interpolation.catmullRomWeight0(v), wy1 = Interpolation.catmullRomWeight1(v);
+		final float wy2 = Interpolation.catmullRomWeight2(v), wy3 = Interpolation.catmullRomWeight3(v);
+		final float wz0 = Interpolation.catmullRomWeight0(w), wz1 = Interpolation.catmullRomWeight1(w);
+		final float wz2 = Interpolation.catmullRomWeight2(w), wz3 = Interpolation.catmullRomWeight3(w);
+
+		final int x0 = (intX - 1) & texture_mask, x1 = intX & texture_mask;
+		final int x2 = (intX + 1) & texture_mask, x3 = (intX + 2) & texture_mask;
+
+		// separable passes: 16 rows along x, then 4 columns along y, then z
+		float result = 0.0f;
+		for (int k = 0; k < 4; k++) {
+			final int plane = ((intZ + k - 1) & texture_mask) * texture_size;
+			float column = 0.0f;
+			for (int j = 0; j < 4; j++) {
+				final int row = (plane + ((intY + j - 1) & texture_mask)) * texture_size;
+				final float r = wx0 * texel(row + x0, channel) + wx1 * texel(row + x1, channel)
+						+ wx2 * texel(row + x2, channel) + wx3 * texel(row + x3, channel);
+				column += (j == 0 ? wy0 : j == 1 ? wy1 : j == 2 ? wy2 : wy3) * r;
+			}
+			result += (k == 0 ? wz0 : k == 1 ? wz1 : k == 2 ? wz2 : wz3) * column;
+		}
+		return result;
+	}
+
+	/**
+	 * catmullRom() of the first 4 channels in a single pass, the channels of a
+	 * texel being next to each other
+	 */
+	private void catmullRom4(int intX, int intY, int intZ, float u, float v, float w, Vector4f dest) {
+		final float wx0 = Interpolation.catmullRomWeight0(u), wx1 = Interpolation.catmullRomWeight1(u);
+		final float wx2 = Interpolation.catmullRomWeight2(u), wx3 = Interpolation.catmullRomWeight3(u);
+		final float wy0 = Interpolation.catmullRomWeight0(v), wy1 = Interpolation.catmullRomWeight1(v);
+		final float wy2 = Interpolation.catmullRomWeight2(v), wy3 = Interpolation.catmullRomWeight3(v);
+		final float wz0 = Interpolation.catmullRomWeight0(w), wz1 = Interpolation.catmullRomWeight1(w);
+		final float wz2 = Interpolation.catmullRomWeight2(w), wz3 = Interpolation.catmullRomWeight3(w);
+
+		final int x0 = ((intX - 1) & texture_mask) * channels, x1 = (intX & texture_mask) * channels;
+		final int x2 = ((intX + 1) & texture_mask) * channels, x3 = ((intX + 2) & texture_mask) * channels;
+
+		float r = 0.0f, g = 0.0f, b = 0.0f, a = 0.0f;
+		for (int k = 0; k < 4; k++) {
+			final int plane = ((intZ + k - 1) & texture_mask) * texture_size;
+			float cr = 0.0f, cg = 0.0f, cb = 0.0f, ca = 0.0f;
+			for (int j = 0; j < 4; j++) {
+				final int row = (plane + ((intY + j - 1) & texture_mask)) * texture_size * channels;
+				final int i0 = row + x0, i1 = row + x1, i2 = row + x2, i3 = row + x3;
+				final float wy = j == 0 ? wy0 : j == 1 ? wy1 : j == 2 ? wy2 : wy3;
+				cr += wy * (wx0 * value(i0) + wx1 * value(i1) + wx2 * value(i2) + wx3 * value(i3));
+				cg += wy * (wx0 * value(i0 + 1) + wx1 * value(i1 + 1) + wx2 * value(i2 + 1) + wx3 * value(i3 + 1));
+				cb += wy * (wx0 * value(i0 + 2) + wx1 * value(i1 + 2) + wx2 * value(i2 + 2) + wx3 * value(i3 + 2));
+				ca += wy * (wx0 * value(i0 + 3) + wx1 * value(i1 + 3) + wx2 * value(i2 + 3) + wx3 * value(i3 + 3));
+			}
+			final float wz = k == 0 ? wz0 : k == 1 ? wz1 : k == 2 ? wz2 : wz3;
+			r += wz * cr;
+			g += wz * cg;
+			b += wz * cb;
+			a += wz * ca;
+		}
+		dest.set(r, g, b, a);
+	}
+
+	/**
+	 * Samples the grid (x0 + i * step, y0 + j * step, z0 + k * step) for i, j, k
+	 * in [0, nx[ x [0, ny[ x [0, nz[. The result of (i, j, k) is written at
+	 * dest[offset + (k * ny + j) * nx + i], and is the same as
+	 * linearSampling() for these coordinates.
+	 */
+	public void linearSamplingGrid(float x0, float y0, float z0, float step, int nx, int ny, int nz,
+			float amplitude, float frequency, float[] dest, int offset) {
+		sampleGrid(x0, y0, z0, step, nx, ny, nz, amplitude, frequency, false, dest, offset);
+	}
+
+	/**
+	 * Same as linearSamplingGrid() with the interpolation of cubicSampling()
+	 */
+	public void cubicSamplingGrid(float x0, float y0, float z0, float step, int nx, int ny, int nz,
+			float amplitude, float frequency, float[] dest, int offset) {
+		sampleGrid(x0, y0, z0, step, nx, ny, nz, amplitude, frequency, true, dest, offset);
+	}
+
+	/**
+	 * dest[i] = linearSampling(x[i], y[i], z[i], amplitude, frequency) for i in
+	 * [0, count[
+	 */
+	public void linearSampling(float[] x, float[] y, float[] z, int count, float amplitude, float frequency,
+			float[] dest) {
+		samplePoints(x, y, z, count, amplitude, frequency, false, dest);
+	}
+
+	/**
+	 * dest[i] = cubicSampling(x[i], y[i], z[i], amplitude, frequency) for i in
+	 * [0, count[
+	 */
+	public void cubicSampling(float[] x, float[] y, float[] z, int count, float amplitude, float frequency,
+			float[] dest) {
+		samplePoints(x, y, z, count, amplitude, frequency, true, dest);
+	}
+
+	private void sampleGrid(float x0, float y0, float z0, float step, int nx, int ny, int nz, float amplitude,
+			float frequency, boolean smooth, float[] dest, int offset) {
+		final int[] ix0 = new int[nx], ix1 = new int[nx];
+		final int[] iy0 = new int[ny], iy1 = new int[ny];
+		final int[] iz0 = new int[nz], iz1 = new int[nz];
+		final float[] fx = new float[nx], fy = new float[ny], fz = new float[nz];
+
+		// the lattice coords and weights only depend on one axis
+		prepareAxis(x0, step, nx, frequency, smooth, ix0, ix1, fx);
+		prepareAxis(y0, step, ny, frequency, smooth, iy0, iy1, fy);
+		prepareAxis(z0, step, nz, frequency, smooth, iz0, iz1, fz);
+
+		for (int k = 0; k < nz; k++) {
+			final float wz = fz[k];
+			for (int j = 0; j < ny; j++) {
+				final float wy = fy[j];
+				final int r0 = texture_size * (iz0[k] * texture_size + iy0[j]);
+				final int r1 = texture_size * (iz0[k] * texture_size + iy1[j]);
+				final int r2 = texture_size * (iz1[k] * texture_size + iy0[j]);
+				final int r3 = texture_size * (iz1[k] * texture_size + iy1[j]);
+				final int o = offset + (k * ny + j) * nx;
+
+				for (int i = 0; i < nx; i++) {
+					final int a = ix0[i];
+					final int b = ix1[i];
+					final float wx = fx[i];
+
+					float v0 = texel(r0 + a);
+					float v2 = texel(r1 + a);
+					float v4 = texel(r2 + a);
+					float v6 = texel(r3 + a);
+
+					float i1 = v0 + (texel(r0 + b) - v0) * wx;
+					float i2 = v2 + (texel(r1 + b) - v2) * wx;
+					float i3 = v4 + (texel(r2 + b) - v4) * wx;
+					float i4 = v6 + (texel(r3 + b) - v6) * wx;
+
+					float i5 = i1 + (i2 - i1) * wy;
+					float i6 = i3 + (i4 - i3) * wy;
+
+					dest[o + i] = amplitude * (i5 + (i6 - i5) * wz);
+				}
+			}
+		}
+	}
+
+	private void samplePoints(float[] x, float[] y, float[] z, int count, float amplitude, float frequency,
+			boolean smooth, float[] dest) {
+		// random points gather all over the texture, a single fused loop keeps
+		// everything in registers
+		for (int i = 0; i < count; i++) {
+			float cx = x[i] * frequency;
+			float cy = y[i] * frequency;
+			float cz = z[i] * frequency;
+			int intX = toInt(cx);
+			int intY = toInt(cy);
+			int intZ = toInt(cz);
+			float wx = cx - intX;
+			float wy = cy - intY;
+			float wz = cz - intZ;
+			if (smooth) {
+				wx = wx * wx * (3.0f - 2.0f * wx);
+				wy = wy * wy * (3.0f - 2.0f * wy);
+				wz = wz * wz * (3.0f - 2.0f * wz);
+			}
+			final int a = intX & texture_mask;
+			final int b = (intX + 1) & texture_mask;
+			final int y0 = intY & texture_mask;
+			final int y1 = (intY + 1) & texture_mask;
+			final int z0 = intZ & texture_mask;
+			final int z1 = (intZ + 1) & texture_mask;
+
+			final int r0 = texture_size * (z0 * texture_size + y0);
+			final int r1 = texture_size * (z0 * texture_size + y1);
+			final int r2 = texture_size * (z1 * texture_size + y0);
+			final int r3 = texture_size * (z1 * texture_size + y1);
+
+			float v0 = texel(r0 + a);
+			float v2 = texel(r1 + a);
+			float v4 = texel(r2 + a);
+			float v6 = texel(r3 + a);
+
+			float i1 = v0 + (texel(r0 + b) - v0) * wx;
+			float i2 = v2 + (texel(r1 + b) - v2) * wx;
+			float i3 = v4 + (texel(r2 + b) - v4) * wx;
+			float i4 = v6 + (texel(r3 + b) - v6) * wx;
+
+			float i5 = i1 + (i2 - i1) * wy;
+			float i6 = i3 + (i4 - i3) * wy;
+
+			dest[i] = amplitude * (i5 + (i6 - i5) * wz);
+		}
+	}
 
 }
@@ -0,0 +1,61 @@
+package utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits an index range [start, end[ into chunks of at most grain indices and
+ * runs them on a fork-join pool. The body always sees whole chunks, so the
+ * partition does not depend on the number of threads.
+ */
+public class ParallelFor {
+
+	public interface RangeBody {
+		void run(int start, int end);
+	}
+
+	public static void run(ForkJoinPool pool, int start, int end, int grain, RangeBody body) {
+		if (end <= start) {
+			return;
+		}
+		grain = Math.max(1, grain);
+		int numChunks = (int) (((long) end - start + grain - 1) / grain);
+		pool.invoke(new Chunks(start, end, grain, 0, numChunks, body));
+	}
+
+	public static void run(int start, int end, int grain, RangeBody body) {
+		run(ForkJoinPool.commonPool(), start, end, grain, body);
+	}
+
+	private static class Chunks extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final int start;
+		final int end;
+		final int grain;
+		final int firstChunk;
+		final int lastChunk; // exclusive
+		final RangeBody body;
+
+		Chunks(int start, int end, int grain, int firstChunk, int lastChunk, RangeBody body) {
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastChunk - firstChunk > 1) {
+				int mid = (firstChunk + lastChunk) >>> 1;
+				invokeAll(new Chunks(start, end, grain, firstChunk, mid, body),
+						new Chunks(start, end, grain, mid, lastChunk, body));
+				return;
+			}
+			int s = start + firstChunk * grain;
+			body.run(s, (int) Math.min(end, (long) s + grain));
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package utils;
+
+/**
+ * 2D version of PerlinNoise3D, the values are roughly in [-1, 1] for an
+ * amplitude of 1.
+ */
+public class PerlinNoise2D extends Noise {
+
+	public PerlinNoise2D(long seed, int size) {
+		super(seed, size, 2, 1, 0.0f, 1.0f, Storage.ARRAY);
+	}
+
+	public PerlinNoise2D(long seed, int size, Storage storage) {
+		super(seed, size, 2, 1, 0.0f, 1.0f, storage);
+	}
+
+	public float sample(float x, float y, float amplitude, float frequency) {
+		x *= frequency;
+		int intX = toInt(x);
+		float fracX = x - intX;
+
+		y *= frequency;
+		int intY = toInt(y);
+		float fracY = y - intY;
+
+		return amplitude * perlin(intX & texture_mask, (intX + 1) & texture_mask, fracX, fade(fracX),
+				intY & texture_mask, (intY + 1) & texture_mask, fracY, fade(fracY));
+	}
+
+	/**
+	 * Samples the grid (x0 + i * step, y0 + j * step) for i, j in [0, nx[ x [0,
+	 * ny[. The result of (i, j) is written at dest[offset + j * nx + i], and is
+	 * the same as sample() for these coordinates.
+	 */
+	public void sampleGrid(float x0, float y0, float step, int nx, int ny, float amplitude, float frequency,
+			float[] dest, int offset) {
+		final int[] ix0 = new int[nx], ix1 = new int[nx];
+		final int[] iy0 = new int[ny], iy1 = new int[ny];
+		final float[] fx = new float[nx], fy = new float[ny];
+		final float[] ux = new float[nx], uy = new float[ny];
+
+		prepareGradientAxis(x0, step, nx, frequency, ix0, ix1, fx, ux);
+		prepareGradientAxis(y0, step, ny, frequency, iy0, iy1, fy, uy);
+
+		for (int j = 0; j < ny; j++) {
+			final int o = offset + j * nx;
+			for (int i = 0; i < nx; i++) {
+				dest[o + i] = amplitude * perlin(ix0[i], ix1[i], fx[i], ux[i], iy0[j], iy1[j], fy[j], uy[j]);
+			}
+		}
+	}
+
+	/**
+	 * dest[i] = sample(x[i], y[i], amplitude, frequency) for i in [0, count[
+	 */
+	public void sample(float[] x, float[] y, int count, float amplitude, float frequency, float[] dest) {
+		for (int i = 0; i < count; i++) {
+			dest[i] = sample(x[i], y[i], amplitude, frequency);
+		}
+	}
+
+	private float perlin(int x0, int x1, float fx, float u, int y0, int y1, float fy, float v) {
+		final int r0 = y0 * texture_size;
+		final int r1 = y1 * texture_size;
+
+		float n00 = gradientDot(gradientIndex(r0 + x0), fx, fy);
+		float n10 = gradientDot(gradientIndex(r0 + x1), fx - 1.0f, fy);
+		float n01 = gradientDot(gradientIndex(r1 + x0), fx, fy - 1.0f);
+		float n11 = gradientDot(gradientIndex(r1 + x1), fx - 1.0f, fy - 1.0f);
+
+		float i1 = n00 + (n10 - n00) * u;
+		float i2 = n01 + (n11 - n01) * u;
+
+		return i1 + (i2 - i1) * v;
+	}
+
+}
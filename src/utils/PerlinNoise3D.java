@@ -0,0 +1,105 @@
+package utils;
+
+/**
+ * Gradient noise, as Ken Perlin's improved noise: each lattice point has a
+ * random gradient, and the noise interpolates the dot products of the 8
+ * gradients around the sample with their offsets to the sample. The gradients
+ * are picked from the same seeded lattice as Noise3D, so the noise also
+ * repeats every size units. The values are roughly in [-1, 1] for an
+ * amplitude of 1.
+ */
+public class PerlinNoise3D extends Noise {
+
+	public PerlinNoise3D(long seed, int size) {
+		super(seed, size, 3, 1, 0.0f, 1.0f, Storage.ARRAY);
+	}
+
+	public PerlinNoise3D(long seed, int size, Storage storage) {
+		super(seed, size, 3, 1, 0.0f, 1.0f, storage);
+	}
+
+	public float sample(float x, float y, float z, float amplitude, float frequency) {
+		x *= frequency;
+		int intX = toInt(x);
+		float fracX = x - intX;
+
+		y *= frequency;
+		int intY = toInt(y);
+		float fracY = y - intY;
+
+		z *= frequency;
+		int intZ = toInt(z);
+		float fracZ = z - intZ;
+
+		return amplitude * perlin(intX & texture_mask, (intX + 1) & texture_mask, fracX, fade(fracX),
+				intY & texture_mask, (intY + 1) & texture_mask, fracY, fade(fracY), intZ & texture_mask,
+				(intZ + 1) & texture_mask, fracZ, fade(fracZ));
+	}
+
+	/**
+	 * Samples the grid (x0 + i * step, y0 + j * step, z0 + k * step) for i, j, k
+	 * in [0, nx[ x [0, ny[ x [0, nz[. The result of (i, j, k) is written at
+	 * dest[offset + (k * ny + j) * nx + i], and is the same as sample() for
+	 * these coordinates.
+	 */
+	public void sampleGrid(float x0, float y0, float z0, float step, int nx, int ny, int nz, float amplitude,
+			float frequency, float[] dest, int offset) {
+		final int[] ix0 = new int[nx], ix1 = new int[nx];
+		final int[] iy0 = new int[ny], iy1 = new int[ny];
+		final int[] iz0 = new int[nz], iz1 = new int[nz];
+		final float[] fx = new float[nx], fy = new float[ny], fz = new float[nz];
+		final float[] ux = new float[nx], uy = new float[ny], uz = new float[nz];
+
+		prepareGradientAxis(x0, step, nx, frequency, ix0, ix1, fx, ux);
+		prepareGradientAxis(y0, step, ny, frequency, iy0, iy1, fy, uy);
+		prepareGradientAxis(z0, step, nz, frequency, iz0, iz1, fz, uz);
+
+		for (int k = 0; k < nz; k++) {
+			for (int j = 0; j < ny; j++) {
+				final int o = offset + (k * ny + j) * nx;
+				for (int i = 0; i < nx; i++) {
+					dest[o + i] = amplitude * perlin(ix0[i], ix1[i], fx[i], ux[i], iy0[j], iy1[j], fy[j], uy[j],
+							iz0[k], iz1[k], fz[k], uz[k]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * dest[i] = sample(x[i], y[i], z[i], amplitude, frequency) for i in [0,
+	 * count[
+	 */
+	public void sample(float[] x, float[] y, float[] z, int count, float amplitude, float frequency, float[] dest) {
+		for (int i = 0; i < count; i++) {
+			dest[i] = sample(x[i], y[i], z[i], amplitude, frequency);
+		}
+	}
+
+	private float perlin(int x0, int x1, float fx, float u, int y0, int y1, float fy, float v, int z0, int z1,
+			float fz, float w) {
+		final int r00 = (z0 * texture_size + y0) * texture_size;
+		final int r01 = (z0 * texture_size + y1) * texture_size;
+		final int r10 = (z1 * texture_size + y0) * texture_size;
+		final int r11 = (z1 * texture_size + y1) * texture_size;
+
+		float n000 = gradientDot(gradientIndex(r00 + x0), fx, fy, fz);
+		float n100 = gradientDot(gradientIndex(r00 + x1), fx - 1.0f, fy, fz);
+		float n010 = gradientDot(gradientIndex(r01 + x0), fx, fy - 1.0f, fz);
+		float n110 = gradientDot(gradientIndex(r01 + x1), fx - 1.0f, fy - 1.0f, fz);
+		float n001 = gradientDot(gradientIndex(r10 + x0), fx, fy, fz - 1.0f);
+		float n101 = gradientDot(gradientIndex(r10 + x1), fx - 1.0f, fy, fz - 1.0f);
+		float n011 = gradientDot(gradientIndex(r11 + x0), fx, fy - 1.0f, fz - 1.0f);
+		float n111 = gradientDot(gradientIndex(r11 + x1), fx - 1.0f, fy - 1.0f, fz - 1.0f);
+
+		float i1 = n000 + (n100 - n000) * u;
+		float i2 = n010 + (n110 - n010) * u;
+		float i3 = n001 + (n101 - n001) * u;
+		float i4 = n011 + (n111 - n011) * u;
+
+		float i5 = i1 + (i2 - i1) * v;
+		float i6 = i3 + (i4 - i3) * v;
+
+		return i5 + (i6 - i5) * w;
+	}
+
+}
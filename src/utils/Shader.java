@@ -72,10 +72,13 @@ import org.lwjgl.system.MemoryUtil;
 
 public class Shader {
 	
-	static List<String> headers = List.of("/definitions.glsl", "/generation.glsl", "/render_common.glsl", "/PBR.glsl");
+	static List<String> headers = List.of("/definitions.glsl", "/generation.glsl", "/render_common.glsl", "/PBR.glsl",
+			"/tile_directory.glsl");
 	static PointerBuffer headers_names_pointers;
 	static List<ByteBuffer> headers_names_ASCII_strings;
 	
+	static Map<String, String> generated_headers = new HashMap<>(); // headers defined from Java, not read from a file
+
 	static WatchService shaders_watch;
 	static HashMap<String, Shader> loadedShaders = new HashMap<>();
 
@@ -104,6 +107,9 @@ public class Shader {
 			}
 			glNamedStringARB(GL_SHADER_INCLUDE_ARB, header, source);
 		}
+		for(var header : generated_headers.entrySet()){
+			glNamedStringARB(GL_SHADER_INCLUDE_ARB, header.getKey(), header.getValue());
+		}
 
 		headers_names_pointers = MemoryUtil.memAllocPointer(headers.size());
 		headers_names_ASCII_strings = new ArrayList<ByteBuffer>();
@@ -117,6 +123,19 @@ public class Shader {
 
 	}
 	
+	/**
+	 * Defines a header from its source, for generated code. It must be defined
+	 * before the shaders including it are loaded.
+	 * 
+	 * @param name the name used by #include, such as "/density.glsl"
+	 */
+	public static void defineHeader(String name, String source){
+		generated_headers.put(name, source);
+		if(headers_names_ASCII_strings != null){
+			glNamedStringARB(GL_SHADER_INCLUDE_ARB, name, source);
+		}
+	}
+	
 	public static void updateFolderWatch() {
 		WatchKey key = shaders_watch.poll();
 		if(key == null) {
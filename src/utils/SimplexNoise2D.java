@@ -0,0 +1,84 @@
+package utils;
+
+/**
+ * 2D version of SimplexNoise3D: a sample sums the contributions of the 3
+ * corners of its triangle. The values are roughly in [-1, 1] for an
+ * amplitude of 1.
+ */
+public class SimplexNoise2D extends Noise {
+
+	private static final float F2 = (float) (0.5 * (Math.sqrt(3.0) - 1.0)); // skews (x, y) to the lattice space
+	private static final float G2 = (float) ((3.0 - Math.sqrt(3.0)) / 6.0); // unskews
+
+	private static final float SCALE = 70.0f; // maps the sum of the contributions to [-1, 1]
+
+	public SimplexNoise2D(long seed, int size) {
+		super(seed, size, 2, 1, 0.0f, 1.0f, Storage.ARRAY);
+	}
+
+	public SimplexNoise2D(long seed, int size, Storage storage) {
+		super(seed, size, 2, 1, 0.0f, 1.0f, storage);
+	}
+
+	public float sample(float x, float y, float amplitude, float frequency) {
+		x *= frequency;
+		y *= frequency;
+
+		// lattice point of the skewed cell containing the sample
+		float s = (x + y) * F2;
+		int i = floor(x + s);
+		int j = floor(y + s);
+
+		// offsets from the first corner
+		float t = (i + j) * G2;
+		float x0 = x - (i - t);
+		float y0 = y - (j - t);
+
+		// lower or upper triangle of the cell
+		int i1 = x0 > y0 ? 1 : 0;
+		int j1 = 1 - i1;
+
+		float n = corner(i, j, x0, y0);
+		n += corner(i + i1, j + j1, x0 - i1 + G2, y0 - j1 + G2);
+		n += corner(i + 1, j + 1, x0 - 1.0f + 2.0f * G2, y0 - 1.0f + 2.0f * G2);
+
+		return amplitude * SCALE * n;
+	}
+
+	/**
+	 * Samples the grid (x0 + i * step, y0 + j * step) for i, j in [0, nx[ x [0,
+	 * ny[. The result of (i, j) is written at dest[offset + j * nx + i], and is
+	 * the same as sample() for these coordinates.
+	 */
+	public void sampleGrid(float x0, float y0, float step, int nx, int ny, float amplitude, float frequency,
+			float[] dest, int offset) {
+		for (int j = 0; j < ny; j++) {
+			final float y = y0 + j * step;
+			final int o = offset + j * nx;
+			for (int i = 0; i < nx; i++) {
+				dest[o + i] = sample(x0 + i * step, y, amplitude, frequency);
+			}
+		}
+	}
+
+	/**
+	 * dest[i] = sample(x[i], y[i], amplitude, frequency) for i in [0, count[
+	 */
+	public void sample(float[] x, float[] y, int count, float amplitude, float frequency, float[] dest) {
+		for (int i = 0; i < count; i++) {
+			dest[i] = sample(x[i], y[i], amplitude, frequency);
+		}
+	}
+
+	/**
+	 * Contribution of the given corner, it falls to 0 at a distance of
+	 * sqrt(0.5) so that it never reaches the neighbouring triangles
+	 */
+	private float corner(int i, int j, float x, float y) {
+		float t = Math.max(0.5f - x * x - y * y, 0.0f);
+		int index = (j & texture_mask) * texture_size + (i & texture_mask);
+		t *= t;
+		return t * t * gradientDot(gradientIndex(index), x, y);
+	}
+
+}
@@ -0,0 +1,108 @@
+package utils;
+
+/**
+ * Simplex noise: the space is split in tetrahedra instead of cubes, so a
+ * sample only sums the contributions of the 4 corners of its tetrahedron
+ * instead of the 8 corners of the cube of PerlinNoise3D, or the 64 lattice
+ * points of Noise3D.catmullRomSampling(). The gradients are picked from the
+ * same seeded lattice as Noise3D, wrapped every size units in the skewed
+ * space. The values are roughly in [-1, 1] for an amplitude of 1.
+ */
+public class SimplexNoise3D extends Noise {
+
+	private static final float F3 = 1.0f / 3.0f; // skews (x, y, z) to the lattice space
+	private static final float G3 = 1.0f / 6.0f; // unskews
+
+	private static final float SCALE = 76.0f; // maps the sum of the contributions to [-1, 1]
+
+	public SimplexNoise3D(long seed, int size) {
+		super(seed, size, 3, 1, 0.0f, 1.0f, Storage.ARRAY);
+	}
+
+	public SimplexNoise3D(long seed, int size, Storage storage) {
+		super(seed, size, 3, 1, 0.0f, 1.0f, storage);
+	}
+
+	public float sample(float x, float y, float z, float amplitude, float frequency) {
+		x *= frequency;
+		y *= frequency;
+		z *= frequency;
+
+		// lattice point of the skewed cell containing the sample
+		float s = (x + y + z) * F3;
+		int i = floor(x + s);
+		int j = floor(y + s);
+		int k = floor(z + s);
+
+		// offsets from the first corner
+		float t = (i + j + k) * G3;
+		float x0 = x - (i - t);
+		float y0 = y - (j - t);
+		float z0 = z - (k - t);
+
+		// the tetrahedron is found by ordering the offsets, without branches
+		// since the order is random
+		int xy = x0 >= y0 ? 1 : 0;
+		int xz = x0 >= z0 ? 1 : 0;
+		int yz = y0 >= z0 ? 1 : 0;
+
+		// second corner: +1 along the largest offset
+		int i1 = xy & xz;
+		int j1 = (1 - xy) & yz;
+		int k1 = (1 - xz) & (1 - yz);
+
+		// third corner: +1 along the 2 largest offsets
+		int i2 = xy | xz;
+		int j2 = (1 - xy) | yz;
+		int k2 = (1 - xz) | (1 - yz);
+
+		float n = corner(i, j, k, x0, y0, z0);
+		n += corner(i + i1, j + j1, k + k1, x0 - i1 + G3, y0 - j1 + G3, z0 - k1 + G3);
+		n += corner(i + i2, j + j2, k + k2, x0 - i2 + 2.0f * G3, y0 - j2 + 2.0f * G3, z0 - k2 + 2.0f * G3);
+		n += corner(i + 1, j + 1, k + 1, x0 - 1.0f + 3.0f * G3, y0 - 1.0f + 3.0f * G3, z0 - 1.0f + 3.0f * G3);
+
+		return amplitude * SCALE * n;
+	}
+
+	/**
+	 * Samples the grid (x0 + i * step, y0 + j * step, z0 + k * step) for i, j, k
+	 * in [0, nx[ x [0, ny[ x [0, nz[. The result of (i, j, k) is written at
+	 * dest[offset + (k * ny + j) * nx + i], and is the same as sample() for
+	 * these coordinates.
+	 */
+	public void sampleGrid(float x0, float y0, float z0, float step, int nx, int ny, int nz, float amplitude,
+			float frequency, float[] dest, int offset) {
+		for (int k = 0; k < nz; k++) {
+			final float z = z0 + k * step;
+			for (int j = 0; j < ny; j++) {
+				final float y = y0 + j * step;
+				final int o = offset + (k * ny + j) * nx;
+				for (int i = 0; i < nx; i++) {
+					dest[o + i] = sample(x0 + i * step, y, z, amplitude, frequency);
+				}
+			}
+		}
+	}
+
+	/**
+	 * dest[i] = sample(x[i], y[i], z[i], amplitude, frequency) for i in [0,
+	 * count[
+	 */
+	public void sample(float[] x, float[] y, float[] z, int count, float amplitude, float frequency, float[] dest) {
+		for (int i = 0; i < count; i++) {
+			dest[i] = sample(x[i], y[i], z[i], amplitude, frequency);
+		}
+	}
+
+	/**
+	 * Contribution of the given corner, it falls to 0 at a distance of
+	 * sqrt(0.5) so that it never reaches the neighbouring tetrahedra
+	 */
+	private float corner(int i, int j, int k, float x, float y, float z) {
+		float t = Math.max(0.5f - x * x - y * y - z * z, 0.0f);
+		int index = ((k & texture_mask) * texture_size + (j & texture_mask)) * texture_size + (i & texture_mask);
+		t *= t;
+		return t * t * gradientDot(gradientIndex(index), x, y, z);
+	}
+
+}
@@ -0,0 +1,186 @@
+package voxels;
+
+import java.util.Arrays;
+
+import utils.Morton;
+
+/**
+ * Moves the allocated tiles of a TerrainData to the start of the atlas, in the
+ * Morton order of their coords, so that tiles close in the world are close in
+ * compressed_atlas and in block_ids.
+ *
+ * The remap is computed once, then applied by swapping pairs of atlas slots,
+ * each swap rewriting tiles, compressed_atlas, block_ids and the occupancy
+ * codes of the two slots. step() applies a bounded number of swaps and leaves
+ * the data consistent, so the compaction can be spread over several frames.
+ * The terrain must not be edited until the compaction is done, as the stack of
+ * free tiles is only rebuilt then.
+ */
+public class AtlasCompactor {
+
+	private final TerrainData data;
+	private final int liveTiles;
+	private final int[] slotOf; // current atlas slot of each tile, by Morton order
+	private final int[] rankAt; // Morton rank of the tile in each atlas slot, -1 if free
+	private int next = 0; // Morton rank of the next tile to move
+
+	public final double fragmentationBefore;
+	public final int spanBefore;
+
+	public AtlasCompactor(TerrainData data) {
+		this.data = data;
+		this.slotOf = sortedLiveTiles(data);
+		this.liveTiles = slotOf.length;
+		this.rankAt = new int[data.maxTiles];
+		Arrays.fill(rankAt, -1);
+		for (int k = 0; k < liveTiles; k++) {
+			rankAt[slotOf[k]] = k;
+		}
+		this.fragmentationBefore = fragmentation(data);
+		this.spanBefore = span(data);
+	}
+
+	public boolean isDone() {
+		return next == liveTiles;
+	}
+
+	/**
+	 * Compacts the whole atlas at once
+	 */
+	public void run() {
+		step(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Moves at most maxMoves tiles to their final slot. The last step rebuilds
+	 * the stack of free tiles so that the lowest slots are allocated first.
+	 *
+	 * @return true if the compaction is done
+	 */
+	public boolean step(int maxMoves) {
+		if (isDone()) {
+			return true;
+		}
+		int moves = 0;
+		while (next < liveTiles && moves < maxMoves) {
+			int slot = slotOf[next];
+			if (slot != next) {
+				swapSlots(slot, next);
+				int other = rankAt[next];
+				rankAt[next] = next;
+				rankAt[slot] = other;
+				if (other >= 0) {
+					slotOf[other] = slot;
+				}
+				slotOf[next] = next;
+				moves++;
+			}
+			next++;
+		}
+		if (isDone()) {
+			rebuildFreeTiles();
+		}
+		return isDone();
+	}
+
+	private void swapSlots(int a, int b) {
+		for (int i = 0; i < 4; i++) {
+			int t = data.tiles[a * 4 + i];
+			data.tiles[a * 4 + i] = data.tiles[b * 4 + i];
+			data.tiles[b * 4 + i] = t;
+		}
+
+		long mask = data.compressed_atlas[a];
+		data.compressed_atlas[a] = data.compressed_atlas[b];
+		data.compressed_atlas[b] = mask;
+
+		if (data.block_ids != null) {
+			for (int z = 0; z < 4; z++) {
+				for (int y = 0; y < 4; y++) {
+					int ia = data.atlasVoxelIndex(a, 0, y, z);
+					int ib = data.atlasVoxelIndex(b, 0, y, z);
+					for (int x = 0; x < 4; x++) {
+						byte t = data.block_ids[ia + x];
+						data.block_ids[ia + x] = data.block_ids[ib + x];
+						data.block_ids[ib + x] = t;
+					}
+				}
+			}
+		}
+
+		updateOccupancy(a);
+		updateOccupancy(b);
+	}
+
+	private void updateOccupancy(int tile_index) {
+		int[] tiles = data.tiles;
+		if (tiles[tile_index * 4 + 3] != 0) {
+			int idx = data.tileIndex(tiles[tile_index * 4], tiles[tile_index * 4 + 1], tiles[tile_index * 4 + 2]);
+			data.occupancy[idx] = tile_index;
+		}
+	}
+
+	private void rebuildFreeTiles() {
+		// M-1, M-2, ..., the first free slot on top
+		int[] free = new int[data.maxTiles - liveTiles];
+		int count = 0;
+		for (int i = data.maxTiles - 1; i >= 0; i--) {
+			if (rankAt[i] < 0) {
+				free[count++] = i;
+			}
+		}
+		data.free_tiles.reset(free, count);
+	}
+
+	/**
+	 * @return the slots of the allocated tiles, sorted by the Morton order of
+	 *         their coords
+	 */
+	private static int[] sortedLiveTiles(TerrainData data) {
+		long[] codes = new long[data.maxTiles];
+		int[] live = new int[data.maxTiles];
+		int count = 0;
+		for (int i = 0; i < data.maxTiles; i++) {
+			if (data.tiles[i * 4 + 3] != 0) {
+				codes[count] = Morton.encode64(data.tiles[i * 4], data.tiles[i * 4 + 1], data.tiles[i * 4 + 2]);
+				live[count++] = i;
+			}
+		}
+		int[] rank = Morton.ranks(codes, count);
+		int[] slots = new int[count];
+		for (int k = 0; k < count; k++) {
+			slots[rank[k]] = live[k];
+		}
+		return slots;
+	}
+
+	/**
+	 * Fraction of the tiles consecutive in Morton order that are not
+	 * consecutive in the atlas
+	 */
+	public static double fragmentation(TerrainData data) {
+		int[] slots = sortedLiveTiles(data);
+		if (slots.length < 2) {
+			return 0.0;
+		}
+		int breaks = 0;
+		for (int k = 1; k < slots.length; k++) {
+			if (slots[k] != slots[k - 1] + 1) {
+				breaks++;
+			}
+		}
+		return breaks / (double) (slots.length - 1);
+	}
+
+	/**
+	 * @return 1 + the highest slot of an allocated tile
+	 */
+	public static int span(TerrainData data) {
+		for (int i = data.maxTiles - 1; i >= 0; i--) {
+			if (data.tiles[i * 4 + 3] != 0) {
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+}
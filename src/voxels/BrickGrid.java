@@ -0,0 +1,185 @@
+package voxels;
+
+import java.util.Arrays;
+
+/**
+ * CPU copy of the occupancy hierarchy of a terrain with a configurable brick
+ * edge: 4 voxels, as the tiles of the World, or 8 voxels. Each brick which is
+ * neither empty nor full stores a mask of brick_size^3 bits, 1 or 8 longs, and
+ * each super brick of 4x4x4 bricks a 64 bits mask of its non empty bricks.
+ *
+ * trace() is the hierarchical DDA of render_common.glsl, with skips of
+ * 4*brick_size, brick_size and 1 voxel, so that both sizes can be compared on
+ * the same terrain: larger bricks have less metadata per voxel but skip less
+ * empty space near the surface.
+ */
+public class BrickGrid extends GridTracer {
+
+	public final int brick_size; // voxels per brick edge, 4 or 8
+	private final int shift; // log2(brick_size)
+	private final int words; // longs per brick mask
+
+	public final int width; // number of bricks
+	public final int height;// number of bricks
+	public final int depth; // number of bricks
+
+	public final int[] occupancy; // for each brick: -1 (air), -2 (solid) or the index of its mask
+	public final long[] compressed_occupancy; // for each super brick: 1 bit per non empty brick
+	private long[] masks; // for each mixed brick: 1 bit per solid voxel, grown as the bricks are added
+	private int numMasks = 0;
+
+	private BrickGrid(int width, int height, int depth, int brick_size) {
+		super(width * brick_size, height * brick_size, depth * brick_size);
+		this.brick_size = brick_size;
+		this.shift = Integer.numberOfTrailingZeros(brick_size);
+		this.words = brick_size * brick_size * brick_size / 64;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		int numBricks = TerrainData.arrayLength((long) width * height * depth, "bricks");
+		this.occupancy = new int[numBricks];
+		this.compressed_occupancy = new long[numBricks / 64];
+		this.masks = new long[64 * words];
+	}
+
+	/**
+	 * Copies the voxels of the given terrain into bricks of the given size. The
+	 * size of the terrain must be a multiple of 4 bricks.
+	 */
+	public static BrickGrid build(TerrainData data, int brick_size) {
+		if (brick_size != 4 && brick_size != 8) {
+			throw new IllegalArgumentException("Unsupported brick size: " + brick_size);
+		}
+		int super_brick = 4 * brick_size;
+		int W = data.width * 4, H = data.height * 4, D = data.depth * 4;
+		if (W % super_brick != 0 || H % super_brick != 0 || D % super_brick != 0) {
+			throw new IllegalArgumentException(
+					"The terrain size " + W + "x" + H + "x" + D + " is not a multiple of " + super_brick + " voxels");
+		}
+		BrickGrid grid = new BrickGrid(W / brick_size, H / brick_size, D / brick_size, brick_size);
+		int tilesPerBrick = brick_size / 4;
+
+		for (int bz = 0; bz < grid.depth; bz++) {
+			for (int by = 0; by < grid.height; by++) {
+				for (int bx = 0; bx < grid.width; bx++) {
+					// uniform bricks are read from the tile codes
+					boolean air = true, solid = true;
+					for (int tz = 0; tz < tilesPerBrick; tz++) {
+						for (int ty = 0; ty < tilesPerBrick; ty++) {
+							for (int tx = 0; tx < tilesPerBrick; tx++) {
+								int code = data.occupancy[data.tileIndex(bx * tilesPerBrick + tx,
+										by * tilesPerBrick + ty, bz * tilesPerBrick + tz)];
+								air &= code == TerrainData.OCCUPANCY_AIR;
+								solid &= code == TerrainData.OCCUPANCY_SOLID;
+							}
+						}
+					}
+					int brick = grid.brickIndex(bx, by, bz);
+					if (air) {
+						grid.occupancy[brick] = TerrainData.OCCUPANCY_AIR;
+						continue;
+					}
+					grid.compressed_occupancy[grid.superBrickIndex(bx, by, bz)] |= 1L
+							<< TerrainData.superTileBit(bx, by, bz);
+					if (solid) {
+						grid.occupancy[brick] = TerrainData.OCCUPANCY_SOLID;
+						continue;
+					}
+					int mask = grid.addMask();
+					grid.occupancy[brick] = mask;
+					for (int z = 0; z < brick_size; z++) {
+						for (int y = 0; y < brick_size; y++) {
+							for (int x = 0; x < brick_size; x++) {
+								if (data.testBlockSolid(bx * brick_size + x, by * brick_size + y,
+										bz * brick_size + z)) {
+									int bit = grid.voxelBit(x, y, z);
+									grid.masks[mask * grid.words + (bit >> 6)] |= 1L << bit;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		grid.masks = Arrays.copyOf(grid.masks, grid.numMasks * grid.words);
+		return grid;
+	}
+
+	/**
+	 * @return the index of a new cleared mask
+	 */
+	private int addMask() {
+		if ((numMasks + 1) * words > masks.length) {
+			masks = Arrays.copyOf(masks, TerrainData.arrayLength(2L * masks.length, "brick masks"));
+		}
+		return numMasks++;
+	}
+
+	public int brickIndex(int x, int y, int z) {
+		return x + width * (y + height * z);
+	}
+
+	public int superBrickIndex(int x, int y, int z) {
+		return (x >> 2) + (width / 4) * ((y >> 2) + (height / 4) * (z >> 2));
+	}
+
+	/**
+	 * Bit of the given voxel inside its brick mask, x first
+	 */
+	public int voxelBit(int x, int y, int z) {
+		int m = brick_size - 1;
+		return (x & m) | ((y & m) << shift) | ((z & m) << (2 * shift));
+	}
+
+	public int numMixedBricks() {
+		return numMasks;
+	}
+
+	/**
+	 * @return the bytes of the brick codes and of the super brick masks
+	 */
+	public long metadataBytes() {
+		return (long) occupancy.length * Integer.BYTES + (long) compressed_occupancy.length * Long.BYTES;
+	}
+
+	/**
+	 * @return the bytes of the masks of the mixed bricks, the only ones
+	 *         allocated
+	 */
+	public long maskBytes() {
+		return (long) masks.length * Long.BYTES;
+	}
+
+	public boolean isSolid(int x, int y, int z) {
+		if (x < 0 || y < 0 || z < 0 || x >= width * brick_size || y >= height * brick_size
+				|| z >= depth * brick_size) {
+			return false;
+		}
+		int code = occupancy[brickIndex(x >> shift, y >> shift, z >> shift)];
+		if (code < 0) {
+			return code == TerrainData.OCCUPANCY_SOLID;
+		}
+		int bit = voxelBit(x, y, z);
+		return (masks[code * words + (bit >> 6)] & (1L << bit)) != 0;
+	}
+
+	protected int skip(int x, int y, int z) {
+		if (x < 0 || y < 0 || z < 0 || x >= W || y >= H || z >= D) {
+			return jump(1, shift + 2);
+		}
+		int bx = x >> shift, by = y >> shift, bz = z >> shift;
+		long super_mask = compressed_occupancy[superBrickIndex(bx, by, bz)];
+		if (super_mask == 0) {
+			return jump(1, shift + 2);
+		}
+		if ((super_mask & (1L << TerrainData.superTileBit(bx, by, bz))) == 0) {
+			return jump(1, shift);
+		}
+		int code = occupancy[brickIndex(bx, by, bz)];
+		if (code == TerrainData.OCCUPANCY_SOLID) {
+			return 0;
+		}
+		int bit = voxelBit(x, y, z);
+		return (masks[code * words + (bit >> 6)] & (1L << bit)) != 0 ? 0 : jump(1, 0);
+	}
+}
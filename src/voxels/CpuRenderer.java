@@ -0,0 +1,222 @@
+package voxels;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.joml.Vector4fc;
+
+import utils.ParallelFor;
+
+/**
+ * CPU version of render.glsl, which does not need the GPU: the rays of the
+ * pixels are traced with OccupancyPyramid.trace() or TileDistanceField.trace()
+ * and shaded with the albedo of the blocks, the sun and the sky. The probes
+ * and PBR() are GPU only, so the colors are not the same as the window, but
+ * the hit voxels and the iterations are.
+ *
+ * The image is split into squares of TILE pixels, run on a fork-join pool so
+ * that the idle threads steal the squares of the busy ones.
+ */
+public class CpuRenderer {
+
+	public static final int TILE = 16; // pixels
+
+	private static final World.Blocks[] BLOCKS = World.Blocks.values();
+	// see getSkyRadiance()
+	private static final Vector3fc SKY_C0 = new Vector3f(0.3f, 0.6f, 1.0f).mul(2.0f);
+	private static final Vector3fc SKY_C1 = new Vector3f(0.3f, 0.6f, 0.8f).mul(0.25f);
+	private static final Vector3fc SKY_C2 = new Vector3f(4.0f, 0.3f, 0.3f).mul(2.0f);
+	private static final Vector3fc SKY_C3 = new Vector3f(2.0f, 0.2f, 0.2f);
+
+	public final VoxelTracer tracer;
+	public final TerrainData data;
+
+	public Vector3f minCorner; // as in World
+	public float voxelSize;
+	public Vector3f sunDir = new Vector3f(0.8f, 1.0f, -0.8f).normalize();
+	public Vector3f sunLight = new Vector3f(200.0f);
+	public float exposure = 1.0f;
+	public SunVisibilityCache sunVisibility; // sun shadows, none if null
+
+	/**
+	 * The image and the same counters as PerformanceCounters
+	 */
+	public static class Frame {
+		public final int width;
+		public final int height;
+		public final int[] rgb;
+
+		public long mainWindowIterationCount;
+		public long mainWindowValidPixels; // on a voxel
+		public long mainWindowPixelsInBoundingBox;
+		public long nanos;
+
+		Frame(int width, int height) {
+			this.width = width;
+			this.height = height;
+			this.rgb = new int[width * height];
+		}
+
+		public double raysPerSecond() {
+			return width * (double) height / (nanos * 1.0E-9);
+		}
+
+		/**
+		 * As shown by World: per pixel in the bounding box of the terrain
+		 */
+		public double averageIterations() {
+			return mainWindowIterationCount / (double) Math.max(1L, mainWindowPixelsInBoundingBox);
+		}
+
+		public void writePNG(File file) throws IOException {
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			image.setRGB(0, 0, width, height, rgb, 0, width);
+			ImageIO.write(image, "png", file);
+		}
+	}
+
+	/**
+	 * @param voxelSize and minCorner: the world coords of the terrain, as in
+	 *                  World
+	 */
+	public CpuRenderer(OccupancyPyramid pyramid, Vector3fc minCorner, float voxelSize) {
+		this(pyramid, pyramid.data, minCorner, voxelSize);
+	}
+
+	public CpuRenderer(TileDistanceField distances, Vector3fc minCorner, float voxelSize) {
+		this(distances, distances.data, minCorner, voxelSize);
+	}
+
+	private CpuRenderer(VoxelTracer tracer, TerrainData data, Vector3fc minCorner, float voxelSize) {
+		this.tracer = tracer;
+		this.data = data;
+		this.minCorner = new Vector3f(minCorner);
+		this.voxelSize = voxelSize;
+	}
+
+	public Frame render(Vector4fc K, Matrix4fc ViewMatrix, int width, int height) {
+		return render(ForkJoinPool.commonPool(), K, ViewMatrix, width, height);
+	}
+
+	/**
+	 * @param K          the intrinsics of the camera, see Camera.intrinsics()
+	 * @param ViewMatrix as given to render.glsl
+	 */
+	public Frame render(ForkJoinPool pool, Vector4fc K, Matrix4fc ViewMatrix, int width, int height) {
+		Frame frame = new Frame(width, height);
+		Matrix3f Rt = new Matrix3f().set(ViewMatrix).transpose();
+		// see computeCamCenter() and toGridCoords()
+		Vector3f start = Rt.transform(new Vector3f(ViewMatrix.m30(), ViewMatrix.m31(), ViewMatrix.m32())).negate()
+				.sub(minCorner).div(voxelSize);
+
+		LongAdder iterations = new LongAdder(), validPixels = new LongAdder(), pixelsInBoundingBox = new LongAdder();
+		int tilesX = (width + TILE - 1) / TILE, tilesY = (height + TILE - 1) / TILE;
+		long begin = System.nanoTime();
+		ParallelFor.run(pool, 0, tilesX * tilesY, 1, (first, last) -> {
+			RayHit hit = new RayHit();
+			Vector3f ray = new Vector3f(), normal = new Vector3f(), color = new Vector3f();
+			long tileIterations = 0, tileValid = 0, tileInBox = 0;
+			for (int tile = first; tile < last; tile++) {
+				int x0 = (tile % tilesX) * TILE, y0 = (tile / tilesX) * TILE;
+				for (int y = y0; y < Math.min(y0 + TILE, height); y++) {
+					for (int x = x0; x < Math.min(x0 + TILE, width); x++) {
+						// see computeRay()
+						ray.set((x + 0.5f - K.z()) / K.x(), -(y + 0.5f - K.w()) / K.y(), -1.0f);
+						Rt.transform(ray).normalize();
+
+						boolean onVoxel = tracer.trace(start.x, start.y, start.z, ray.x, ray.y, ray.z, hit);
+						if (hitsBox(start, ray)) {
+							tileInBox++;
+						}
+						tileIterations += hit.iterations;
+						if (onVoxel) {
+							tileValid++;
+							shade(hit, ray, normal, color);
+						} else if (ray.dot(sunDir) > 0.985f) {
+							color.set(sunLight).mul(100.0f);
+						} else {
+							skyRadiance(ray, color);
+						}
+						frame.rgb[x + y * width] = toRGB(color);
+					}
+				}
+			}
+			iterations.add(tileIterations);
+			validPixels.add(tileValid);
+			pixelsInBoundingBox.add(tileInBox);
+		});
+		frame.nanos = System.nanoTime() - begin;
+		frame.mainWindowIterationCount = iterations.sum();
+		frame.mainWindowValidPixels = validPixels.sum();
+		frame.mainWindowPixelsInBoundingBox = pixelsInBoundingBox.sum();
+		return frame;
+	}
+
+	/**
+	 * see rayVSbox() in definitions.glsl
+	 */
+	private boolean hitsBox(Vector3f start, Vector3f ray) {
+		float tmin = 0.0f, tmax = Float.POSITIVE_INFINITY;
+		float[] size = { data.width * 4, data.height * 4, data.depth * 4 };
+		for (int i = 0; i < 3; i++) {
+			float inv = 1.0f / ray.get(i);
+			float t1 = -start.get(i) * inv, t2 = (size[i] - start.get(i)) * inv;
+			tmin = Math.max(tmin, Math.min(t1, t2));
+			tmax = Math.min(tmax, Math.max(t1, t2));
+		}
+		return tmin <= tmax;
+	}
+
+	private void shade(RayHit hit, Vector3f ray, Vector3f normal, Vector3f color) {
+		int type = TerrainData.BLOCK_STONE;
+		if (data.block_ids != null) {
+			int tile_index = data.occupancy[data.tileIndex(hit.x >> 2, hit.y >> 2, hit.z >> 2)];
+			type = data.block_ids[data.atlasVoxelIndex(tile_index, hit.x & 3, hit.y & 3, hit.z & 3)];
+		}
+		// normal = -sign(ray) * last_step
+		normal.zero();
+		if (hit.last_step >= 0) {
+			normal.setComponent(hit.last_step, -Math.signum(ray.get(hit.last_step)));
+		}
+		float sun = Math.max(normal.dot(sunDir), 0.0f) * 0.01f;
+		if (sunVisibility != null && hit.last_step >= 0) {
+			int face = 2 * hit.last_step + (ray.get(hit.last_step) < 0 ? 1 : 0);
+			if (!sunVisibility.isVisible(hit.x, hit.y, hit.z, face)) {
+				sun = 0.0f;
+			}
+		}
+		skyRadiance(normal, color).mul(0.25f);
+		color.add(sunLight.x * sun, sunLight.y * sun, sunLight.z * sun).mul(BLOCKS[type].albedo());
+	}
+
+	/**
+	 * see getSkyRadiance() in render_common.glsl
+	 */
+	private Vector3f skyRadiance(Vector3f ray, Vector3f dest) {
+		float s1 = ray.dot(sunDir) * 0.5f + 0.5f;
+		float s2 = 1.0f - Math.abs(sunDir.y);
+		s2 = s2 * s2 * s2 * s2;
+		// lerp(lerp(c1, c3, s2), lerp(c0, c2, s2), s1)
+		return dest.set(SKY_C1).lerp(SKY_C3, s2).mul(1.0f - s1).fma(s1 * (1.0f - s2), SKY_C0).fma(s1 * s2, SKY_C2);
+	}
+
+	private int toRGB(Vector3f color) {
+		int rgb = 0;
+		for (int i = 0; i < 3; i++) {
+			float c = color.get(i);
+			c = c / (c + exposure); // tone mapping
+			c = (float) Math.pow(c, 1.0 / 2.2); // gamma correction
+			rgb = (rgb << 8) | Math.min(255, (int) (c * 255.0f + 0.5f));
+		}
+		return rgb;
+	}
+}
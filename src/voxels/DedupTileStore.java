@@ -0,0 +1,334 @@
+package voxels;
+
+import java.util.Arrays;
+
+/**
+ * Tile storage keeping each distinct tile content once: the occupancy mask of
+ * the tile (as in compressed_atlas) and the block types of its 64 voxels. The
+ * tiles are found by their coords in a TileDirectory, which maps them to the
+ * id of their content instead of an atlas index.
+ *
+ * The contents are interned through a hash table on the content itself, and
+ * counted by reference. A shared content is never modified: editing a tile
+ * interns its new content and releases the old one, whose id is recycled when
+ * no tile references it anymore. This is the first level of a voxel DAG, the
+ * leaves being the tiles.
+ */
+public class DedupTileStore {
+
+	private static final int EMPTY = -1;
+
+	public final TileDirectory directory; // tile coords -> content id
+
+	// contents, by id
+	private long[] masks;
+	private byte[] blocks; // 64 per content, in the order of TerrainData.voxelBit()
+	private int[] refCounts;
+	private int numContents = 0; // ids in use or recycled
+	private int[] freeIds = new int[16];
+	private int numFreeIds = 0;
+
+	private int[] table; // content ids by hash, EMPTY in the empty slots
+	private int tableMask;
+	private int uniqueContents = 0;
+
+	private final byte[] scratch = new byte[64];
+
+	public DedupTileStore(int width, int height, int depth, int expectedTiles) {
+		this.directory = new TileDirectory(width, height, depth, expectedTiles);
+		int capacity = 16;
+		masks = new long[capacity];
+		blocks = new byte[capacity * 64];
+		refCounts = new int[capacity];
+		allocateTable(64);
+	}
+
+	/**
+	 * Stores the allocated tiles of the given terrain, with their block types
+	 * if they were generated, and its fully solid tiles
+	 */
+	public static DedupTileStore build(TerrainData data) {
+		DedupTileStore store = new DedupTileStore(data.width, data.height, data.depth, data.numAllocatedTiles());
+		System.arraycopy(data.compressed_inside_terrain, 0, store.directory.compressed_inside_terrain, 0,
+				data.compressed_inside_terrain.length);
+		byte[] types = new byte[64];
+		for (int tile_index = 0; tile_index < data.maxTiles; tile_index++) {
+			if (data.tiles[tile_index * 4 + 3] == 0) {
+				continue;
+			}
+			if (data.block_ids != null) {
+				for (int z = 0; z < 4; z++) {
+					for (int y = 0; y < 4; y++) {
+						int row = data.atlasVoxelIndex(tile_index, 0, y, z);
+						for (int x = 0; x < 4; x++) {
+							types[TerrainData.voxelBit(x, y, z)] = data.block_ids[row + x];
+						}
+					}
+				}
+			}
+			store.put(data.tiles[tile_index * 4], data.tiles[tile_index * 4 + 1], data.tiles[tile_index * 4 + 2],
+					data.compressed_atlas[tile_index], types);
+		}
+		return store;
+	}
+
+	public int tiles() {
+		return directory.size();
+	}
+
+	public int uniqueContents() {
+		return uniqueContents;
+	}
+
+	/**
+	 * @return the number of tiles per stored content
+	 */
+	public double dedupRatio() {
+		return uniqueContents == 0 ? 1.0 : tiles() / (double) uniqueContents;
+	}
+
+	/**
+	 * @return the bytes used by the contents, the hash table and the directory
+	 */
+	public long memoryBytes() {
+		return (long) masks.length * (Long.BYTES + 64 + Integer.BYTES) + (long) table.length * Integer.BYTES
+				+ directory.memoryBytes();
+	}
+
+	/**
+	 * @return the content id of the given tile, or -1 if it is not stored
+	 */
+	public int contentId(int x, int y, int z) {
+		return directory.get(x, y, z);
+	}
+
+	/**
+	 * @return the number of tiles sharing the given content
+	 */
+	public int refCount(int id) {
+		return refCounts[id];
+	}
+
+	/**
+	 * @return the occupancy mask of the given tile, 0 if it is not stored
+	 */
+	public long mask(int x, int y, int z) {
+		int id = directory.get(x, y, z);
+		return id < 0 ? 0L : masks[id];
+	}
+
+	/**
+	 * @return the block type of the given voxel of the given tile
+	 */
+	public int block(int x, int y, int z, int lx, int ly, int lz) {
+		int id = directory.get(x, y, z);
+		return id < 0 ? TerrainData.BLOCK_AIR : blocks[id * 64 + TerrainData.voxelBit(lx, ly, lz)] & 0xFF;
+	}
+
+	/**
+	 * Sets the content of the given tile
+	 *
+	 * @param types the 64 block types, in the order of TerrainData.voxelBit()
+	 */
+	public void put(int x, int y, int z, long mask, byte[] types) {
+		put(x, y, z, mask, types, 0);
+	}
+
+	private void put(int x, int y, int z, long mask, byte[] types, int offset) {
+		int id = intern(mask, types, offset);
+		int old = directory.get(x, y, z);
+		directory.put(x, y, z, id);
+		if (old >= 0) {
+			release(old);
+		}
+	}
+
+	/**
+	 * Removes the given tile
+	 */
+	public void remove(int x, int y, int z) {
+		int old = directory.remove(x, y, z);
+		if (old >= 0) {
+			release(old);
+		}
+	}
+
+	/**
+	 * Changes one voxel of the given tile, copying its content if it is
+	 * shared with other tiles
+	 */
+	public void setVoxel(int x, int y, int z, int lx, int ly, int lz, boolean solid, int type) {
+		int id = directory.get(x, y, z);
+		if (id < 0) {
+			throw new IllegalArgumentException("The tile " + x + ", " + y + ", " + z + " is not stored");
+		}
+		int bit = TerrainData.voxelBit(lx, ly, lz);
+		long mask = solid ? masks[id] | (1L << bit) : masks[id] & ~(1L << bit);
+		System.arraycopy(blocks, id * 64, scratch, 0, 64);
+		scratch[bit] = (byte) type;
+		put(x, y, z, mask, scratch);
+	}
+
+	/**
+	 * Places the given prefab with its lowest corner on the given voxel. The
+	 * tiles of the prefab replace the empty tiles of the store and share their
+	 * content with the other placements. In the tiles already stored and in
+	 * the fully solid tiles, stored from then on as stone, the solid voxels of
+	 * the prefab replace the existing ones. The tiles outside the world are
+	 * skipped.
+	 *
+	 * @return the number of tiles written
+	 */
+	public int place(Prefab prefab, int x, int y, int z) {
+		Prefab p = prefab.shifted(x & 3, y & 3, z & 3);
+		int x0 = x >> 2, y0 = y >> 2, z0 = z >> 2;
+		int written = 0;
+		for (int tz = 0; tz < p.depth; tz++) {
+			for (int ty = 0; ty < p.height; ty++) {
+				for (int tx = 0; tx < p.width; tx++) {
+					int tile = p.tileIndex(tx, ty, tz);
+					long mask = p.masks[tile];
+					int wx = x0 + tx, wy = y0 + ty, wz = z0 + tz;
+					if (mask == 0 || wx < 0 || wy < 0 || wz < 0 || wx >= directory.width || wy >= directory.height
+							|| wz >= directory.depth) {
+						continue;
+					}
+					int old = directory.get(wx, wy, wz);
+					if (old < 0 && clearSolid(wx, wy, wz)) {
+						// a fully solid tile becomes a stored tile of stone
+						Arrays.fill(scratch, TerrainData.BLOCK_STONE);
+						for (long m = mask; m != 0; m &= m - 1) {
+							int bit = Long.numberOfTrailingZeros(m);
+							scratch[bit] = p.blocks[tile * 64 + bit];
+						}
+						put(wx, wy, wz, -1L, scratch);
+					} else if (old < 0) {
+						put(wx, wy, wz, mask, p.blocks, tile * 64);
+					} else {
+						System.arraycopy(blocks, old * 64, scratch, 0, 64);
+						for (long m = mask; m != 0; m &= m - 1) {
+							int bit = Long.numberOfTrailingZeros(m);
+							scratch[bit] = p.blocks[tile * 64 + bit];
+						}
+						put(wx, wy, wz, masks[old] | mask, scratch);
+					}
+					written++;
+				}
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Clears the fully solid bit of the given tile
+	 *
+	 * @return true if the tile was fully solid
+	 */
+	private boolean clearSolid(int x, int y, int z) {
+		int super_tile = (x >> 2) + (directory.width / 4) * ((y >> 2) + (directory.height / 4) * (z >> 2));
+		long bit = 1L << TerrainData.superTileBit(x, y, z);
+		boolean solid = (directory.compressed_inside_terrain[super_tile] & bit) != 0;
+		directory.compressed_inside_terrain[super_tile] &= ~bit;
+		return solid;
+	}
+
+	private static int hash(long mask, byte[] types, int offset) {
+		long h = mask * 0x9E3779B97F4A7C15L;
+		for (int i = 0; i < 64; i += 8) {
+			long word = 0;
+			for (int j = 0; j < 8; j++) {
+				word |= (types[offset + i + j] & 0xFFL) << (8 * j);
+			}
+			h = (h ^ word) * 0xBF58476D1CE4E5B9L;
+		}
+		h ^= h >>> 31;
+		return (int) h;
+	}
+
+	private boolean equals(int id, long mask, byte[] types, int offset) {
+		return masks[id] == mask && Arrays.equals(blocks, id * 64, id * 64 + 64, types, offset, offset + 64);
+	}
+
+	/**
+	 * @return the id of the given content, adding a reference to it
+	 */
+	private int intern(long mask, byte[] types, int offset) {
+		int slot = hash(mask, types, offset) & tableMask;
+		while (table[slot] != EMPTY) {
+			int id = table[slot];
+			if (equals(id, mask, types, offset)) {
+				refCounts[id]++;
+				return id;
+			}
+			slot = (slot + 1) & tableMask;
+		}
+
+		int id = newId();
+		masks[id] = mask;
+		System.arraycopy(types, offset, blocks, id * 64, 64);
+		refCounts[id] = 1;
+		table[slot] = id;
+		uniqueContents++;
+		if (4L * uniqueContents > 3L * table.length) {
+			allocateTable(table.length * 2);
+		}
+		return id;
+	}
+
+	private int newId() {
+		if (numFreeIds > 0) {
+			return freeIds[--numFreeIds];
+		}
+		if (numContents == masks.length) {
+			int capacity = masks.length * 2;
+			masks = Arrays.copyOf(masks, capacity);
+			blocks = Arrays.copyOf(blocks, capacity * 64);
+			refCounts = Arrays.copyOf(refCounts, capacity);
+		}
+		return numContents++;
+	}
+
+	private void release(int id) {
+		if (--refCounts[id] > 0) {
+			return;
+		}
+
+		// remove the content from the table, shifting back its probe sequence
+		int hole = hash(masks[id], blocks, id * 64) & tableMask;
+		while (table[hole] != id) {
+			hole = (hole + 1) & tableMask;
+		}
+		int next = (hole + 1) & tableMask;
+		while (table[next] != EMPTY) {
+			int other = table[next];
+			int home = hash(masks[other], blocks, other * 64) & tableMask;
+			if (((next - home) & tableMask) >= ((next - hole) & tableMask)) {
+				table[hole] = other;
+				hole = next;
+			}
+			next = (next + 1) & tableMask;
+		}
+		table[hole] = EMPTY;
+		uniqueContents--;
+
+		if (numFreeIds == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+		}
+		freeIds[numFreeIds++] = id;
+	}
+
+	private void allocateTable(int capacity) {
+		table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+		tableMask = capacity - 1;
+		for (int id = 0; id < numContents; id++) {
+			if (refCounts[id] > 0) {
+				int slot = hash(masks[id], blocks, id * 64) & tableMask;
+				while (table[slot] != EMPTY) {
+					slot = (slot + 1) & tableMask;
+				}
+				table[slot] = id;
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package voxels;
+
+/**
+ * Densities of the voxels read by the classification of one row of super
+ * tiles of TerrainGenerator: 16 voxels in y and z plus the borders of the
+ * 6x6x6 cubes, all the voxels in x. Each density is computed once and shared
+ * by all the tiles reading it.
+ *
+ * The densities are kept as 6 planes of constant z, the planes read by one
+ * layer of tiles. When the next layer is prepared, the 2 planes it shares with
+ * the previous one are kept and the 4 others are evicted, their memory being
+ * reused: the memory is bounded by 6 planes whatever the size of the world.
+ * Only the borders between rows are computed twice.
+ */
+final class DensityCache {
+
+	interface Source {
+		float density(int x, int y, int z);
+	}
+
+	private static final int PLANES = 6;
+
+	private final Source source;
+	private final int sizeX; // voxels in x, with the borders
+	private final int sizeY; // voxels in y, with the borders
+	private final float[][] planes = new float[PLANES][];
+	private final int[] planeZ = new int[PLANES]; // z of the plane held by each slot
+
+	private int y0; // y of the first voxel of the planes
+
+	long requests = 0; // densities read
+	long evaluations = 0; // densities computed
+
+	DensityCache(Source source, int width) {
+		this.source = source;
+		this.sizeX = width * 4 + 2;
+		this.sizeY = 4 * 4 + 2;
+		for (int i = 0; i < PLANES; i++) {
+			planes[i] = new float[sizeX * sizeY];
+		}
+	}
+
+	/**
+	 * Evicts everything, the next planes are those of the row of super tiles
+	 * at height cy
+	 */
+	void beginRow(int cy) {
+		y0 = cy * 16 - 1;
+		for (int i = 0; i < PLANES; i++) {
+			planeZ[i] = Integer.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Loads the planes read by the layer of tiles tz of the current row
+	 */
+	void prepareLayer(int tz) {
+		for (int z = tz * 4 - 1; z <= tz * 4 + 4; z++) {
+			int slot = Math.floorMod(z, PLANES);
+			if (planeZ[slot] == z) {
+				continue; // shared with the previous layer
+			}
+			float[] plane = planes[slot];
+			for (int y = 0; y < sizeY; y++) {
+				for (int x = 0; x < sizeX; x++) {
+					plane[y * sizeX + x] = source.density(x - 1, y0 + y, z);
+				}
+			}
+			planeZ[slot] = z;
+			evaluations += sizeX * sizeY;
+		}
+	}
+
+	/**
+	 * Density of the given voxel, which must be read by the current layer
+	 */
+	float density(int x, int y, int z) {
+		requests++;
+		return planes[Math.floorMod(z, PLANES)][(y - y0) * sizeX + x + 1];
+	}
+}
@@ -0,0 +1,144 @@
+package voxels;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import utils.Noise3D;
+
+/**
+ * Compiles a density graph to a class: the graph is emitted as Java source,
+ * compiled in memory and defined as a hidden class of this package, so that
+ * it can use the classes of the module without any export.
+ *
+ * The classes are cached by their source: the noises are given to the
+ * constructor, so the graphs of the same shape over other noises of the same
+ * size, as the terrain of every TerrainGenerator, are compiled once.
+ */
+final class DensityCompiler {
+
+	private static final String NAME = "GeneratedDensity";
+	private static final AtomicInteger classes = new AtomicInteger();
+	private static final Map<String, MethodHandle> constructors = new ConcurrentHashMap<>(); // by source
+
+	private DensityCompiler() {
+	}
+
+	static Supplier<DensityFunction.Sampler> compile(DensityFunction function) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			System.out.println("No Java compiler at runtime, the density graph is not compiled");
+			return () -> function::evaluate;
+		}
+
+		DensityFunction.Code code = new DensityFunction.Code(false);
+		String result = function.emit(code, "x", "y", "z");
+
+		String source = generateSource(NAME, code, result);
+		final MethodHandle constructor = constructors.computeIfAbsent(source, k -> {
+			String name = NAME + classes.getAndIncrement();
+			byte[] bytes = compile(compiler, name, generateSource(name, code, result));
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+				return lookup.findConstructor(lookup.lookupClass(),
+						MethodType.methodType(void.class, Noise3D[].class));
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		final Noise3D[] noises = code.noises.toArray(new Noise3D[0]);
+		return () -> {
+			try {
+				return (DensityFunction.Sampler) constructor.invoke(noises);
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		};
+	}
+
+	private static String generateSource(String name, DensityFunction.Code code, String result) {
+		StringBuilder source = new StringBuilder();
+		source.append("package voxels;\n\n");
+		source.append("final class ").append(name).append(" implements DensityFunction.Sampler {\n");
+		for (int i = 0; i < code.noises.size(); i++) {
+			source.append("\tprivate final utils.Noise3D n").append(i).append(";\n");
+		}
+		for (int i = 0; i < code.scratches; i++) {
+			source.append("\tprivate final org.joml.Vector4f s").append(i).append(" = new org.joml.Vector4f();\n");
+		}
+		source.append("\n\t").append(name).append("(utils.Noise3D[] noises) {\n");
+		for (int i = 0; i < code.noises.size(); i++) {
+			source.append("\t\tn").append(i).append(" = noises[").append(i).append("];\n");
+		}
+		source.append("\t}\n\n");
+		source.append("\tpublic float density(float x, float y, float z) {\n");
+		source.append(code.body.toString().replace("\n\t", "\n\t\t").replaceFirst("^\t", "\t\t"));
+		source.append("\t\treturn ").append(result).append(";\n");
+		source.append("\t}\n");
+		source.append("}\n");
+		return source.toString();
+	}
+
+	private static byte[] compile(JavaCompiler compiler, String name, String source) {
+		// the module path is added to the class path: the generated class is
+		// compiled as if it was in the unnamed module, then defined in this one
+		String classPath = System.getProperty("java.class.path", "");
+		String modulePath = System.getProperty("jdk.module.path");
+		if (modulePath != null && !modulePath.isEmpty()) {
+			classPath = classPath.isEmpty() ? modulePath : classPath + File.pathSeparator + modulePath;
+		}
+
+		JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///voxels/" + name + ".java"),
+				JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, null, null);
+		JavaFileManager manager = new ForwardingJavaFileManager<JavaFileManager>(standardManager) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+					FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + ".class"),
+						kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						return bytes;
+					}
+				};
+			}
+		};
+
+		List<String> options = List.of("-classpath", classPath, "-proc:none", "-g:none");
+		boolean success = compiler.getTask(null, manager, diagnostics, options, null, List.of(sourceFile)).call();
+		if (!success) {
+			throw new IllegalStateException("The density graph does not compile:\n" + source + "\n"
+					+ diagnostics.getDiagnostics());
+		}
+		return bytes.toByteArray();
+	}
+}
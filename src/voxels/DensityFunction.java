@@ -0,0 +1,550 @@
+package voxels;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.joml.Vector4f;
+
+import utils.Noise3D;
+
+/**
+ * Graph of density functions of the terrain. A graph is built with the static
+ * factories and the combinators, then:
+ * <ul>
+ * <li>compile() turns it into one generated Java class, evaluating the whole
+ * graph as straight-line code without any call per node</li>
+ * <li>toGLSL() emits the same code as a GLSL function for the GPU</li>
+ * </ul>
+ * Both are emitted by the same nodes with the same floating point operations
+ * in the same order, so the CPU and the GPU terrains stay in sync.
+ *
+ * The noises are sampled with Noise3D.catmullRomSampling() on the CPU and
+ * cubicLerpTex() of generation.glsl on the GPU, each Noise3D being bound to a
+ * texture handle uniform in GLSL.
+ */
+public abstract class DensityFunction {
+
+	/**
+	 * A compiled graph. It owns scratch vectors, so each thread needs its own.
+	 */
+	public interface Sampler {
+		float density(float x, float y, float z);
+	}
+
+	/**
+	 * Slow evaluation of the graph, walking the nodes
+	 */
+	public abstract float evaluate(float x, float y, float z);
+
+	/**
+	 * Emits the code computing this node at (x, y, z)
+	 *
+	 * @return the expression of the result, a variable or a literal
+	 */
+	abstract String emitNode(Code code, String x, String y, String z);
+
+	final String emit(Code code, String x, String y, String z) {
+		// a node used several times at the same coordinates is computed once
+		Map<String, String> results = code.emitted.computeIfAbsent(this, k -> new HashMap<>());
+		String key = x + "," + y + "," + z;
+		String result = results.get(key);
+		if (result == null) {
+			result = emitNode(code, x, y, z);
+			if (!result.matches("[a-z]\\w*|\\(?-?[0-9.E\\-]+f\\)?")) {
+				String variable = code.variable();
+				code.line("float " + variable + " = " + result + ";");
+				result = variable;
+			}
+			results.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Generates, compiles and loads the class evaluating this graph, or falls
+	 * back to evaluate() if no Java compiler is available at runtime.
+	 *
+	 * @return a factory of samplers, one per thread
+	 */
+	public Supplier<Sampler> compile() {
+		return DensityCompiler.compile(this);
+	}
+
+	/**
+	 * @return the GLSL source of "float functionName(float x, float y, float
+	 *         z)" and of the uniforms of the noise textures it samples. It must
+	 *         be included after cubicLerpTex(), see generation.glsl.
+	 */
+	public String toGLSL(String functionName) {
+		Code code = new Code(true);
+		String result = emit(code, "x", "y", "z");
+
+		StringBuilder source = new StringBuilder();
+		source.append("// generated by DensityFunction.toGLSL()\n\n");
+		for (String sampler : code.samplers) {
+			source.append("uniform uint64_t ").append(sampler).append(";\n");
+		}
+		source.append("\nfloat ").append(functionName).append("(float x, float y, float z) {\n");
+		source.append(code.body);
+		source.append("\treturn ").append(result).append(";\n");
+		source.append("}\n");
+		return source.toString();
+	}
+
+	public static DensityFunction constant(float value) {
+		return new Constant(value);
+	}
+
+	/**
+	 * slope * y + offset
+	 */
+	public static DensityFunction yGradient(float slope, float offset) {
+		return new YGradient(slope, offset);
+	}
+
+	/**
+	 * Tricubic noise of the first channel, at (x, y, z) * frequency in texture
+	 * coordinates, the noise repeats every 1 / frequency units.
+	 *
+	 * @param sampler the uniform holding the handle of the texture of the noise
+	 *                in GLSL
+	 */
+	public static DensityFunction noise(Noise3D noise, String sampler, float frequency) {
+		return new NoiseNode(noise, sampler, frequency);
+	}
+
+	/**
+	 * Fractal sum of octaves of the noise, each octave dividing the amplitude
+	 * by amplitudeDivisor and multiplying the frequency by lacunarity.
+	 */
+	public static DensityFunction fbm(Noise3D noise, String sampler, int octaves, float amplitude, float frequency,
+			float amplitudeDivisor, float lacunarity) {
+		return fbm(constant(0.0f), noise, sampler, octaves, amplitude, frequency, amplitudeDivisor, lacunarity);
+	}
+
+	/**
+	 * fbm() added to base one octave after the other, base being evaluated at
+	 * the unwarped coordinates. This is not base.add(fbm(...)), which rounds the
+	 * sum of the octaves before adding base.
+	 */
+	public static DensityFunction fbm(DensityFunction base, Noise3D noise, String sampler, int octaves,
+			float amplitude, float frequency, float amplitudeDivisor, float lacunarity) {
+		return new Fbm(base, noise, sampler, octaves, amplitude, frequency, amplitudeDivisor, lacunarity, false,
+				0.0f);
+	}
+
+	/**
+	 * fbm() of the absolute value of the noise, where each octave also warps the
+	 * coordinates of the next ones by its last 3 channels, scaled by the
+	 * amplitude of the next octave and by warp. The noise must have 4 channels.
+	 * With warp = 0, this is a ridged fbm.
+	 */
+	public static DensityFunction warpedRidgedFbm(Noise3D noise, String sampler, int octaves, float amplitude,
+			float frequency, float amplitudeDivisor, float lacunarity, float warp) {
+		return warpedRidgedFbm(constant(0.0f), noise, sampler, octaves, amplitude, frequency, amplitudeDivisor,
+				lacunarity, warp);
+	}
+
+	/**
+	 * warpedRidgedFbm() added to base one octave after the other, as the loop of
+	 * generateDensity() adds them to the gradient, see fbm(base, ...)
+	 */
+	public static DensityFunction warpedRidgedFbm(DensityFunction base, Noise3D noise, String sampler, int octaves,
+			float amplitude, float frequency, float amplitudeDivisor, float lacunarity, float warp) {
+		return new Fbm(base, noise, sampler, octaves, amplitude, frequency, amplitudeDivisor, lacunarity, true,
+				warp);
+	}
+
+	/**
+	 * Evaluates input at (x, y, z) + strength * the last 3 channels of the
+	 * noise at (x, y, z) * frequency. The noise must have 4 channels.
+	 */
+	public static DensityFunction warp(DensityFunction input, Noise3D noise, String sampler, float frequency,
+			float strength) {
+		return new Warp(input, noise, sampler, frequency, strength);
+	}
+
+	public DensityFunction add(DensityFunction other) {
+		return new Add(this, other);
+	}
+
+	public DensityFunction add(float value) {
+		return new Add(this, constant(value));
+	}
+
+	public DensityFunction mul(DensityFunction other) {
+		return new Mul(this, other);
+	}
+
+	public DensityFunction mul(float value) {
+		return new Mul(this, constant(value));
+	}
+
+	public DensityFunction clamp(float min, float max) {
+		return new Clamp(this, min, max);
+	}
+
+	/**
+	 * Source code being emitted, in Java or in GLSL. The float expressions have
+	 * the same syntax in both languages, only the calls differ.
+	 */
+	static final class Code {
+		final boolean glsl;
+		final StringBuilder body = new StringBuilder();
+
+		final List<Noise3D> noises = new ArrayList<>(); // Java: the fields n0, n1, ...
+		final List<String> samplers = new ArrayList<>(); // GLSL: the texture handle uniforms
+		int scratches = 0; // Java: the Vector4f fields s0, s1, ...
+
+		private int variables = 0;
+		private final Map<DensityFunction, Map<String, String>> emitted = new IdentityHashMap<>();
+
+		Code(boolean glsl) {
+			this.glsl = glsl;
+		}
+
+		String variable() {
+			return "v" + variables++;
+		}
+
+		void line(String line) {
+			body.append('\t').append(line).append('\n');
+		}
+
+		String literal(float value) {
+			if (!Float.isFinite(value)) {
+				throw new IllegalArgumentException("The density graph holds a non finite constant: " + value);
+			}
+			// the shortest decimal representation reads back as the same float
+			String literal = Float.toString(value) + "f";
+			return value < 0.0f ? "(" + literal + ")" : literal;
+		}
+
+		String abs(String e) {
+			return (glsl ? "abs(" : "Math.abs(") + e + ")";
+		}
+
+		String clamp(String e, float min, float max) {
+			if (glsl) {
+				return "clamp(" + e + ", " + literal(min) + ", " + literal(max) + ")";
+			}
+			return "Math.min(Math.max(" + e + ", " + literal(min) + "), " + literal(max) + ")";
+		}
+
+		/**
+		 * @return the expression of the first channel of the noise at (x, y, z) *
+		 *         frequency
+		 */
+		String sample(Noise3D noise, String sampler, String x, String y, String z, float frequency) {
+			String f = literal(frequency);
+			if (glsl) {
+				addSampler(sampler);
+				return "cubicLerpTex(sampler3D(" + sampler + "), vec3(" + x + ", " + y + ", " + z + ") * " + f
+						+ ").x";
+			}
+			return noiseField(noise) + ".catmullRomSampling(" + x + " * " + f + ", " + y + " * " + f + ", " + z
+					+ " * " + f + ", 1.0f, " + literal(noise.getSize()) + ")";
+		}
+
+		/**
+		 * Declares a vec4 holding the 4 channels of the noise at (x, y, z) *
+		 * frequency
+		 *
+		 * @return its name
+		 */
+		String sample4(Noise3D noise, String sampler, String x, String y, String z, float frequency) {
+			String f = literal(frequency);
+			if (glsl) {
+				addSampler(sampler);
+				String variable = variable();
+				line("vec4 " + variable + " = cubicLerpTex(sampler3D(" + sampler + "), vec3(" + x + ", " + y + ", "
+						+ z + ") * " + f + ");");
+				return variable;
+			}
+			String scratch = "s" + scratches++;
+			line(noiseField(noise) + ".catmullRomSampling(" + x + " * " + f + ", " + y + " * " + f + ", " + z
+					+ " * " + f + ", 1.0f, " + literal(noise.getSize()) + ", " + scratch + ");");
+			return scratch;
+		}
+
+		private void addSampler(String sampler) {
+			if (!samplers.contains(sampler)) {
+				samplers.add(sampler);
+			}
+		}
+
+		private String noiseField(Noise3D noise) {
+			for (int i = 0; i < noises.size(); i++) {
+				if (noises.get(i) == noise) {
+					return "n" + i;
+				}
+			}
+			noises.add(noise);
+			return "n" + (noises.size() - 1);
+		}
+	}
+
+	private static void checkChannels(Noise3D noise) {
+		if (noise.getChannels() < 4) {
+			throw new IllegalArgumentException("The warp needs a noise with 4 channels: " + noise.getChannels());
+		}
+	}
+
+	private static class Constant extends DensityFunction {
+		final float value;
+
+		Constant(float value) {
+			this.value = value;
+		}
+
+		@Override
+		public float evaluate(float x, float y, float z) {
+			return value;
+		}
+
+		@Override
+		String emitNode(Code code, String x, String y, String z) {
+			return code.literal(value);
+		}
+	}
+
+	private static class YGradient extends DensityFunction {
+		final float slope;
+		final float offset;
+
+		YGradient(float slope, float offset) {
+			this.slope = slope;
+			this.offset = offset;
+		}
+
+		@Override
+		public float evaluate(float x, float y, float z) {
+			return y * slope + offset;
+		}
+
+		@Override
+		String emitNode(Code code, String x, String y, String z) {
+			return y + " * " + code.literal(slope) + " + " + code.literal(offset);
+		}
+	}
+
+	private static class NoiseNode extends DensityFunction {
+		final Noise3D noise;
+		final String sampler;
+		final float frequency;
+
+		NoiseNode(Noise3D noise, String sampler, float frequency) {
+			this.noise = noise;
+			this.sampler = sampler;
+			this.frequency = frequency;
+		}
+
+		@Override
+		public float evaluate(float x, float y, float z) {
+			return noise.catmullRomSampling(x * frequency, y * frequency, z * frequency, 1.0f, noise.getSize());
+		}
+
+		@Override
+		String emitNode(Code code, String x, String y, String z) {
+			return code.sample(noise, sampler, x, y, z, frequency);
+		}
+	}
+
+	private static class Fbm extends DensityFunction {
+		final DensityFunction base;
+		final Noise3D noise;
+		final String sampler;
+		final boolean ridged;
+		final float warp;
+
+		// per octave, computed once with the same operations as the loop of
+		// generateDensity() in generation.glsl
+		final float[] amplitudes;
+		final float[] frequencies;
+		final float[] warpAmplitudes; // the amplitude of the next octave
+
+		Fbm(DensityFunction base, Noise3D noise, String sampler, int octaves, float amplitude, float frequency,
+				float amplitudeDivisor, float lacunarity, boolean ridged, float warp) {
+			if (warp != 0.0f) {
+				checkChannels(noise);
+			}
+			this.base = base;
+			this.noise = noise;
+			this.sampler = sampler;
+			this.ridged = ridged;
+			this.warp = warp;
+
+			amplitudes = new float[octaves];
+			frequencies = new float[octaves];
+			warpAmplitudes = new float[octaves];
+			for (int i = 0; i < octaves; i++) {
+				amplitudes[i] = amplitude;
+				frequencies[i] = frequency;
+				amplitude /= amplitudeDivisor;
+				frequency *= lacunarity;
+				warpAmplitudes[i] = amplitude;
+			}
+		}
+
+		@Override
+		public float evaluate(float x, float y, float z) {
+			Vector4f f = new Vector4f();
+			float sum = base.evaluate(x, y, z);
+			for (int i = 0; i < amplitudes.length; i++) {
+				float frequency = frequencies[i];
+				float value;
+				if (warp != 0.0f) {
+					noise.catmullRomSampling(x * frequency, y * frequency, z * frequency, 1.0f, noise.getSize(), f);
+					value = f.x;
+				} else {
+					value = noise.catmullRomSampling(x * frequency, y * frequency, z * frequency, 1.0f,
+							noise.getSize());
+				}
+				sum += amplitudes[i] * (ridged ? Math.abs(value) : value);
+				if (warp != 0.0f) {
+					// c += f.yzw * amplitude * warp
+					x += f.y * warpAmplitudes[i] * warp;
+					y += f.z * warpAmplitudes[i] * warp;
+					z += f.w * warpAmplitudes[i] * warp;
+				}
+			}
+			return sum;
+		}
+
+		@Override
+		String emitNode(Code code, String x, String y, String z) {
+			String sum = code.variable();
+			code.line("float " + sum + " = " + base.emit(code, x, y, z) + ";");
+			if (warp != 0.0f) {
+				// the warped coordinates
+				String wx = code.variable(), wy = code.variable(), wz = code.variable();
+				code.line("float " + wx + " = " + x + ";");
+				code.line("float " + wy + " = " + y + ";");
+				code.line("float " + wz + " = " + z + ";");
+				x = wx;
+				y = wy;
+				z = wz;
+			}
+			for (int i = 0; i < amplitudes.length; i++) {
+				String value;
+				String f = null;
+				if (warp != 0.0f) {
+					f = code.sample4(noise, sampler, x, y, z, frequencies[i]);
+					value = f + ".x";
+				} else {
+					value = code.sample(noise, sampler, x, y, z, frequencies[i]);
+				}
+				code.line(sum + " += " + code.literal(amplitudes[i]) + " * " + (ridged ? code.abs(value) : value)
+						+ ";");
+				if (warp != 0.0f) {
+					String w = code.literal(warpAmplitudes[i]) + " * " + code.literal(warp);
+					code.line(x + " += " + f + ".y * " + w + ";");
+					code.line(y + " += " + f + ".z * " + w + ";");
+					code.line(z + " += " + f + ".w * " + w + ";");
+				}
+			}
+			return sum;
+		}
+	}
+
+	private static class Warp extends DensityFunction {
+		final DensityFunction input;
+		final Noise3D noise;
+		final String sampler;
+		final float frequency;
+		final float strength;
+
+		Warp(DensityFunction input, Noise3D noise, String sampler, float frequency, float strength) {
+			checkChannels(noise);
+			this.input = input;
+			this.noise = noise;
+			this.sampler = sampler;
+			this.frequency = frequency;
+			this.strength = strength;
+		}
+
+		@Override
+		public float evaluate(float x, float y, float z) {
+			Vector4f f = noise.catmullRomSampling(x * frequency, y * frequency, z * frequency, 1.0f, noise.getSize(),
+					new Vector4f());
+			return input.evaluate(x + f.y * strength, y + f.z * strength, z + f.w * strength);
+		}
+
+		@Override
+		String emitNode(Code code, String x, String y, String z) {
+			String f = code.sample4(noise, sampler, x, y, z, frequency);
+			String s = code.literal(strength);
+			String wx = code.variable(), wy = code.variable(), wz = code.variable();
+			code.line("float " + wx + " = " + x + " + " + f + ".y * " + s + ";");
+			code.line("float " + wy + " = " + y + " + " + f + ".z * " + s + ";");
+			code.line("float " + wz + " = " + z + " + " + f + ".w * " + s + ";");
+			return input.emit(code, wx, wy, wz);
+		}
+	}
+
+	private static class Add extends DensityFunction {
+		final DensityFunction a;
+		final DensityFunction b;
+
+		Add(DensityFunction a, DensityFunction b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public float evaluate(float x, float y, float z) {
+			return a.evaluate(x, y, z) + b.evaluate(x, y, z);
+		}
+
+		@Override
+		String emitNode(Code code, String x, String y, String z) {
+			return a.emit(code, x, y, z) + " + " + b.emit(code, x, y, z);
+		}
+	}
+
+	private static class Mul extends DensityFunction {
+		final DensityFunction a;
+		final DensityFunction b;
+
+		Mul(DensityFunction a, DensityFunction b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public float evaluate(float x, float y, float z) {
+			return a.evaluate(x, y, z) * b.evaluate(x, y, z);
+		}
+
+		@Override
+		String emitNode(Code code, String x, String y, String z) {
+			return a.emit(code, x, y, z) + " * " + b.emit(code, x, y, z);
+		}
+	}
+
+	private static class Clamp extends DensityFunction {
+		final DensityFunction input;
+		final float min;
+		final float max;
+
+		Clamp(DensityFunction input, float min, float max) {
+			this.input = input;
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public float evaluate(float x, float y, float z) {
+			return Math.min(Math.max(input.evaluate(x, y, z), min), max);
+		}
+
+		@Override
+		String emitNode(Code code, String x, String y, String z) {
+			return code.clamp(input.emit(code, x, y, z), min, max);
+		}
+	}
+}
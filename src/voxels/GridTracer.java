@@ -0,0 +1,118 @@
+package voxels;
+
+/**
+ * The DDA of trace() in render_common.glsl, shared by the CPU traversals: the
+ * ray is mirrored to go towards +x, +y, +z, clipped to the box of the terrain,
+ * then moves from cell to cell, skip() giving the empty cells ahead of each
+ * voxel.
+ */
+public abstract class GridTracer implements VoxelTracer {
+
+	public static final int MAX_ITERATIONS = 500; // as in trace()
+	static final float EPS = 1.0E-2f;
+
+	protected final int W, H, D; // size of the box, in voxels
+	protected final int MW, MH, MD; // the coords are mirrored around these sizes
+
+	protected GridTracer(int width, int height, int depth) {
+		this(width, height, depth, width, height, depth);
+	}
+
+	/**
+	 * @param mirrorWidth, mirrorHeight, mirrorDepth at least the size of the box,
+	 *                     so that the cells of skip() are aligned in mirrored
+	 *                     coords
+	 */
+	protected GridTracer(int width, int height, int depth, int mirrorWidth, int mirrorHeight, int mirrorDepth) {
+		this.W = width;
+		this.H = height;
+		this.D = depth;
+		this.MW = mirrorWidth;
+		this.MH = mirrorHeight;
+		this.MD = mirrorDepth;
+	}
+
+	/**
+	 * see testOccupancy() in render_common.glsl
+	 *
+	 * @return 0 for a solid voxel, else the empty cells ahead of the ray, see
+	 *         jump()
+	 */
+	protected abstract int skip(int x, int y, int z);
+
+	/**
+	 * The ray moves to the n-th boundary after it of the cells of 2^size_log2
+	 * voxels, in mirrored coords
+	 */
+	protected static int jump(int n, int size_log2) {
+		return n << 5 | size_log2;
+	}
+
+	public boolean trace(float startX, float startY, float startZ, float rayX, float rayY, float rayZ, RayHit hit) {
+		boolean mx = rayX < 0, my = rayY < 0, mz = rayZ < 0;
+		float ax = Math.abs(rayX), ay = Math.abs(rayY), az = Math.abs(rayZ);
+		float ix = 1.0f / ax, iy = 1.0f / ay, iz = 1.0f / az;
+		// mirror the start so that the ray goes towards +x, +y, +z
+		float sx = mx ? MW - startX : startX;
+		float sy = my ? MH - startY : startY;
+		float sz = mz ? MD - startZ : startZ;
+
+		// clip the ray to the box of the terrain
+		float x0 = mx ? MW - W : 0, y0 = my ? MH - H : 0, z0 = mz ? MD - D : 0;
+		float tmin = 0.0f, tmax = Float.POSITIVE_INFINITY;
+		tmin = Math.max(tmin, Math.min((x0 - sx) * ix, (x0 + W - sx) * ix));
+		tmax = Math.min(tmax, Math.max((x0 - sx) * ix, (x0 + W - sx) * ix));
+		tmin = Math.max(tmin, Math.min((y0 - sy) * iy, (y0 + H - sy) * iy));
+		tmax = Math.min(tmax, Math.max((y0 - sy) * iy, (y0 + H - sy) * iy));
+		tmin = Math.max(tmin, Math.min((z0 - sz) * iz, (z0 + D - sz) * iz));
+		tmax = Math.min(tmax, Math.max((z0 - sz) * iz, (z0 + D - sz) * iz));
+
+		hit.t = Float.POSITIVE_INFINITY;
+		hit.iterations = 0;
+		hit.last_step = -1;
+		if (tmin > tmax) {
+			return false;
+		}
+
+		float t = tmin + EPS;
+		int cx = (int) (sx + ax * t), cy = (int) (sy + ay * t), cz = (int) (sz + az * t);
+		return march(sx, sy, sz, rayX, rayY, rayZ, t, tmax - EPS, cx, cy, cz, hit);
+	}
+
+	/**
+	 * The loop of trace(), from the given state of the ray
+	 *
+	 * @param sx, sy, sz the mirrored start
+	 * @param cx, cy, cz the mirrored voxel at t
+	 */
+	final boolean march(float sx, float sy, float sz, float rayX, float rayY, float rayZ, float t, float tEnd, int cx,
+			int cy, int cz, RayHit hit) {
+		boolean mx = rayX < 0, my = rayY < 0, mz = rayZ < 0;
+		float ax = Math.abs(rayX), ay = Math.abs(rayY), az = Math.abs(rayZ);
+		float ix = 1.0f / ax, iy = 1.0f / ay, iz = 1.0f / az;
+		while (t < tEnd && hit.iterations < MAX_ITERATIONS) {
+			int x = mx ? MW - 1 - cx : cx, y = my ? MH - 1 - cy : cy, z = mz ? MD - 1 - cz : cz;
+			int skip = skip(x, y, z);
+			if (skip == 0) {
+				hit.x = x;
+				hit.y = y;
+				hit.z = z;
+				hit.t = t;
+				return true;
+			}
+
+			int k = skip & 31, n = skip >>> 5;
+			int nx = ((cx >> k) + n) << k, ny = ((cy >> k) + n) << k, nz = ((cz >> k) + n) << k;
+			float tx = (nx - sx) * ix, ty = (ny - sy) * iy, tz = (nz - sz) * iz;
+			float tNext = Math.min(tx, Math.min(ty, tz));
+			// predict the other two coordinates
+			cx = tNext == tx ? nx : (int) (sx + ax * tNext);
+			cy = tNext == ty ? ny : (int) (sy + ay * tNext);
+			cz = tNext == tz ? nz : (int) (sz + az * tNext);
+			hit.last_step = tNext == tx ? 0 : tNext == ty ? 1 : 2;
+			t = tNext;
+			hit.iterations++;
+		}
+		return false;
+	}
+}
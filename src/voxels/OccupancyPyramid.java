@@ -0,0 +1,155 @@
+package voxels;
+
+import java.util.Arrays;
+
+/**
+ * Bitmask pyramid above compressed_occupancy: at level 0, one 64 bits mask per
+ * super tile with 1 bit per allocated tile (compressed_occupancy itself), and
+ * at each level above, one mask per cell of 4x4x4 cells of the level below
+ * with 1 bit per non empty cell. The cells of the masks of level l are
+ * 4^(l+2) voxels wide: 16, 64, 256... The levels stop when one mask covers the
+ * whole terrain, or at the given number of levels.
+ *
+ * trace() is the hierarchical DDA of render_common.glsl, skip() returning the
+ * size of the largest empty cell instead of 16, 4 or 1. With a single level, it
+ * does the same iterations as the GPU.
+ */
+public class OccupancyPyramid extends GridTracer {
+
+	public final TerrainData data;
+	public final int levels;
+
+	private final long[][] masks; // for each level: for each cell, 1 bit per non empty child cell
+	private final int[][] dims; // for each level: number of cells along x, y, z
+
+	/**
+	 * Builds all the levels up to one mask for the whole terrain
+	 */
+	public OccupancyPyramid(TerrainData data) {
+		this(data, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxLevels 1 for compressed_occupancy alone, as on the GPU
+	 */
+	public OccupancyPyramid(TerrainData data, int maxLevels) {
+		// the cells are aligned in mirrored coords if the mirror is a multiple
+		// of the largest cell
+		super(data.width * 4, data.height * 4, data.depth * 4, padded(data.width, levels(data, maxLevels)),
+				padded(data.height, levels(data, maxLevels)), padded(data.depth, levels(data, maxLevels)));
+		this.data = data;
+		int n = levels(data, maxLevels);
+		this.levels = n;
+		this.masks = new long[n][];
+		this.dims = new int[n][];
+		masks[0] = data.compressed_occupancy;
+		dims[0] = new int[] { data.width / 4, data.height / 4, data.depth / 4 };
+		for (int l = 1; l < n; l++) {
+			dims[l] = new int[] { cells(data.width, l), cells(data.height, l), cells(data.depth, l) };
+			masks[l] = new long[dims[l][0] * dims[l][1] * dims[l][2]];
+		}
+		rebuild();
+	}
+
+	private static int levels(TerrainData data, int maxLevels) {
+		if (maxLevels < 1) {
+			throw new IllegalArgumentException("Invalid number of levels: " + maxLevels);
+		}
+		int n = 1;
+		while (n < maxLevels && !(cells(data.width, n - 1) == 1 && cells(data.height, n - 1) == 1
+				&& cells(data.depth, n - 1) == 1)) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the voxels of the cells of the top level along an axis of the
+	 *         given number of tiles
+	 */
+	private static int padded(int tiles, int levels) {
+		return cells(tiles, levels - 1) * (4 << (2 * levels));
+	}
+
+	/**
+	 * @return the number of cells of the given level along an axis of the
+	 *         given number of tiles
+	 */
+	private static int cells(int tiles, int level) {
+		int edge = 2 * (level + 1); // log2 of the tiles per cell
+		return (tiles + (1 << edge) - 1) >> edge;
+	}
+
+	private int cellIndex(int level, int x, int y, int z) {
+		int[] d = dims[level];
+		return x + d[0] * (y + d[1] * z);
+	}
+
+	/**
+	 * Recomputes the levels above compressed_occupancy
+	 */
+	public void rebuild() {
+		for (int l = 1; l < levels; l++) {
+			Arrays.fill(masks[l], 0L);
+			int[] d = dims[l - 1];
+			for (int z = 0; z < d[2]; z++) {
+				for (int y = 0; y < d[1]; y++) {
+					for (int x = 0; x < d[0]; x++) {
+						if (masks[l - 1][cellIndex(l - 1, x, y, z)] != 0) {
+							masks[l][cellIndex(l, x >> 2, y >> 2, z >> 2)] |= 1L << TerrainData.superTileBit(x, y, z);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates the levels above the given tile, after its bit was changed in
+	 * compressed_occupancy
+	 */
+	public void update(int x, int y, int z) {
+		for (int l = 1; l < levels; l++) {
+			// the cell of level l - 1 containing the tile, and its bit in level l
+			int cx = x >> (2 * l), cy = y >> (2 * l), cz = z >> (2 * l);
+			boolean nonEmpty = masks[l - 1][cellIndex(l - 1, cx, cy, cz)] != 0;
+			int parent = cellIndex(l, cx >> 2, cy >> 2, cz >> 2);
+			long bit = 1L << TerrainData.superTileBit(cx, cy, cz);
+			long before = masks[l][parent];
+			masks[l][parent] = nonEmpty ? before | bit : before & ~bit;
+			if (masks[l][parent] == before) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The largest empty cell of the pyramid around the voxel, instead of 16, 4
+	 * or 1 voxel
+	 */
+	protected int skip(int x, int y, int z) {
+		int top = levels - 1;
+		if (x < 0 || y < 0 || z < 0) {
+			return jump(1, 2 * top + 4);
+		}
+		int tx = x >> 2, ty = y >> 2, tz = z >> 2;
+		int cx = tx >> (2 * (top + 1)), cy = ty >> (2 * (top + 1)), cz = tz >> (2 * (top + 1));
+		int[] d = dims[top];
+		if (cx >= d[0] || cy >= d[1] || cz >= d[2]) {
+			return jump(1, 2 * top + 4);
+		}
+		if (masks[top][cellIndex(top, cx, cy, cz)] == 0) {
+			return jump(1, 2 * top + 4);
+		}
+		for (int l = top; l >= 0; l--) {
+			// bit of the child cell, of 4^l tiles, in the mask of its parent
+			int shift = 2 * l;
+			long mask = masks[l][cellIndex(l, tx >> (shift + 2), ty >> (shift + 2), tz >> (shift + 2))];
+			if ((mask & (1L << TerrainData.superTileBit(tx >> shift, ty >> shift, tz >> shift))) == 0) {
+				return jump(1, shift + 2);
+			}
+		}
+		int tile_index = data.occupancy[data.tileIndex(tx, ty, tz)];
+		return (data.compressed_atlas[tile_index] & (1L << TerrainData.voxelBit(x, y, z))) != 0 ? 0 : jump(1, 0);
+	}
+}
@@ -0,0 +1,306 @@
+package voxels;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Traces packets of coherent rays together, one ray per lane of the preferred
+ * vectors: 8 rays with AVX2, 16 with AVX-512. The packets walk the same
+ * hierarchy as trace() in render_common.glsl, compressed_occupancy then the
+ * tile masks with skips of 16, 4 and 1 voxel, and give the same hits and
+ * iterations as OccupancyPyramid.trace() with one level.
+ *
+ * The stepping and the reads of the masks are done on the lanes, the masks
+ * being gathered, and the mask of a super tile is read once for the whole
+ * packet when all its rays are in it. When only a few rays of a packet are
+ * still walking, or when its rays have been in different super tiles for a
+ * few iterations, they finish one by one.
+ *
+ * A PacketTracer is not thread safe: its scratch arrays and its statistics
+ * are shared by all its calls, so each thread needs its own.
+ *
+ * Uses the incubating Vector API, so it is only compiled by the vector
+ * profile of the pom, and needs --add-modules jdk.incubator.vector at run
+ * time. It is not faster than OccupancyPyramid.trace() yet, see
+ * PacketBenchmark.
+ */
+public class PacketTracer extends GridTracer {
+
+	private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Long> L = LongVector.SPECIES_PREFERRED; // half the lanes of I
+	public static final int LANES = F.length();
+
+	public final TerrainData data;
+	public int scalarLanes = LANES / 4; // below this number of walking rays, they finish one by one
+	public int divergedIterations = 4; // after this number of iterations in different super tiles, the rays finish one by one
+
+	// statistics
+	public long packetIterations = 0;
+	public long coherentIterations = 0; // packet iterations with all the rays in the same super tile
+	public long scalarIterations = 0;
+
+	// scratch lanes of tracePacket()
+	private final float[] fx = new float[LANES], fy = new float[LANES], fz = new float[LANES];
+	private final int[] index = new int[LANES], lx = new int[LANES], ly = new int[LANES], lz = new int[LANES];
+	private final float[] ft = new float[LANES], ftmax = new float[LANES];
+	private final int[] lit = new int[LANES];
+
+	public PacketTracer(TerrainData data) {
+		super(data.width * 4, data.height * 4, data.depth * 4);
+		this.data = data;
+	}
+
+	/**
+	 * Traces the rays [first, first + count[, LANES at a time
+	 *
+	 * @param x, y, z    the starts of the rays, in grid coords
+	 * @param dx, dy, dz the unit directions of the rays
+	 * @param hits       the results, from index first
+	 */
+	public void trace(float[] x, float[] y, float[] z, float[] dx, float[] dy, float[] dz, int first, int count,
+			RayHit[] hits) {
+		for (int i = first; i < first + count; i += LANES) {
+			tracePacket(x, y, z, dx, dy, dz, i, first + count, hits);
+		}
+	}
+
+	private void tracePacket(float[] startX, float[] startY, float[] startZ, float[] rayX, float[] rayY, float[] rayZ,
+			int offset, int end, RayHit[] hits) {
+		VectorMask<Float> inRange = F.indexInRange(offset, end);
+
+		FloatVector rx = FloatVector.fromArray(F, rayX, offset, inRange);
+		FloatVector ry = FloatVector.fromArray(F, rayY, offset, inRange);
+		FloatVector rz = FloatVector.fromArray(F, rayZ, offset, inRange);
+		VectorMask<Float> mxF = rx.lt(0.0f), myF = ry.lt(0.0f), mzF = rz.lt(0.0f);
+		VectorMask<Integer> mx = mxF.cast(I), my = myF.cast(I), mz = mzF.cast(I);
+		FloatVector ax = rx.abs(), ay = ry.abs(), az = rz.abs();
+		FloatVector one = FloatVector.broadcast(F, 1.0f);
+		FloatVector ix = one.div(ax), iy = one.div(ay), iz = one.div(az);
+
+		// mirror the starts so that the rays go towards +x, +y, +z
+		FloatVector sx = FloatVector.fromArray(F, startX, offset, inRange);
+		FloatVector sy = FloatVector.fromArray(F, startY, offset, inRange);
+		FloatVector sz = FloatVector.fromArray(F, startZ, offset, inRange);
+		sx = sx.blend(FloatVector.broadcast(F, W).sub(sx), mxF);
+		sy = sy.blend(FloatVector.broadcast(F, H).sub(sy), myF);
+		sz = sz.blend(FloatVector.broadcast(F, D).sub(sz), mzF);
+
+		// clip the rays to the box of the terrain
+		FloatVector tmin = FloatVector.zero(F), tmax = FloatVector.broadcast(F, Float.POSITIVE_INFINITY);
+		FloatVector t1 = sx.neg().mul(ix), t2 = FloatVector.broadcast(F, W).sub(sx).mul(ix);
+		tmin = tmin.max(t1.min(t2));
+		tmax = tmax.min(t1.max(t2));
+		t1 = sy.neg().mul(iy);
+		t2 = FloatVector.broadcast(F, H).sub(sy).mul(iy);
+		tmin = tmin.max(t1.min(t2));
+		tmax = tmax.min(t1.max(t2));
+		t1 = sz.neg().mul(iz);
+		t2 = FloatVector.broadcast(F, D).sub(sz).mul(iz);
+		tmin = tmin.max(t1.min(t2));
+		tmax = tmax.min(t1.max(t2));
+
+		for (int l = 0; l < LANES && offset + l < end; l++) {
+			RayHit hit = hits[offset + l];
+			hit.t = Float.POSITIVE_INFINITY;
+			hit.iterations = 0;
+			hit.last_step = -1;
+		}
+
+		VectorMask<Float> active = inRange.and(tmin.compare(VectorOperators.LE, tmax));
+		FloatVector t = tmin.add(EPS);
+		IntVector cx = (IntVector) ax.mul(t).add(sx).convert(VectorOperators.F2I, 0);
+		IntVector cy = (IntVector) ay.mul(t).add(sy).convert(VectorOperators.F2I, 0);
+		IntVector cz = (IntVector) az.mul(t).add(sz).convert(VectorOperators.F2I, 0);
+		IntVector iterations = IntVector.zero(I);
+		IntVector lastStep = IntVector.broadcast(I, -1);
+		FloatVector tEnd = tmax.sub(EPS);
+		IntVector Wm1 = IntVector.broadcast(I, W - 1), Hm1 = IntVector.broadcast(I, H - 1),
+				Dm1 = IntVector.broadcast(I, D - 1);
+
+		int diverged = 0;
+		while (true) {
+			active = active.and(t.lt(tEnd)).and(iterations.lt(MAX_ITERATIONS).cast(F));
+			if (active.trueCount() <= scalarLanes || diverged >= divergedIterations) {
+				break;
+			}
+			VectorMask<Integer> activeI = active.cast(I);
+
+			IntVector x = cx.blend(Wm1.sub(cx), mx), y = cy.blend(Hm1.sub(cy), my), z = cz.blend(Dm1.sub(cz), mz);
+			x.intoArray(lx, 0);
+			y.intoArray(ly, 0);
+			z.intoArray(lz, 0);
+
+			// one read of the super tile for the whole packet if possible
+			int lane = activeI.firstTrue();
+			IntVector sx4 = x.lanewise(VectorOperators.ASHR, 4), sy4 = y.lanewise(VectorOperators.ASHR, 4),
+					sz4 = z.lanewise(VectorOperators.ASHR, 4);
+			boolean coherent = inside(lx[lane], ly[lane], lz[lane])
+					&& sx4.eq(lx[lane] >> 4).and(sy4.eq(ly[lane] >> 4)).and(sz4.eq(lz[lane] >> 4)).and(activeI)
+							.trueCount() == activeI.trueCount();
+			long super_mask = coherent
+					? data.compressed_occupancy[data.superTileIndex(lx[lane] >> 2, ly[lane] >> 2, lz[lane] >> 2)]
+					: -1L; // gathered by testOccupancy()
+			packetIterations++;
+			if (coherent) {
+				coherentIterations++;
+				diverged = 0;
+			} else {
+				diverged++;
+			}
+			IntVector skips = super_mask == 0 ? IntVector.broadcast(I, 16)
+					: testOccupancy(x, y, z, activeI, sx4, sy4, sz4, coherent, super_mask);
+
+			// the rays on a solid voxel stop
+			VectorMask<Integer> hit = skips.eq(0).and(activeI);
+			if (hit.anyTrue()) {
+				t.intoArray(ft, 0);
+				lastStep.intoArray(lit, 0);
+				for (long lanes = hit.toLong(); lanes != 0; lanes &= lanes - 1) {
+					int l = Long.numberOfTrailingZeros(lanes);
+					RayHit h = hits[offset + l];
+					h.x = lx[l];
+					h.y = ly[l];
+					h.z = lz[l];
+					h.t = ft[l];
+					h.last_step = lit[l];
+				}
+				activeI = activeI.andNot(hit);
+				active = activeI.cast(F);
+				skips = skips.blend(1, hit);
+			}
+
+			IntVector notMask = skips.sub(1).not();
+			IntVector nx = cx.and(notMask).add(skips), ny = cy.and(notMask).add(skips), nz = cz.and(notMask).add(skips);
+			FloatVector tx = ((FloatVector) nx.convert(VectorOperators.I2F, 0)).sub(sx).mul(ix);
+			FloatVector ty = ((FloatVector) ny.convert(VectorOperators.I2F, 0)).sub(sy).mul(iy);
+			FloatVector tz = ((FloatVector) nz.convert(VectorOperators.I2F, 0)).sub(sz).mul(iz);
+			FloatVector tNext = tx.min(ty.min(tz));
+			// predict the other two coordinates
+			VectorMask<Integer> stepX = tNext.eq(tx).cast(I), stepY = tNext.eq(ty).cast(I), stepZ = tNext.eq(tz).cast(I);
+			IntVector px = (IntVector) ax.mul(tNext).add(sx).convert(VectorOperators.F2I, 0);
+			IntVector py = (IntVector) ay.mul(tNext).add(sy).convert(VectorOperators.F2I, 0);
+			IntVector pz = (IntVector) az.mul(tNext).add(sz).convert(VectorOperators.F2I, 0);
+			cx = cx.blend(px.blend(nx, stepX), activeI);
+			cy = cy.blend(py.blend(ny, stepY), activeI);
+			cz = cz.blend(pz.blend(nz, stepZ), activeI);
+			IntVector step = IntVector.broadcast(I, 2).blend(1, stepY).blend(0, stepX);
+			lastStep = lastStep.blend(step, activeI);
+			t = t.blend(tNext, active);
+			iterations = iterations.add(1, activeI);
+		}
+
+		// the last rays finish one by one
+		sx.intoArray(fx, 0);
+		sy.intoArray(fy, 0);
+		sz.intoArray(fz, 0);
+		t.intoArray(ft, 0);
+		tEnd.intoArray(ftmax, 0);
+		cx.intoArray(lx, 0);
+		cy.intoArray(ly, 0);
+		cz.intoArray(lz, 0);
+		iterations.intoArray(lit, 0);
+		for (int l = 0; l < LANES && offset + l < end; l++) {
+			RayHit hit = hits[offset + l];
+			hit.iterations = lit[l];
+			// the lanes which stopped on a hit kept their last step since
+			hit.last_step = lastStep.lane(l);
+			if (active.laneIsSet(l)) {
+				boolean found = march(fx[l], fy[l], fz[l], rayX[offset + l], rayY[offset + l], rayZ[offset + l], ft[l],
+						ftmax[l], lx[l], ly[l], lz[l], hit);
+				// the voxel of the hit is tested without counting an iteration
+				scalarIterations += hit.iterations - lit[l] + (found ? 1 : 0);
+			}
+		}
+	}
+
+	private boolean inside(int x, int y, int z) {
+		return x >= 0 && y >= 0 && z >= 0 && x < W && y < H && z < D;
+	}
+
+	/**
+	 * testOccupancy() on the active lanes, the masks being gathered. A
+	 * LongVector has half the lanes of an IntVector, so the masks are gathered
+	 * in two halves.
+	 *
+	 * @param sx4, sy4, sz4 the super tiles of the voxels
+	 * @param super_mask    the mask of the super tile of all the lanes if
+	 *                      coherent
+	 */
+	private IntVector testOccupancy(IntVector x, IntVector y, IntVector z, VectorMask<Integer> active, IntVector sx4,
+			IntVector sy4, IntVector sz4, boolean coherent, long super_mask) {
+		VectorMask<Integer> in = active.and(x.compare(VectorOperators.GE, 0)).and(x.lt(W))
+				.and(y.compare(VectorOperators.GE, 0)).and(y.lt(H)).and(z.compare(VectorOperators.GE, 0)).and(z.lt(D));
+		IntVector tx = x.lanewise(VectorOperators.ASHR, 2), ty = y.lanewise(VectorOperators.ASHR, 2),
+				tz = z.lanewise(VectorOperators.ASHR, 2);
+
+		LongVector lo, hi;
+		if (coherent) {
+			lo = hi = LongVector.broadcast(L, super_mask);
+		} else {
+			sz4.mul(data.height / 4).add(sy4).mul(data.width / 4).add(sx4).intoArray(index, 0);
+			lo = gather(data.compressed_occupancy, in, 0);
+			hi = gather(data.compressed_occupancy, in, L.length());
+		}
+		long nonEmpty = in.toLong() & (lo.compare(VectorOperators.NE, 0).toLong()
+				| hi.compare(VectorOperators.NE, 0).toLong() << L.length());
+		IntVector superBit = tx.and(3).add(ty.and(3).lanewise(VectorOperators.LSHL, 2))
+				.add(tz.and(3).lanewise(VectorOperators.LSHL, 4));
+		long tiles = nonEmpty & testBits(lo, hi, superBit);
+
+		long solid = 0;
+		if (tiles != 0) {
+			VectorMask<Integer> inTile = VectorMask.fromLong(I, tiles);
+			tz.mul(data.height).add(ty).mul(data.width).add(tx).intoArray(index, 0);
+			IntVector.fromArray(I, data.occupancy, 0, index, 0, inTile).intoArray(index, 0);
+			IntVector voxelBit = x.and(3).or(y.and(3).lanewise(VectorOperators.LSHL, 2))
+					.or(z.and(3).lanewise(VectorOperators.LSHL, 4));
+			solid = tiles & testBits(gather(data.compressed_atlas, inTile, 0),
+					gather(data.compressed_atlas, inTile, L.length()), voxelBit);
+		}
+		return IntVector.broadcast(I, 16).blend(4, VectorMask.fromLong(I, nonEmpty))
+				.blend(1, VectorMask.fromLong(I, tiles)).blend(0, VectorMask.fromLong(I, solid));
+	}
+
+	/**
+	 * @return the values of array at the indices of the lanes of index from
+	 *         first, 0 for the lanes not in mask
+	 */
+	private LongVector gather(long[] array, VectorMask<Integer> mask, int first) {
+		return LongVector.fromArray(L, array, 0, index, first, VectorMask.fromLong(L, mask.toLong() >>> first));
+	}
+
+	/**
+	 * @return the lanes of the masks lo, hi which have their bit set, as the
+	 *         bits of a VectorMask of I
+	 */
+	private static long testBits(LongVector lo, LongVector hi, IntVector bit) {
+		LongVector bitLo = (LongVector) bit.convertShape(VectorOperators.I2L, L, 0);
+		LongVector bitHi = (LongVector) bit.convertShape(VectorOperators.I2L, L, 1);
+		return lo.lanewise(VectorOperators.LSHR, bitLo).and(1L).compare(VectorOperators.NE, 0).toLong()
+				| hi.lanewise(VectorOperators.LSHR, bitHi).and(1L).compare(VectorOperators.NE, 0).toLong() << L
+						.length();
+	}
+
+	/**
+	 * see testOccupancy() in render_common.glsl
+	 */
+	protected int skip(int x, int y, int z) {
+		if (!inside(x, y, z)) {
+			return jump(1, 4);
+		}
+		long super_mask = data.compressed_occupancy[data.superTileIndex(x >> 2, y >> 2, z >> 2)];
+		if (super_mask == 0) {
+			return jump(1, 4);
+		}
+		if ((super_mask & (1L << TerrainData.superTileBit(x >> 2, y >> 2, z >> 2))) == 0) {
+			return jump(1, 2);
+		}
+		int tile_index = data.occupancy[data.tileIndex(x >> 2, y >> 2, z >> 2)];
+		return (data.compressed_atlas[tile_index] & (1L << TerrainData.voxelBit(x, y, z))) != 0 ? 0 : jump(1, 0);
+	}
+}
@@ -0,0 +1,280 @@
+package voxels;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Palette compressed copy of block_ids: each tile of the atlas stores the
+ * distinct block types of its 64 voxels in a palette, and for each voxel the
+ * index of its type in the palette, with 0, 1, 2, 4 or 8 bits per voxel. A
+ * uniform tile takes 11 bytes instead of 64, a surface tile with 2 to 4 types
+ * 21 to 33 bytes. The block types are 16 bits, so more than 256 of them can
+ * be stored.
+ *
+ * The voxels of a tile are ordered as in compressed_atlas, see
+ * TerrainData.voxelBit(), and packed in longs, so that any voxel can be read
+ * without decoding its tile.
+ *
+ * encode() reads the 8 bits block_ids of a terrain, setTile() writes the 16
+ * bits types of any tile. A tile rewritten with more types than it had is
+ * appended, the space of its old version is only reclaimed by write() and
+ * read().
+ */
+public class PalettedBlocks {
+
+	private static final int MAGIC = 0x504C5431; // "PLT1"
+
+	public final int maxTiles;
+
+	private final int[] word_offset; // for each tile: its first word in words
+	private final int[] palette_offset; // for each tile: its first type in palettes
+	private final byte[] palette_size; // for each tile: its number of types, 0 until it is set
+	private final byte[] bits; // for each tile: 0, 1, 2, 4 or 8 bits per voxel
+
+	private long[] words = new long[64];
+	private int numWords = 0;
+	private short[] palettes = new short[64];
+	private int numPaletteEntries = 0;
+
+	/**
+	 * Tiles of BLOCK_AIR, to be filled with setTile()
+	 */
+	public PalettedBlocks(int maxTiles) {
+		this.maxTiles = maxTiles;
+		this.word_offset = new int[maxTiles];
+		this.palette_offset = new int[maxTiles];
+		this.palette_size = new byte[maxTiles];
+		this.bits = new byte[maxTiles];
+	}
+
+	/**
+	 * Compresses the block_ids of the given terrain
+	 */
+	public static PalettedBlocks encode(TerrainData data) {
+		if (data.block_ids == null) {
+			throw new IllegalArgumentException("The blocks of the terrain are not generated");
+		}
+		PalettedBlocks blocks = new PalettedBlocks(data.maxTiles);
+		int[] types = new int[64];
+		for (int tile_index = 0; tile_index < data.maxTiles; tile_index++) {
+			for (int z = 0; z < 4; z++) {
+				for (int y = 0; y < 4; y++) {
+					int row = data.atlasVoxelIndex(tile_index, 0, y, z);
+					for (int x = 0; x < 4; x++) {
+						types[TerrainData.voxelBit(x, y, z)] = data.block_ids[row + x] & 0xFF;
+					}
+				}
+			}
+			blocks.setTile(tile_index, types);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Sets the block types of the given tile
+	 *
+	 * @param types the 64 block types in [0, 65535], in the order of
+	 *              TerrainData.voxelBit()
+	 */
+	public void setTile(int tile_index, int[] types) {
+		// palette in order of first appearance
+		short[] palette = new short[64];
+		int[] indices = new int[64];
+		int size = 0;
+		for (int v = 0; v < 64; v++) {
+			if (types[v] < 0 || types[v] > 0xFFFF) {
+				throw new IllegalArgumentException("Invalid block type: " + types[v]);
+			}
+			int i = 0;
+			while (i < size && palette[i] != (short) types[v]) {
+				i++;
+			}
+			if (i == size) {
+				palette[size++] = (short) types[v];
+			}
+			indices[v] = i;
+		}
+		int b = bitsFor(size);
+
+		// in place if the tile had at least as many types, else appended
+		if (size > palette_size[tile_index]) {
+			if (numPaletteEntries + size > palettes.length) {
+				palettes = Arrays.copyOf(palettes, Math.max(palettes.length * 2, numPaletteEntries + size));
+			}
+			palette_offset[tile_index] = numPaletteEntries;
+			numPaletteEntries += size;
+			// 64 voxels of b bits = b longs
+			if (numWords + b > words.length) {
+				words = Arrays.copyOf(words, Math.max(words.length * 2, numWords + b));
+			}
+			word_offset[tile_index] = numWords;
+			numWords += b;
+		}
+		System.arraycopy(palette, 0, palettes, palette_offset[tile_index], size);
+		palette_size[tile_index] = (byte) size;
+		bits[tile_index] = (byte) b;
+		int offset = word_offset[tile_index];
+		Arrays.fill(words, offset, offset + b, 0L);
+		for (int v = 0; v < 64 && b != 0; v++) {
+			int bit = v * b;
+			words[offset + (bit >> 6)] |= (long) indices[v] << (bit & 63);
+		}
+	}
+
+	private static int bitsFor(int paletteSize) {
+		if (paletteSize <= 1) {
+			return 0;
+		} else if (paletteSize <= 2) {
+			return 1;
+		} else if (paletteSize <= 4) {
+			return 2;
+		} else if (paletteSize <= 16) {
+			return 4;
+		}
+		return 8;
+	}
+
+	/**
+	 * @return the block type of the given voxel of the given tile
+	 */
+	public int get(int tile_index, int x, int y, int z) {
+		if (palette_size[tile_index] == 0) {
+			return TerrainData.BLOCK_AIR;
+		}
+		int b = bits[tile_index];
+		int index = 0;
+		if (b != 0) {
+			int bit = TerrainData.voxelBit(x, y, z) * b;
+			long word = words[word_offset[tile_index] + (bit >> 6)];
+			index = (int) (word >>> (bit & 63)) & ((1 << b) - 1);
+		}
+		return palettes[palette_offset[tile_index] + index] & 0xFFFF;
+	}
+
+	/**
+	 * Writes the 64 block types of the given tile, in the order of
+	 * TerrainData.voxelBit()
+	 */
+	public void decodeTile(int tile_index, int[] dest) {
+		int b = bits[tile_index];
+		int palette = palette_offset[tile_index];
+		if (palette_size[tile_index] == 0) {
+			Arrays.fill(dest, 0, 64, TerrainData.BLOCK_AIR);
+			return;
+		}
+		if (b == 0) {
+			Arrays.fill(dest, 0, 64, palettes[palette] & 0xFFFF);
+			return;
+		}
+		int offset = word_offset[tile_index];
+		long indexMask = (1L << b) - 1;
+		for (int v = 0; v < 64; v++) {
+			int bit = v * b;
+			int index = (int) ((words[offset + (bit >> 6)] >>> (bit & 63)) & indexMask);
+			dest[v] = palettes[palette + index] & 0xFFFF;
+		}
+	}
+
+	/**
+	 * Writes back the block types into data.block_ids, which must be 8 bits
+	 */
+	public void decode(TerrainData data) {
+		if (data.maxTiles != maxTiles) {
+			throw new IllegalArgumentException("The terrain does not have the same atlas: " + data.maxTiles);
+		}
+		if (data.block_ids == null) {
+			data.block_ids = new byte[TerrainData.arrayLength(maxTiles * 64L, "block_ids")];
+		}
+		int[] types = new int[64];
+		for (int tile_index = 0; tile_index < maxTiles; tile_index++) {
+			decodeTile(tile_index, types);
+			for (int z = 0; z < 4; z++) {
+				for (int y = 0; y < 4; y++) {
+					int row = data.atlasVoxelIndex(tile_index, 0, y, z);
+					for (int x = 0; x < 4; x++) {
+						int type = types[TerrainData.voxelBit(x, y, z)];
+						if (type > 0xFF) {
+							throw new IllegalStateException("Block type " + type + " does not fit in block_ids");
+						}
+						data.block_ids[row + x] = (byte) type;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the bytes used by the tiles, their palettes and their voxels
+	 */
+	public long memoryBytes() {
+		return maxTiles * (2L * Integer.BYTES + 2) + numPaletteEntries * 2L + numWords * (long) Long.BYTES;
+	}
+
+	/**
+	 * Format: magic, number of tiles, then for each tile its bits per voxel,
+	 * its palette size, its palette and its words. The tiles never set are
+	 * written as BLOCK_AIR.
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(maxTiles);
+		for (int tile_index = 0; tile_index < maxTiles; tile_index++) {
+			int b = bits[tile_index];
+			int first = palette_offset[tile_index];
+			int size = palette_size[tile_index];
+			data.writeByte(b);
+			data.writeByte(Math.max(size, 1) - 1); // at most 64 types
+			if (size == 0) {
+				data.writeShort(TerrainData.BLOCK_AIR);
+			}
+			for (int i = 0; i < size; i++) {
+				data.writeShort(palettes[first + i]);
+			}
+			for (int i = 0; i < b; i++) {
+				data.writeLong(words[word_offset[tile_index] + i]);
+			}
+		}
+		data.flush();
+	}
+
+	public static PalettedBlocks read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a paletted blocks stream");
+		}
+		PalettedBlocks blocks = new PalettedBlocks(data.readInt());
+		for (int tile_index = 0; tile_index < blocks.maxTiles; tile_index++) {
+			int b = data.readByte();
+			int size = (data.readByte() & 0xFF) + 1;
+			if (bitsFor(size) != b) {
+				throw new IOException("Invalid tile " + tile_index + ": " + size + " types on " + b + " bits");
+			}
+
+			int first = blocks.numPaletteEntries;
+			if (first + size > blocks.palettes.length) {
+				blocks.palettes = Arrays.copyOf(blocks.palettes, Math.max(blocks.palettes.length * 2, first + size));
+			}
+			for (int i = 0; i < size; i++) {
+				blocks.palettes[first + i] = data.readShort();
+			}
+			blocks.numPaletteEntries += size;
+			blocks.palette_offset[tile_index] = first;
+			blocks.palette_size[tile_index] = (byte) size;
+
+			blocks.bits[tile_index] = (byte) b;
+			blocks.word_offset[tile_index] = blocks.numWords;
+			if (blocks.numWords + b > blocks.words.length) {
+				blocks.words = Arrays.copyOf(blocks.words, Math.max(blocks.words.length * 2, blocks.numWords + b));
+			}
+			for (int i = 0; i < b; i++) {
+				blocks.words[blocks.numWords++] = data.readLong();
+			}
+		}
+		return blocks;
+	}
+}
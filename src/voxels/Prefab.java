@@ -0,0 +1,102 @@
+package voxels;
+
+import java.util.Arrays;
+
+/**
+ * A voxel model, such as a tree or a building, made of its own tiles: for
+ * each tile its occupancy mask, as in compressed_atlas, and the block types of
+ * its 64 voxels. It is placed in a DedupTileStore with
+ * DedupTileStore.place(), and all its placements share the same tile contents
+ * until they are edited.
+ *
+ * The placements which are not aligned to the tiles use a copy of the model
+ * shifted inside its tiles, which is made once per shift and shared in the
+ * same way.
+ */
+public class Prefab {
+
+	public final int width; // number of tiles
+	public final int height;// number of tiles
+	public final int depth; // number of tiles
+
+	final long[] masks; // for each tile: 1 bit per solid voxel
+	final byte[] blocks; // for each tile: 64 block types, in the order of TerrainData.voxelBit()
+
+	private final Prefab[] shifted = new Prefab[64];
+
+	public Prefab(int width, int height, int depth) {
+		if (width <= 0 || height <= 0 || depth <= 0) {
+			throw new IllegalArgumentException("Invalid prefab size: " + width + "x" + height + "x" + depth);
+		}
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		int numTiles = TerrainData.arrayLength((long) width * height * depth, "prefab tiles");
+		this.masks = new long[numTiles];
+		this.blocks = new byte[TerrainData.arrayLength(numTiles * 64L, "prefab blocks")];
+	}
+
+	public int tileIndex(int x, int y, int z) {
+		return x + width * (y + height * z);
+	}
+
+	/**
+	 * Sets the block type of the given voxel, BLOCK_AIR making it empty
+	 */
+	public void setVoxel(int x, int y, int z, int type) {
+		int tile = tileIndex(x >> 2, y >> 2, z >> 2);
+		int bit = TerrainData.voxelBit(x & 3, y & 3, z & 3);
+		if (type == TerrainData.BLOCK_AIR) {
+			masks[tile] &= ~(1L << bit);
+		} else {
+			masks[tile] |= 1L << bit;
+		}
+		blocks[tile * 64 + bit] = (byte) type;
+		Arrays.fill(shifted, null);
+	}
+
+	public int getVoxel(int x, int y, int z) {
+		int tile = tileIndex(x >> 2, y >> 2, z >> 2);
+		return blocks[tile * 64 + TerrainData.voxelBit(x & 3, y & 3, z & 3)] & 0xFF;
+	}
+
+	/**
+	 * Fills the given box of voxels, bounds included
+	 */
+	public void fill(int x0, int y0, int z0, int x1, int y1, int z1, int type) {
+		for (int z = z0; z <= z1; z++) {
+			for (int y = y0; y <= y1; y++) {
+				for (int x = x0; x <= x1; x++) {
+					setVoxel(x, y, z, type);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the same model moved by the given number of voxels inside its
+	 *         tiles, between 0 and 3 on each axis
+	 */
+	Prefab shifted(int sx, int sy, int sz) {
+		int key = sx | sy << 2 | sz << 4;
+		if (key == 0) {
+			return this;
+		}
+		Prefab p = shifted[key];
+		if (p == null) {
+			p = new Prefab(width + (sx != 0 ? 1 : 0), height + (sy != 0 ? 1 : 0), depth + (sz != 0 ? 1 : 0));
+			for (int z = 0; z < depth * 4; z++) {
+				for (int y = 0; y < height * 4; y++) {
+					for (int x = 0; x < width * 4; x++) {
+						int type = getVoxel(x, y, z);
+						if (type != TerrainData.BLOCK_AIR) {
+							p.setVoxel(x + sx, y + sy, z + sz, type);
+						}
+					}
+				}
+			}
+			shifted[key] = p;
+		}
+		return p;
+	}
+}
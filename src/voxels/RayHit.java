@@ -0,0 +1,11 @@
+package voxels;
+
+/**
+ * Result of a CPU traversal, see trace() in render_common.glsl
+ */
+public class RayHit {
+	public int x, y, z; // voxel hit by the ray
+	public float t; // distance to the voxel, +inf if nothing was hit
+	public int last_step; // axis of the last step before the voxel: 0, 1 or 2, -1 if there was none
+	public int iterations;
+}
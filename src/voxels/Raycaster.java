@@ -0,0 +1,111 @@
+package voxels;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import utils.ParallelFor;
+
+/**
+ * Batched ray queries on the CPU copy of the terrain, for picking, line of
+ * sight or gameplay: the rays are given in world coords, as the camera, and
+ * traced with OccupancyPyramid.trace(). The results are written into reused
+ * arrays, and the large batches are split across the cores.
+ */
+public class Raycaster {
+
+	public static final int GRAIN = 256; // rays per task, smaller batches are traced on the calling thread
+
+	public final OccupancyPyramid pyramid;
+	public final TerrainData data;
+	public final Vector3f minCorner; // as in World
+	public final float voxelSize;
+
+	private final ThreadLocal<RayHit> hits = ThreadLocal.withInitial(RayHit::new);
+
+	/**
+	 * The results of a batch, the arrays growing with the batches
+	 */
+	public static class Results {
+		public float[] t = new float[0]; // world distance to the hit voxel, +inf if nothing was hit
+		public int[] voxel = new int[0]; // for each ray: the grid coords of the hit voxel, -1 if nothing was hit
+		public int[] normal = new int[0]; // for each ray: the normal of the hit face, 0 if the ray started inside
+		public int[] block = new int[0]; // block type of the hit voxel, -1 if the blocks are not on the CPU
+
+		public void ensureCapacity(int rays) {
+			if (t.length < rays) {
+				t = new float[rays];
+				voxel = new int[rays * 3];
+				normal = new int[rays * 3];
+				block = new int[rays];
+			}
+		}
+
+		public boolean isHit(int ray) {
+			return t[ray] != Float.POSITIVE_INFINITY;
+		}
+	}
+
+	public Raycaster(OccupancyPyramid pyramid, Vector3fc minCorner, float voxelSize) {
+		this.pyramid = pyramid;
+		this.data = pyramid.data;
+		this.minCorner = new Vector3f(minCorner);
+		this.voxelSize = voxelSize;
+	}
+
+	/**
+	 * @param origins    3 floats per ray, in world coords
+	 * @param directions 3 floats per ray, not necessarily unit length
+	 */
+	public void raycast(float[] origins, float[] directions, int rays, Results results) {
+		raycast(ForkJoinPool.commonPool(), origins, directions, rays, results);
+	}
+
+	public void raycast(ForkJoinPool pool, float[] origins, float[] directions, int rays, Results results) {
+		results.ensureCapacity(rays);
+		if (rays <= GRAIN) {
+			raycast(origins, directions, 0, rays, results);
+		} else {
+			ParallelFor.run(pool, 0, rays, GRAIN, (start, end) -> raycast(origins, directions, start, end, results));
+		}
+	}
+
+	private void raycast(float[] origins, float[] directions, int start, int end, Results results) {
+		RayHit hit = hits.get();
+		for (int i = start; i < end; i++) {
+			float dx = directions[i * 3], dy = directions[i * 3 + 1], dz = directions[i * 3 + 2];
+			float l = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+			dx /= l;
+			dy /= l;
+			dz /= l;
+			// see toGridCoords()
+			float sx = (origins[i * 3] - minCorner.x) / voxelSize;
+			float sy = (origins[i * 3 + 1] - minCorner.y) / voxelSize;
+			float sz = (origins[i * 3 + 2] - minCorner.z) / voxelSize;
+
+			Arrays.fill(results.normal, i * 3, i * 3 + 3, 0);
+			if (!pyramid.trace(sx, sy, sz, dx, dy, dz, hit)) {
+				results.t[i] = Float.POSITIVE_INFINITY;
+				Arrays.fill(results.voxel, i * 3, i * 3 + 3, -1);
+				results.block[i] = TerrainData.BLOCK_AIR;
+				continue;
+			}
+			results.t[i] = hit.t * voxelSize;
+			results.voxel[i * 3] = hit.x;
+			results.voxel[i * 3 + 1] = hit.y;
+			results.voxel[i * 3 + 2] = hit.z;
+			if (hit.last_step >= 0) {
+				// normal = -sign(ray) * last_step
+				float d = hit.last_step == 0 ? dx : hit.last_step == 1 ? dy : dz;
+				results.normal[i * 3 + hit.last_step] = d < 0 ? 1 : -1;
+			}
+			results.block[i] = -1;
+			if (data.block_ids != null) {
+				int tile_index = data.occupancy[data.tileIndex(hit.x >> 2, hit.y >> 2, hit.z >> 2)];
+				results.block[i] = data.block_ids[data.atlasVoxelIndex(tile_index, hit.x & 3, hit.y & 3, hit.z & 3)];
+			}
+		}
+	}
+}
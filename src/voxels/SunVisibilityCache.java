@@ -0,0 +1,575 @@
+package voxels;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import utils.ParallelFor;
+
+/**
+ * Sun visibility of the surface of the terrain, so that the sun shadows are a
+ * lookup instead of a testSunVisibility() per pixel.
+ *
+ * For each column of voxels, the voxels with at least one face next to the
+ * air are stored by increasing y, with 1 bit per exposed face telling if the
+ * sun is seen from the center of that face. The faces turned away from the
+ * sun are never lit. Each column also stores the height of its highest solid
+ * voxel: a ray towards the sun which stays above the columns it crosses is
+ * accepted without being traced.
+ *
+ * After edits, update() marks the columns whose faces may see the edited
+ * voxels, and refresh() recomputes them. A column is stable when, for any
+ * direction within maxIncrementalAngle of the sun of the last full refresh,
+ * the ray of each of its faces towards the sun either stays above the columns
+ * it may cross, so that the face stays lit, or ends in a box of solid voxels
+ * behind the hit, so that it stays shadowed. While the sun stays within that
+ * angle, setSunDir() only recomputes the columns which are not stable, and the
+ * cache is the same as a full refresh.
+ *
+ * The faces are numbered 2 * axis + 1 for the +x, +y, +z faces and 2 * axis
+ * for the -x, -y, -z faces.
+ */
+public class SunVisibilityCache {
+
+	public static final int GRAIN = 64; // columns per task
+
+	private static final int Y_SHIFT = 12; // per surface voxel: y << Y_SHIFT | exposed faces << 6 | visible faces
+	private static final int SHADOW_STEPS = 8; // distances behind the hit tried by solidInCone(), doubling from 1/32 voxel
+	private static final float MIN_SEGMENT = 0.125f; // voxels, see aboveColumnsInCone()
+
+	public final TerrainData data;
+	public final VoxelTracer tracer;
+	public final Vector3f sunDir = new Vector3f(); // unit direction towards the sun, in grid coords
+	public float maxIncrementalAngle = 0.05f; // radians
+
+	// statistics of the last refresh()
+	public int recomputedColumns;
+	public int stableColumns; // columns kept by the small moves of the sun
+	public long quickAccepts; // faces seen lit from the heights
+	public long tracedRays;
+
+	private final int W, H, D; // in voxels
+	private final int[][] columns; // for each column x + z * W: the surface voxels
+	private final short[] heights; // for each column: 1 + y of its highest solid voxel, 0 if empty
+	private short[][] dilatedHeights; // for each level l: the highest of the heights within 2^l columns
+	private final boolean[] stable; // for each column: its faces are lit or shadowed in the whole cone
+	private final boolean[] dirty;
+	private int maxHeight;
+	private final Vector3f coneDir = new Vector3f(); // the sun of the last full refresh
+	private float coneAngle;
+
+	/**
+	 * The tracer must see the edits before refresh()
+	 */
+	public SunVisibilityCache(OccupancyPyramid pyramid, Vector3fc sunDir) {
+		this(pyramid, pyramid.data, sunDir);
+	}
+
+	public SunVisibilityCache(TileDistanceField distances, Vector3fc sunDir) {
+		this(distances, distances.data, sunDir);
+	}
+
+	private SunVisibilityCache(VoxelTracer tracer, TerrainData data, Vector3fc sunDir) {
+		this.tracer = tracer;
+		this.data = data;
+		this.W = data.width * 4;
+		this.H = data.height * 4;
+		this.D = data.depth * 4;
+		this.columns = new int[W * D][];
+		this.heights = new short[W * D];
+		this.dilatedHeights = new short[0][];
+		this.stable = new boolean[W * D];
+		this.dirty = new boolean[W * D];
+		this.sunDir.set(sunDir).normalize();
+		this.coneDir.set(this.sunDir);
+		this.coneAngle = maxIncrementalAngle;
+		Arrays.fill(dirty, true);
+		refresh();
+	}
+
+	/**
+	 * @param face see the faces above
+	 * @return true if the given face is next to the air and sees the sun
+	 */
+	public boolean isVisible(int x, int y, int z, int face) {
+		if (x < 0 || z < 0 || x >= W || z >= D) {
+			return false;
+		}
+		int[] column = columns[x + z * W];
+		int i = find(column, y);
+		return i >= 0 && (column[i] & (1 << face)) != 0;
+	}
+
+	/**
+	 * @return true if the given face is next to the air
+	 */
+	public boolean isExposed(int x, int y, int z, int face) {
+		if (x < 0 || z < 0 || x >= W || z >= D) {
+			return false;
+		}
+		int[] column = columns[x + z * W];
+		int i = find(column, y);
+		return i >= 0 && (column[i] & (1 << (face + 6))) != 0;
+	}
+
+	public int height(int x, int z) {
+		return heights[x + z * W];
+	}
+
+	public long exposedFaces() {
+		long n = 0;
+		for (int[] column : columns) {
+			for (int v : column) {
+				n += Integer.bitCount((v >> 6) & 63);
+			}
+		}
+		return n;
+	}
+
+	public long visibleFaces() {
+		long n = 0;
+		for (int[] column : columns) {
+			for (int v : column) {
+				n += Integer.bitCount(v & 63);
+			}
+		}
+		return n;
+	}
+
+	public long memoryBytes() {
+		long bytes = heights.length * 2L + stable.length + dirty.length;
+		for (short[] level : dilatedHeights) {
+			bytes += level.length * 2L;
+		}
+		for (int[] column : columns) {
+			bytes += 16 + column.length * 4L;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Marks the columns whose faces may see the sun through the given voxel,
+	 * after it was added or removed. Call refresh() after the edits.
+	 */
+	public void update(int x, int y, int z) {
+		// the faces next to the voxel
+		markAround(x, z, 1);
+		if (sunDir.y <= 0.0f) {
+			return; // no face is lit
+		}
+		// the faces below the voxel, away from the sun, which is at most 1
+		// voxel wide horizontally at any height, or away from the cone if
+		// there are stable columns: the rays of the cone rise by at least
+		// coneDir.y - coneAngle per voxel and are at most coneAngle per voxel
+		// away from the ray of coneDir
+		boolean cone = coneDir.y > coneAngle;
+		Vector3fc dir = cone ? coneDir : sunDir;
+		float reach = (y + 1.0f) / (cone ? coneDir.y - coneAngle : sunDir.y);
+		int radius = cone ? (int) Math.ceil(coneAngle * reach) + 1 : 1;
+		float h = (float) Math.sqrt(dir.x() * dir.x() + dir.z() * dir.z());
+		if (h == 0.0f) {
+			markAround(x, z, radius);
+			return;
+		}
+		marchColumns(x + 0.5f, z + 0.5f, -dir.x() / h, -dir.z() / h, reach * h, radius);
+	}
+
+	/**
+	 * Changes the direction of the sun and recomputes the columns which may
+	 * have changed: the columns which are not stable while the sun stays
+	 * within maxIncrementalAngle of the last full refresh, else all of them
+	 */
+	public void setSunDir(Vector3fc dir) {
+		Vector3f next = new Vector3f(dir).normalize();
+		if (next.equals(sunDir)) {
+			return;
+		}
+		boolean sameFaces = Math.signum(next.x) == Math.signum(sunDir.x) && Math.signum(next.y) == Math.signum(sunDir.y)
+				&& Math.signum(next.z) == Math.signum(sunDir.z);
+		if (!sameFaces || coneDir.angle(next) > coneAngle || next.y <= 0.0f) {
+			coneDir.set(next);
+			coneAngle = maxIncrementalAngle;
+			Arrays.fill(dirty, true);
+		} else {
+			for (int c = 0; c < dirty.length; c++) {
+				dirty[c] |= !stable[c];
+			}
+		}
+		sunDir.set(next);
+		refresh();
+	}
+
+	/**
+	 * Recomputes the marked columns
+	 */
+	public void refresh() {
+		refresh(ForkJoinPool.commonPool());
+	}
+
+	public void refresh(ForkJoinPool pool) {
+		int n = 0;
+		for (int c = 0; c < dirty.length; c++) {
+			if (dirty[c]) {
+				n++;
+			}
+		}
+		int[] marked = new int[n];
+		n = 0;
+		for (int c = 0; c < dirty.length; c++) {
+			if (dirty[c]) {
+				marked[n++] = c;
+				dirty[c] = false;
+			}
+		}
+
+		// the heights first, as the faces of a column look at the heights of
+		// the others
+		LongAdder changedHeights = new LongAdder();
+		ParallelFor.run(pool, 0, marked.length, GRAIN, (first, last) -> {
+			for (int i = first; i < last; i++) {
+				int c = marked[i];
+				int y = H - 1;
+				while (y >= 0 && !data.testBlockSolid(c % W, y, c / W)) {
+					y--;
+				}
+				if (heights[c] != y + 1) {
+					heights[c] = (short) (y + 1);
+					changedHeights.increment();
+				}
+			}
+		});
+		int max = 0;
+		for (short h : heights) {
+			max = Math.max(max, h);
+		}
+		maxHeight = max;
+		if (changedHeights.sum() != 0 || dilatedHeights.length == 0) {
+			dilate();
+		}
+
+		LongAdder accepts = new LongAdder(), rays = new LongAdder();
+		ParallelFor.run(pool, 0, marked.length, GRAIN, (first, last) -> {
+			int[] buffer = new int[H];
+			RayHit hit = new RayHit();
+			long columnAccepts = 0, columnRays = 0;
+			for (int i = first; i < last; i++) {
+				int c = marked[i];
+				int x = c % W, z = c / W;
+				int count = 0;
+				boolean inCone = true; // the faces are lit or shadowed in the whole cone
+				for (int y = 0; y < heights[c]; y++) {
+					if (!data.testBlockSolid(x, y, z)) {
+						if (data.occupancy[data.tileIndex(x >> 2, y >> 2, z >> 2)] == TerrainData.OCCUPANCY_AIR) {
+							y |= 3; // the rest of the tile is air
+						}
+						continue;
+					}
+					int exposed = 0, visible = 0;
+					for (int face = 0; face < 6; face++) {
+						int axis = face >> 1, sign = (face & 1) * 2 - 1;
+						int nx = x + (axis == 0 ? sign : 0), ny = y + (axis == 1 ? sign : 0),
+								nz = z + (axis == 2 ? sign : 0);
+						if (data.testBlockSolid(nx, ny, nz)) {
+							continue;
+						}
+						exposed |= 1 << face;
+						if (sign * sunDir.get(axis) <= 0.0f) {
+							continue; // turned away from the sun
+						}
+						// from the center of the face, just inside the air
+						float sx = x + 0.5f + (nx - x) * 0.52f;
+						float sy = y + 0.5f + (ny - y) * 0.52f;
+						float sz = z + 0.5f + (nz - z) * 0.52f;
+						boolean lit;
+						if (inCone && aboveColumnsInCone(sx, sy, sz)) {
+							columnAccepts++;
+							lit = true;
+						} else if (aboveColumns(sx, sy, sz)) {
+							inCone = false;
+							columnAccepts++;
+							lit = true;
+						} else {
+							columnRays++;
+							lit = !tracer.trace(sx, sy, sz, sunDir.x, sunDir.y, sunDir.z, hit);
+							inCone = inCone && !lit && solidInCone(sx, sy, sz, hit.t);
+						}
+						if (lit) {
+							visible |= 1 << face;
+						}
+					}
+					if (exposed != 0) {
+						buffer[count++] = y << Y_SHIFT | exposed << 6 | visible;
+					}
+				}
+				columns[c] = Arrays.copyOf(buffer, count);
+				stable[c] = inCone;
+			}
+			accepts.add(columnAccepts);
+			rays.add(columnRays);
+		});
+		recomputedColumns = marked.length;
+		int numStable = 0;
+		for (boolean b : stable) {
+			if (b) {
+				numStable++;
+			}
+		}
+		stableColumns = numStable;
+		quickAccepts = accepts.sum();
+		tracedRays = rays.sum();
+	}
+
+	/**
+	 * Quick accept: true if the ray towards the sun stays above the highest
+	 * voxel of each column it crosses, false if it must be traced
+	 */
+	private boolean aboveColumns(float px, float py, float pz) {
+		if (sunDir.y <= 0.0f) {
+			return false;
+		}
+		int cx = (int) Math.floor(px), cz = (int) Math.floor(pz);
+		int stepX = sunDir.x > 0.0f ? 1 : -1, stepZ = sunDir.z > 0.0f ? 1 : -1;
+		float ix = 1.0f / Math.abs(sunDir.x), iz = 1.0f / Math.abs(sunDir.z);
+		float tx = (stepX > 0 ? cx + 1 - px : px - cx) * ix, tz = (stepZ > 0 ? cz + 1 - pz : pz - cz) * iz;
+		float t = 0.0f;
+		while (true) {
+			// the ray goes up, so it is the lowest where it enters the column
+			float y = py + sunDir.y * t;
+			if (y >= maxHeight || cx < 0 || cz < 0 || cx >= W || cz >= D) {
+				return true;
+			}
+			if (heights[cx + cz * W] > y) {
+				return false;
+			}
+			if (tx < tz) {
+				t = tx;
+				tx += ix;
+				cx += stepX;
+			} else {
+				t = tz;
+				tz += iz;
+				cz += stepZ;
+			}
+		}
+	}
+
+	/**
+	 * Marks the columns within the given radius of the columns crossed by the
+	 * given horizontal segment
+	 */
+	private void marchColumns(float px, float pz, float dx, float dz, float length, int radius) {
+		int cx = (int) Math.floor(px), cz = (int) Math.floor(pz);
+		int stepX = dx > 0.0f ? 1 : -1, stepZ = dz > 0.0f ? 1 : -1;
+		float ix = 1.0f / Math.abs(dx), iz = 1.0f / Math.abs(dz);
+		float tx = (stepX > 0 ? cx + 1 - px : px - cx) * ix, tz = (stepZ > 0 ? cz + 1 - pz : pz - cz) * iz;
+		float t = 0.0f;
+		while (t <= length && cx >= -radius && cz >= -radius && cx < W + radius && cz < D + radius) {
+			markAround(cx, cz, radius);
+			if (tx < tz) {
+				t = tx;
+				tx += ix;
+				cx += stepX;
+			} else {
+				t = tz;
+				tz += iz;
+				cz += stepZ;
+			}
+		}
+	}
+
+	private void markAround(int x, int z, int radius) {
+		for (int j = Math.max(0, z - radius); j <= Math.min(D - 1, z + radius); j++) {
+			for (int i = Math.max(0, x - radius); i <= Math.min(W - 1, x + radius); i++) {
+				dirty[i + j * W] = true;
+			}
+		}
+	}
+
+	/**
+	 * Quick accept for all the directions within coneAngle of coneDir: true if
+	 * their rays stay above the columns they may cross. At a distance t along
+	 * the ray of coneDir, the other rays are at most coneAngle * t away from
+	 * it, and rise by at least coneDir.y - coneAngle per voxel.
+	 */
+	private boolean aboveColumnsInCone(float px, float py, float pz) {
+		float slope = coneDir.y - coneAngle;
+		if (slope <= 0.0f) {
+			return false;
+		}
+		float top = (maxHeight - py) / slope; // all the rays are above the terrain
+		int cx = (int) Math.floor(px), cz = (int) Math.floor(pz);
+		int stepX = coneDir.x > 0.0f ? 1 : -1, stepZ = coneDir.z > 0.0f ? 1 : -1;
+		float ix = 1.0f / Math.abs(coneDir.x), iz = 1.0f / Math.abs(coneDir.z);
+		float tx = (stepX > 0 ? cx + 1 - px : px - cx) * ix, tz = (stepZ > 0 ? cz + 1 - pz : pz - cz) * iz;
+		float t = 0.0f;
+		while (t < top) {
+			float exit = Math.min(Math.min(tx, tz), top);
+			if (!aboveColumnsInCone(px, py, pz, slope, t, exit)) {
+				return false;
+			}
+			if (tx < tz) {
+				t = tx;
+				tx += ix;
+				cx += stepX;
+			} else {
+				t = tz;
+				tz += iz;
+				cz += stepZ;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The rays are the lowest at t0, and within coneAngle * t1 of the segment
+	 * [t0, t1] of the ray of coneDir until t1. The segment is split in two
+	 * while the rectangle of columns around it is too high, as the rays rise
+	 * along it.
+	 */
+	private boolean aboveColumnsInCone(float px, float py, float pz, float slope, float t0, float t1) {
+		float e = coneAngle * t1;
+		float x0 = px + coneDir.x * t0, x1 = px + coneDir.x * t1;
+		float z0 = pz + coneDir.z * t0, z1 = pz + coneDir.z * t1;
+		int i0 = (int) Math.floor(Math.min(x0, x1) - e), i1 = (int) Math.floor(Math.max(x0, x1) + e);
+		int j0 = (int) Math.floor(Math.min(z0, z1) - e), j1 = (int) Math.floor(Math.max(z0, z1) + e);
+		if (maxHeight(i0, j0, i1, j1) <= py + slope * t0) {
+			return true;
+		}
+		if (t1 - t0 <= MIN_SEGMENT) {
+			return false;
+		}
+		float mid = 0.5f * (t0 + t1);
+		return aboveColumnsInCone(px, py, pz, slope, t0, mid) && aboveColumnsInCone(px, py, pz, slope, mid, t1);
+	}
+
+	/**
+	 * @return at least the highest of the heights of the columns [i0, i1] x
+	 *         [j0, j1], exactly for the small rectangles
+	 */
+	private int maxHeight(int i0, int j0, int i1, int j1) {
+		if ((i1 - i0 + 1) * (j1 - j0 + 1) > 16) {
+			int ci = (i0 + i1) >> 1, cj = (j0 + j1) >> 1;
+			return dilatedHeight(ci, cj, Math.max(Math.max(ci - i0, i1 - ci), Math.max(cj - j0, j1 - cj)));
+		}
+		int h = 0;
+		for (int j = Math.max(0, j0); j <= Math.min(D - 1, j1); j++) {
+			for (int i = Math.max(0, i0); i <= Math.min(W - 1, i1); i++) {
+				h = Math.max(h, heights[i + j * W]);
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Shadow proof for all the directions within coneAngle of coneDir, from
+	 * the distance of the hit of the ray towards the sun: true if, a bit
+	 * further, the box around the ray of coneDir which contains the points of
+	 * all the rays at the same distance is solid. The rays start in the air,
+	 * so they all hit a voxel before that box.
+	 */
+	private boolean solidInCone(float px, float py, float pz, float hitT) {
+		for (int k = 0; k < SHADOW_STEPS; k++) {
+			float t = hitT + 0.03125f * (1 << k);
+			float r = coneAngle * t;
+			float qx = px + coneDir.x * t, qy = py + coneDir.y * t, qz = pz + coneDir.z * t;
+			if (solidBox((int) Math.floor(qx - r), (int) Math.floor(qy - r), (int) Math.floor(qz - r),
+					(int) Math.floor(qx + r), (int) Math.floor(qy + r), (int) Math.floor(qz + r))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean solidBox(int x0, int y0, int z0, int x1, int y1, int z1) {
+		for (int z = z0; z <= z1; z++) {
+			for (int y = y0; y <= y1; y++) {
+				for (int x = x0; x <= x1; x++) {
+					if (!data.testBlockSolid(x, y, z)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return at least the highest of the heights within the given radius of
+	 *         the given column, which may be outside of the terrain
+	 */
+	private int dilatedHeight(int x, int z, int radius) {
+		if (radius <= 0) {
+			return x < 0 || z < 0 || x >= W || z >= D ? 0 : heights[x + z * W];
+		}
+		int level = 32 - Integer.numberOfLeadingZeros(radius - 1); // 2^level >= radius
+		if (level >= dilatedHeights.length) {
+			return maxHeight;
+		}
+		// a column within the radius of (x, z) is within the radius of the
+		// nearest column of the terrain
+		x = Math.max(0, Math.min(W - 1, x));
+		z = Math.max(0, Math.min(D - 1, z));
+		return dilatedHeights[level][x + z * W];
+	}
+
+	/**
+	 * Recomputes the dilated heights, each level from the level below: the
+	 * square of radius 2r is covered by the 4 squares of radius r around its
+	 * corners at (+-r, +-r)
+	 */
+	private void dilate() {
+		int levels = 1;
+		while (1 << (levels - 1) < Math.max(W, D)) {
+			levels++;
+		}
+		if (dilatedHeights.length != levels) {
+			dilatedHeights = new short[levels][W * D];
+		}
+		short[] first = dilatedHeights[0];
+		for (int z = 0; z < D; z++) {
+			for (int x = 0; x < W; x++) {
+				int h = 0;
+				for (int j = Math.max(0, z - 1); j <= Math.min(D - 1, z + 1); j++) {
+					for (int i = Math.max(0, x - 1); i <= Math.min(W - 1, x + 1); i++) {
+						h = Math.max(h, heights[i + j * W]);
+					}
+				}
+				first[x + z * W] = (short) h;
+			}
+		}
+		for (int l = 1; l < levels; l++) {
+			short[] below = dilatedHeights[l - 1], level = dilatedHeights[l];
+			int r = 1 << (l - 1);
+			for (int z = 0; z < D; z++) {
+				int z0 = Math.max(0, z - r) * W, z1 = Math.min(D - 1, z + r) * W;
+				for (int x = 0; x < W; x++) {
+					int x0 = Math.max(0, x - r), x1 = Math.min(W - 1, x + r);
+					level[x + z * W] = (short) Math.max(Math.max(below[x0 + z0], below[x1 + z0]),
+							Math.max(below[x0 + z1], below[x1 + z1]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the surface voxel at y in the column, or -1
+	 */
+	private static int find(int[] column, int y) {
+		int lo = 0, hi = column.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int my = column[mid] >>> Y_SHIFT;
+			if (my < y) {
+				lo = mid + 1;
+			} else if (my > y) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+}
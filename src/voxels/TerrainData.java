@@ -0,0 +1,153 @@
+package voxels;
+
+import java.util.Arrays;
+
+/**
+ * CPU copy of the buffers written by generate.glsl. The layouts are exactly
+ * the ones of the GPU so the arrays can be uploaded as they are.
+ */
+public class TerrainData {
+
+	public static final int OCCUPANCY_AIR = -1;   // tile fully outside the terrain
+	public static final int OCCUPANCY_SOLID = -2; // tile fully inside the terrain
+
+	// block types, see definitions.glsl
+	public static final byte BLOCK_AIR = 0;
+	public static final byte BLOCK_GRASS = 1;
+	public static final byte BLOCK_DIRT = 2;
+	public static final byte BLOCK_STONE = 3;
+
+	public final int width; // number of tiles
+	public final int height;// number of tiles
+	public final int depth; // number of tiles
+	public final int maxTiles;
+	public final int atlas_tile_size;
+
+	public final int[] occupancy; // for each tile: -1, -2 or its index in the atlas
+	public final long[] compressed_occupancy; // for each super tile: 1 bit per allocated tile
+	public final long[] compressed_inside_terrain; // for each super tile: 1 bit per fully solid tile
+	public final long[] compressed_atlas; // for each allocated tile: 1 bit per solid voxel
+
+	public final int[] tiles; // for each tile: ivec4(coords, status)
+	public final TileAllocator free_tiles; // free_tiles_stack and num_free_tiles
+
+	public byte[] block_ids; // for each voxel of the atlas: its block type, null until the blocks are generated
+
+	public TerrainData(int width, int height, int depth, int maxTiles) {
+		if (width % 4 != 0 || height % 4 != 0 || depth % 4 != 0) {
+			throw new IllegalArgumentException(
+					"The world size must be a multiple of 4 tiles: " + width + "x" + height + "x" + depth);
+		}
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+
+		// same rounding as the atlas of the World
+		int N = (int) Math.ceil(Math.cbrt(maxTiles));
+		this.atlas_tile_size = N;
+		this.maxTiles = arrayLength((long) N * N * N, "tiles");
+
+		occupancy = new int[arrayLength((long) width * height * depth, "occupancy")];
+		Arrays.fill(occupancy, OCCUPANCY_AIR);
+
+		int num_compressed_blocks = (width / 4) * (height / 4) * (depth / 4);
+		compressed_occupancy = new long[num_compressed_blocks];
+		compressed_inside_terrain = new long[num_compressed_blocks];
+		compressed_atlas = new long[this.maxTiles];
+
+		tiles = new int[arrayLength(this.maxTiles * 4L, "tiles")];
+
+		free_tiles = new TileAllocator(this.maxTiles);
+	}
+
+	/**
+	 * Checks that an array of the given length can be allocated, instead of
+	 * wrapping around
+	 */
+	static int arrayLength(long length, String name) {
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many elements for the " + name + " array: " + length);
+		}
+		return (int) length;
+	}
+
+	public int numAllocatedTiles() {
+		return free_tiles.allocatedTiles();
+	}
+
+	public int tileIndex(int x, int y, int z) {
+		return x + width * (y + height * z);
+	}
+
+	/**
+	 * Index of the super tile containing the given tile in compressed_occupancy
+	 * and compressed_inside_terrain
+	 */
+	public int superTileIndex(int x, int y, int z) {
+		return (x >> 2) + (width / 4) * ((y >> 2) + (height / 4) * (z >> 2));
+	}
+
+	/**
+	 * Bit of the given tile inside its super tile mask
+	 */
+	public static int superTileBit(int x, int y, int z) {
+		return (x & 3) + (y & 3) * 4 + (z & 3) * 16;
+	}
+
+	/**
+	 * Bit of the given voxel inside its tile mask, see checkMask()
+	 */
+	public static int voxelBit(int x, int y, int z) {
+		return (x & 3) | ((y & 3) << 2) | ((z & 3) << 4);
+	}
+
+	public static int wind3D(int x, int y, int z, int S) {
+		return x + (y + z * S) * S;
+	}
+
+	public static int packivec3(int x, int y, int z) {
+		return (x & 0x3FF) | ((y & 0x3FF) << 10) | ((z & 0x3FF) << 20);
+	}
+
+	public static int unpackX(int k) {
+		return k & 0x3FF;
+	}
+
+	public static int unpackY(int k) {
+		return (k >>> 10) & 0x3FF;
+	}
+
+	public static int unpackZ(int k) {
+		return (k >>> 20) & 0x3FF;
+	}
+
+	/**
+	 * Index in block_ids of the given voxel of the given tile, the atlas being
+	 * laid out as the R8UI texture of the World: x first, then y, then z
+	 */
+	public int atlasVoxelIndex(int tile_index, int x, int y, int z) {
+		int S = atlas_tile_size;
+		int tz = tile_index / (S * S);
+		int ty = (tile_index - tz * S * S) / S;
+		int tx = tile_index - ty * S - tz * S * S;
+		return wind3D(tx * 4 + x, ty * 4 + y, tz * 4 + z, S * 4);
+	}
+
+	/**
+	 * tests if the given voxel is considered to be inside the terrain, see
+	 * testBlockSolid() in render_common.glsl
+	 */
+	public boolean testBlockSolid(int x, int y, int z) {
+		if (x < 0 || y < 0 || z < 0 || x >= width * 4 || y >= height * 4 || z >= depth * 4) {
+			return false;
+		}
+		int tile_index = occupancy[tileIndex(x >> 2, y >> 2, z >> 2)];
+		if (tile_index == OCCUPANCY_SOLID) {
+			return true;
+		} else if (tile_index == OCCUPANCY_AIR) {
+			return false;
+		}
+		long mask = compressed_atlas[tile_index];
+		return (mask & (1L << voxelBit(x, y, z))) != 0;
+	}
+}
@@ -0,0 +1,376 @@
+package voxels;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import utils.Morton;
+import utils.Noise;
+import utils.Noise3D;
+import utils.ParallelFor;
+
+/**
+ * CPU port of generate.glsl and generation.glsl. Builds the occupancy of the
+ * world without any GPU.
+ *
+ * The tiles are processed in rows of super tiles (4x4 tiles in y and z, all
+ * the tiles in x), so that each row owns its words of compressed_occupancy and
+ * compressed_inside_terrain. Tiles are allocated in a fixed order (row by row,
+ * then tile index, or the Morton order of their coords), so the result does
+ * not depend on the number of threads.
+ */
+public class TerrainGenerator {
+
+	/**
+	 * Order in which the surface tiles get their atlas slots
+	 */
+	public enum TileOrder {
+		ROW_MAJOR, // as generate.glsl: row by row, then tile index
+		MORTON, // Morton order of the tile coords, neighbours get close slots
+	}
+
+	public static final int NOISE_TEXTURE_WIDTH = 16; // Must be a power of 2
+
+	public final int width; // number of tiles
+	public final int height;// number of tiles
+	public final int depth; // number of tiles
+	public final int maxTiles;
+
+	public TileOrder tileOrder = TileOrder.ROW_MAJOR;
+
+	public final DensityFunction density;
+	private final Supplier<DensityFunction.Sampler> samplers; // the compiled density
+	private final ForkJoinPool pool;
+
+	private final float densityDenominator;
+
+	// counters of the density caches, over all the calls to generate()
+	private final LongAdder densityRequests = new LongAdder();
+	private final LongAdder densityEvaluations = new LongAdder();
+
+	/**
+	 * @param density the density over the coordinates in [-1, 1] of
+	 *                generateDensity()
+	 */
+	public TerrainGenerator(int width, int height, int depth, int maxTiles, DensityFunction density,
+			ForkJoinPool pool) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.maxTiles = maxTiles;
+		this.density = density;
+		this.samplers = density.compile();
+		this.pool = pool;
+		this.densityDenominator = 4.0f * Math.min(width, depth);
+	}
+
+	/**
+	 * @param noise the RGBA noise texture, see generateNoise()
+	 */
+	public TerrainGenerator(int width, int height, int depth, int maxTiles, Noise3D noise, ForkJoinPool pool) {
+		this(width, height, depth, maxTiles, terrainDensity(noise), pool);
+	}
+
+	public TerrainGenerator(int width, int height, int depth, int maxTiles, Noise3D noise) {
+		this(width, height, depth, maxTiles, noise, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * The RGBA noise texture of a World created with the same seed. It is
+	 * rounded to half floats, as the RGBA16F texture of the GPU.
+	 */
+	public static Noise3D generateNoise(long seed) {
+		return new Noise3D(seed, NOISE_TEXTURE_WIDTH, 4, -1.0f, 1.0f, Noise.Storage.ARRAY_HALF);
+	}
+
+	/**
+	 * The density of the terrain, 6 octaves of ridged noise warping each other
+	 * over a vertical gradient. Its GLSL is included by generation.glsl, the
+	 * noise being bound to noiseTexHandle.
+	 *
+	 * @param noise the RGBA noise texture, see generateNoise()
+	 */
+	public static DensityFunction terrainDensity(Noise3D noise) {
+		return DensityFunction.warpedRidgedFbm(DensityFunction.yGradient(1.0f, 0.5f), noise, "noiseTexHandle", 6,
+				0.4f, 0.1f, 2.453f, 1.734f, 1.5f);
+	}
+
+	/**
+	 * see generateDensity() in generation.glsl
+	 */
+	public float generateDensity(int x, int y, int z) {
+		return generateDensity(x, y, z, samplers.get());
+	}
+
+	private float generateDensity(int x, int y, int z, DensityFunction.Sampler sampler) {
+		// map voxel coordinates to [-1, 1]
+		float cx = 2.0f * (x + 0.5f) / densityDenominator - 1.0f;
+		float cy = 2.0f * (y + 0.5f) / densityDenominator - 1.0f;
+		float cz = 2.0f * (z + 0.5f) / densityDenominator - 1.0f;
+
+		return sampler.density(cx, cy, cz);
+	}
+
+	public boolean testIsInside(int x, int y, int z) {
+		return generateDensity(x, y, z) < 0.0f;
+	}
+
+	/**
+	 * Surface tiles found in one row of super tiles, in tile index order
+	 */
+	private static class SurfaceTiles {
+		int count = 0;
+		int[] tile_idx = new int[64];
+		long[] masks = new long[64];
+
+		void add(int idx, long mask) {
+			if (count == tile_idx.length) {
+				tile_idx = Arrays.copyOf(tile_idx, count * 2);
+				masks = Arrays.copyOf(masks, count * 2);
+			}
+			tile_idx[count] = idx;
+			masks[count] = mask;
+			count++;
+		}
+	}
+
+	/**
+	 * @return the number of densities read by the classification of the tiles
+	 */
+	public long getDensityRequests() {
+		return densityRequests.sum();
+	}
+
+	/**
+	 * @return the number of densities computed, each one being shared by the
+	 *         tiles reading it
+	 */
+	public long getDensityEvaluations() {
+		return densityEvaluations.sum();
+	}
+
+	/**
+	 * @return the fraction of the densities read from the cache rather than
+	 *         computed
+	 */
+	public double getDensityCacheHitRate() {
+		long requests = getDensityRequests();
+		return requests == 0 ? 0.0 : 1.0 - getDensityEvaluations() / (double) requests;
+	}
+
+	public TerrainData generate() {
+		final TerrainData data = new TerrainData(width, height, depth, maxTiles);
+		final int rows = (height / 4) * (depth / 4);
+		final SurfaceTiles[] surfaces = new SurfaceTiles[rows];
+
+		// Step 1:
+		// classify every tile, write the fully outside and fully inside ones
+		ParallelFor.run(pool, 0, rows, 1, (start, end) -> {
+			DensityFunction.Sampler sampler = samplers.get();
+			DensityCache cache = new DensityCache((x, y, z) -> generateDensity(x, y, z, sampler), width);
+			int[] occupancyCube = new int[6 * 6 * 6];
+			for (int row = start; row < end; row++) {
+				surfaces[row] = classifyRow(data, row, occupancyCube, cache);
+			}
+			densityRequests.add(cache.requests);
+			densityEvaluations.add(cache.evaluations);
+		});
+
+		// Step 2:
+		// pop the free tiles, in a fixed order
+		final int[] firstTile = new int[rows];
+		int allocated = 0;
+		for (int row = 0; row < rows; row++) {
+			firstTile[row] = allocated;
+			allocated += surfaces[row].count;
+		}
+		// rank of each surface tile in the allocation order, null for row-major
+		final int[] rank = tileOrder == TileOrder.MORTON ? mortonRanks(surfaces, allocated) : null;
+		int free = data.free_tiles.freeTiles();
+		if (allocated > free) {
+			System.out.println("Ran out of tiles: " + allocated + " / " + free);
+			allocated = free;
+		}
+		final int[] tile_indices = new int[allocated];
+		data.free_tiles.allocate(allocated, tile_indices, 0);
+
+		// Step 3:
+		// write the allocated tiles
+		ParallelFor.run(pool, 0, rows, 1, (start, end) -> {
+			for (int row = start; row < end; row++) {
+				writeAllocatedTiles(data, surfaces[row], firstTile[row], rank, tile_indices);
+			}
+		});
+
+		return data;
+	}
+
+	/**
+	 * CPU port of generateBlocks.glsl: fills data.block_ids for the voxels of
+	 * the allocated tiles.
+	 *
+	 * Instead of testing the 4 voxels above and the one below each voxel, each
+	 * column of voxels is walked once from the top, counting the solid voxels
+	 * right above the current one. The columns are processed in groups of one
+	 * row of tiles in z, each tile being written by its 16 columns only.
+	 */
+	public void generateBlocks(TerrainData data) {
+		final byte[] block_ids = new byte[TerrainData.arrayLength(data.maxTiles * 64L, "block_ids")];
+		ParallelFor.run(pool, 0, depth, 1, (start, end) -> {
+			for (int tz = start; tz < end; tz++) {
+				for (int tx = 0; tx < width; tx++) {
+					for (int lz = 0; lz < 4; lz++) {
+						for (int lx = 0; lx < 4; lx++) {
+							classifyColumn(data, block_ids, tx, tz, lx, lz);
+						}
+					}
+				}
+			}
+		});
+		data.block_ids = block_ids;
+	}
+
+	private void classifyColumn(TerrainData data, byte[] block_ids, int tx, int tz, int lx, int lz) {
+		// the voxel waiting for the one below it to be known
+		boolean pendingSolid = false; // above the world
+		int pendingIndex = -1; // index in block_ids, -1 when not in an allocated tile
+		int solidAbove = 0; // solid voxels right above the pending one, up to 3
+
+		for (int ty = height - 1; ty >= 0; ty--) {
+			int tile_index = data.occupancy[data.tileIndex(tx, ty, tz)];
+			long mask;
+			if (tile_index == TerrainData.OCCUPANCY_AIR) {
+				mask = 0L;
+			} else if (tile_index == TerrainData.OCCUPANCY_SOLID) {
+				mask = -1L;
+			} else {
+				mask = data.compressed_atlas[tile_index];
+			}
+
+			for (int ly = 3; ly >= 0; ly--) {
+				boolean solid = (mask & (1L << TerrainData.voxelBit(lx, ly, lz))) != 0;
+				if (pendingIndex >= 0) {
+					block_ids[pendingIndex] = blockType(pendingSolid, solidAbove, solid);
+				}
+				solidAbove = pendingSolid ? Math.min(solidAbove + 1, 3) : 0;
+				pendingSolid = solid;
+				pendingIndex = tile_index >= 0 ? data.atlasVoxelIndex(tile_index, lx, ly, lz) : -1;
+			}
+		}
+		if (pendingIndex >= 0) {
+			block_ids[pendingIndex] = blockType(pendingSolid, solidAbove, false); // below the world
+		}
+	}
+
+	/**
+	 * see generateBlockType() in generateBlocks.glsl
+	 */
+	private static byte blockType(boolean solid, int solidAbove, boolean solidBelow) {
+		if (!solid) {
+			return TerrainData.BLOCK_AIR;
+		}
+		if (solidAbove == 0) {
+			return solidBelow ? TerrainData.BLOCK_GRASS : TerrainData.BLOCK_STONE;
+		}
+		if (solidAbove < 3) {
+			return TerrainData.BLOCK_DIRT;
+		}
+		return TerrainData.BLOCK_STONE;
+	}
+
+	private SurfaceTiles classifyRow(TerrainData data, int row, int[] occupancyCube, DensityCache cache) {
+		SurfaceTiles surface = new SurfaceTiles();
+		int cy = row % (height / 4);
+		int cz = row / (height / 4);
+
+		cache.beginRow(cy);
+		for (int z = cz * 4; z < cz * 4 + 4; z++) {
+			cache.prepareLayer(z);
+			for (int y = cy * 4; y < cy * 4 + 4; y++) {
+				for (int x = 0; x < width; x++) {
+					int insideCount = 0;
+					long mask = 0;
+					for (int i = 0; i < 6 * 6 * 6; i++) {
+						int lz = i / 36;
+						int ly = (i / 6) % 6;
+						int lx = i % 6;
+						boolean inside = cache.density(x * 4 + lx - 1, y * 4 + ly - 1, z * 4 + lz - 1) < 0.0f;
+						insideCount += inside ? 1 : 0;
+						occupancyCube[i] = inside ? 1 : 0;
+					}
+					for (int i = 0; i < 64; i++) {
+						int lx = i & 3;
+						int ly = (i >> 2) & 3;
+						int lz = i >> 4;
+						if (occupancyCube[(lz + 1) * 36 + (ly + 1) * 6 + lx + 1] != 0) {
+							mask |= 1L << i;
+						}
+					}
+
+					int tile_idx = data.tileIndex(x, y, z);
+					if (insideCount == 0) {
+						// the tile is fully outside
+						data.occupancy[tile_idx] = TerrainData.OCCUPANCY_AIR;
+						continue;
+					}
+
+					boolean onBoundary = x == 0 || z == 0 || x == width - 1 || z == depth - 1;
+					if (insideCount == 6 * 6 * 6 && !onBoundary) {
+						// the tile is fully inside
+						data.occupancy[tile_idx] = TerrainData.OCCUPANCY_SOLID;
+						data.compressed_inside_terrain[data.superTileIndex(x, y, z)] |= 1L
+								<< TerrainData.superTileBit(x, y, z);
+						continue;
+					}
+
+					// we are neither fully inside nor outside
+					surface.add(tile_idx, mask);
+				}
+			}
+		}
+		return surface;
+	}
+
+	private int[] mortonRanks(SurfaceTiles[] surfaces, int count) {
+		long[] codes = new long[count];
+		int p = 0;
+		for (SurfaceTiles surface : surfaces) {
+			for (int i = 0; i < surface.count; i++) {
+				int tile_idx = surface.tile_idx[i];
+				int z = tile_idx / (width * height);
+				int y = (tile_idx - z * width * height) / width;
+				int x = tile_idx - z * width * height - y * width;
+				codes[p++] = Morton.encode64(x, y, z);
+			}
+		}
+		return Morton.ranks(codes, count);
+	}
+
+	private void writeAllocatedTiles(TerrainData data, SurfaceTiles surface, int firstTile, int[] rank,
+			int[] tile_indices) {
+		for (int i = 0; i < surface.count; i++) {
+			int k = rank == null ? firstTile + i : rank[firstTile + i];
+			if (k >= tile_indices.length) {
+				// we ran out of space, the tile stays empty
+				continue;
+			}
+			int tile_index = tile_indices[k];
+			int tile_idx = surface.tile_idx[i];
+			int z = tile_idx / (width * height);
+			int y = (tile_idx - z * width * height) / width;
+			int x = tile_idx - z * width * height - y * width;
+
+			data.compressed_atlas[tile_index] = surface.masks[i];
+
+			data.tiles[tile_index * 4 + 0] = x;
+			data.tiles[tile_index * 4 + 1] = y;
+			data.tiles[tile_index * 4 + 2] = z;
+			data.tiles[tile_index * 4 + 3] = 1;
+
+			data.occupancy[tile_idx] = tile_index;
+
+			data.compressed_occupancy[data.superTileIndex(x, y, z)] |= 1L << TerrainData.superTileBit(x, y, z);
+		}
+	}
+}
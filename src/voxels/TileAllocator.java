@@ -0,0 +1,254 @@
+package voxels;
+
+import static org.lwjgl.opengl.GL46C.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.lwjgl.system.MemoryUtil;
+
+import utils.BindlessBuffer;
+
+/**
+ * CPU copy of free_tiles_stack and num_free_tiles, see stack_pop() in
+ * definitions.glsl. The layout is exactly the one of the GPU: the free tile
+ * indices are in stack[0, count[, the top being stack[count - 1], and a slot
+ * that was popped holds -1.
+ *
+ * Allocating and freeing are lock-free on the count: a thread reserves its
+ * slots with a single compare-and-swap of the count, so a batch of n tiles
+ * costs the same contention as a single tile. Each slot is then handed over
+ * through -1: a pop waits for the slot to be filled and a push waits for it
+ * to be emptied, which only happens when a push and a pop race on the same
+ * slot. Both walk their slots upwards, so a thread only ever waits for a
+ * thread working on a lower slot and the waits cannot form a cycle.
+ */
+public class TileAllocator {
+
+	private static final VarHandle COUNT;
+	private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(int[].class);
+
+	static {
+		try {
+			COUNT = MethodHandles.lookup().findVarHandle(TileAllocator.class, "count", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	public final int maxTiles;
+	private final int[] stack;
+	private volatile int count;
+
+	private final LongAdder failedAllocations = new LongAdder();
+
+	/**
+	 * All the tiles are free, in decreasing order: M-1, M-2, ..., 0, as
+	 * initialized by the World
+	 */
+	public TileAllocator(int maxTiles) {
+		this.maxTiles = maxTiles;
+		this.stack = new int[maxTiles];
+		for (int i = 0; i < maxTiles; i++) {
+			stack[i] = maxTiles - 1 - i;
+		}
+		this.count = maxTiles;
+	}
+
+	/**
+	 * Wraps the given stack, for instance read back from the GPU
+	 */
+	public TileAllocator(int[] stack, int count) {
+		if (count < 0 || count > stack.length) {
+			throw new IllegalArgumentException("Invalid number of free tiles: " + count + " / " + stack.length);
+		}
+		this.maxTiles = stack.length;
+		this.stack = stack;
+		this.count = count;
+	}
+
+	/**
+	 * @return the number of free tiles
+	 */
+	public int freeTiles() {
+		return count;
+	}
+
+	public int allocatedTiles() {
+		return maxTiles - count;
+	}
+
+	/**
+	 * @return the number of allocations that failed because there were not
+	 *         enough free tiles
+	 */
+	public long getFailedAllocations() {
+		return failedAllocations.sum();
+	}
+
+	/**
+	 * The stack itself, as uploaded to free_tiles_stack. It is only
+	 * consistent when no allocation is running.
+	 */
+	public int[] stack() {
+		return stack;
+	}
+
+	/**
+	 * Replaces the free tiles by free_tiles[0, n[, the last one being the next
+	 * to be allocated. No allocation must be running.
+	 */
+	public void reset(int[] free_tiles, int n) {
+		if (n > maxTiles) {
+			throw new IllegalArgumentException("Too many free tiles: " + n + " / " + maxTiles);
+		}
+		System.arraycopy(free_tiles, 0, stack, 0, n);
+		Arrays.fill(stack, n, maxTiles, -1);
+		count = n;
+	}
+
+	/**
+	 * @return the index of a free tile, or -1 if there are none
+	 */
+	public int allocate() {
+		int top = reserve(1);
+		return top < 0 ? -1 : take(top);
+	}
+
+	/**
+	 * Allocates n tiles at once, in the order of n calls to allocate(). Like
+	 * stack_pop(), either all the tiles are allocated or none.
+	 *
+	 * @return false if there are less than n free tiles
+	 */
+	public boolean allocate(int n, int[] dest, int offset) {
+		if (n == 0) {
+			return true;
+		}
+		int first = reserve(n);
+		if (first < 0) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			dest[offset + n - 1 - i] = take(first + i);
+		}
+		return true;
+	}
+
+	/**
+	 * Gives back a tile returned by allocate()
+	 */
+	public void free(int tile_index) {
+		checkTileIndex(tile_index);
+		put(push(1), tile_index);
+	}
+
+	/**
+	 * Gives back n tiles at once, the last one being the next to be allocated
+	 */
+	public void free(int n, int[] tile_indices, int offset) {
+		if (n == 0) {
+			return;
+		}
+		for (int i = 0; i < n; i++) {
+			checkTileIndex(tile_indices[offset + i]);
+		}
+		int first = push(n);
+		for (int i = 0; i < n; i++) {
+			put(first + i, tile_indices[offset + i]);
+		}
+	}
+
+	/**
+	 * Removes n slots from the top of the stack
+	 *
+	 * @return the first removed slot, or -1 if there are less than n slots
+	 */
+	private int reserve(int n) {
+		int old_count = count;
+		while (true) {
+			if (old_count < n) {
+				failedAllocations.increment();
+				return -1;
+			}
+			int witness = (int) COUNT.compareAndExchange(this, old_count, old_count - n);
+			if (witness == old_count) {
+				return old_count - n;
+			}
+			old_count = witness;
+		}
+	}
+
+	/**
+	 * Adds n slots to the top of the stack
+	 *
+	 * @return the first added slot
+	 */
+	private int push(int n) {
+		int old_count = count;
+		while (true) {
+			if (old_count > maxTiles - n) {
+				throw new IllegalStateException(
+						"More tiles freed than allocated: " + old_count + " + " + n + " / " + maxTiles);
+			}
+			int witness = (int) COUNT.compareAndExchange(this, old_count, old_count + n);
+			if (witness == old_count) {
+				return old_count;
+			}
+			old_count = witness;
+		}
+	}
+
+	private int take(int slot) {
+		while (true) {
+			int tile_index = (int) SLOT.getVolatile(stack, slot);
+			// write -1 to show that the tile is no longer available
+			if (tile_index != -1 && SLOT.compareAndSet(stack, slot, tile_index, -1)) {
+				return tile_index;
+			}
+			Thread.onSpinWait(); // a free() reserved the slot but did not fill it yet
+		}
+	}
+
+	private void put(int slot, int tile_index) {
+		while (!SLOT.compareAndSet(stack, slot, -1, tile_index)) {
+			Thread.onSpinWait(); // an allocate() reserved the slot but did not empty it yet
+		}
+	}
+
+	private void checkTileIndex(int tile_index) {
+		if (tile_index < 0 || tile_index >= maxTiles) {
+			throw new IllegalArgumentException("Invalid tile index: " + tile_index + " / " + maxTiles);
+		}
+	}
+
+	/**
+	 * Copies the stack and the count to the buffers of the World, no
+	 * allocation must be running
+	 */
+	public void upload(BindlessBuffer free_tiles_stack, BindlessBuffer num_free_tiles) {
+		ByteBuffer buff = MemoryUtil.memAlloc(maxTiles * Integer.BYTES);
+		buff.asIntBuffer().put(stack);
+		free_tiles_stack.upload(0, buff);
+		buff.clear().putInt(count).flip();
+		num_free_tiles.upload(0, buff);
+		MemoryUtil.memFree(buff);
+	}
+
+	/**
+	 * Reads back the stack and the count from the buffers of the World, after
+	 * the GPU allocated or freed tiles
+	 */
+	public static TileAllocator download(BindlessBuffer free_tiles_stack, BindlessBuffer num_free_tiles,
+			int maxTiles) {
+		int[] stack = new int[maxTiles];
+		int[] count = new int[1];
+		glMemoryBarrier(GL_BUFFER_UPDATE_BARRIER_BIT);
+		glGetNamedBufferSubData(free_tiles_stack.ID, 0, stack);
+		glGetNamedBufferSubData(num_free_tiles.ID, 0, count);
+		return new TileAllocator(stack, count[0]);
+	}
+}
@@ -0,0 +1,235 @@
+package voxels;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+import utils.BindlessBuffer;
+
+/**
+ * Sparse replacement of the dense occupancy: an open addressing hash map from
+ * the coords of the allocated tiles to their index in the atlas, behind the
+ * per super tile masks compressed_occupancy and compressed_inside_terrain. A
+ * tile whose bit is not set in compressed_occupancy never probes the map, it
+ * is solid or air according to compressed_inside_terrain.
+ *
+ * The entries are stored as the GPU reads them, see tile_directory.glsl: one
+ * ivec4(coords, tile_index) per slot, tile_index being -1 in the empty slots.
+ * The map uses linear probing, with a power of 2 capacity at most 3/4 full.
+ * The memory is 21 to 43 bytes per allocated tile plus 2 bits per tile of the
+ * world, instead of 4 bytes per tile of the world.
+ */
+public class TileDirectory {
+
+	public static final int EMPTY = -1;
+
+	public final int width; // number of tiles
+	public final int height;// number of tiles
+	public final int depth; // number of tiles
+
+	public final long[] compressed_occupancy; // for each super tile: 1 bit per allocated tile
+	public final long[] compressed_inside_terrain; // for each super tile: 1 bit per fully solid tile
+
+	private int[] entries; // for each slot: ivec4(coords, tile_index)
+	private int mask; // capacity - 1
+	private int size = 0;
+
+	public TileDirectory(int width, int height, int depth, int expectedTiles) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		int num_compressed_blocks = (width / 4) * (height / 4) * (depth / 4);
+		this.compressed_occupancy = new long[num_compressed_blocks];
+		this.compressed_inside_terrain = new long[num_compressed_blocks];
+		allocate(capacityFor(expectedTiles));
+	}
+
+	/**
+	 * The directory of the allocated tiles of the given terrain, sharing its
+	 * super tile masks
+	 */
+	public TileDirectory(TerrainData data) {
+		this.width = data.width;
+		this.height = data.height;
+		this.depth = data.depth;
+		this.compressed_occupancy = data.compressed_occupancy;
+		this.compressed_inside_terrain = data.compressed_inside_terrain;
+		allocate(capacityFor(data.numAllocatedTiles()));
+		for (int i = 0; i < data.maxTiles; i++) {
+			if (data.tiles[i * 4 + 3] != 0) {
+				insert(data.tiles[i * 4], data.tiles[i * 4 + 1], data.tiles[i * 4 + 2], i);
+			}
+		}
+	}
+
+	private static int capacityFor(int tiles) {
+		int capacity = 16;
+		while (3L * capacity < 4L * tiles) {
+			if (capacity >= 1 << 29) {
+				throw new IllegalArgumentException("Too many tiles for the directory: " + tiles);
+			}
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		entries = new int[capacity * 4];
+		for (int slot = 0; slot < capacity; slot++) {
+			entries[slot * 4 + 3] = EMPTY;
+		}
+		mask = capacity - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @return the bytes used by the map and the super tile masks
+	 */
+	public long memoryBytes() {
+		return (long) entries.length * Integer.BYTES + 2L * compressed_occupancy.length * Long.BYTES;
+	}
+
+	/**
+	 * see tileHash() in tile_directory.glsl
+	 */
+	static int hash(int x, int y, int z) {
+		int h = x * 0x8DA6B343 ^ y * 0xD8163841 ^ z * 0xCB1AB31F;
+		// murmur3 finalizer
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * @return the slot holding the given tile, or the empty slot ending its
+	 *         probe sequence
+	 */
+	private int find(int x, int y, int z) {
+		int slot = hash(x, y, z) & mask;
+		while (true) {
+			int e = slot * 4;
+			if (entries[e + 3] == EMPTY || (entries[e] == x && entries[e + 1] == y && entries[e + 2] == z)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return the atlas index of the given tile, or -1 if it is not allocated
+	 */
+	public int get(int x, int y, int z) {
+		return entries[find(x, y, z) * 4 + 3];
+	}
+
+	/**
+	 * Same code as the dense occupancy: -1 (air), -2 (solid) or the atlas
+	 * index of the tile
+	 */
+	public int occupancy(int x, int y, int z) {
+		int super_tile = (x >> 2) + (width / 4) * ((y >> 2) + (height / 4) * (z >> 2));
+		long bit = 1L << TerrainData.superTileBit(x, y, z);
+		if ((compressed_occupancy[super_tile] & bit) != 0) {
+			return get(x, y, z);
+		}
+		return (compressed_inside_terrain[super_tile] & bit) != 0 ? TerrainData.OCCUPANCY_SOLID
+				: TerrainData.OCCUPANCY_AIR;
+	}
+
+	/**
+	 * Maps the given tile to an atlas index and sets its allocated bit
+	 */
+	public void put(int x, int y, int z, int tile_index) {
+		if (tile_index < 0) {
+			throw new IllegalArgumentException("Invalid tile index: " + tile_index);
+		}
+		insert(x, y, z, tile_index);
+		int super_tile = (x >> 2) + (width / 4) * ((y >> 2) + (height / 4) * (z >> 2));
+		compressed_occupancy[super_tile] |= 1L << TerrainData.superTileBit(x, y, z);
+	}
+
+	private void insert(int x, int y, int z, int tile_index) {
+		if (4L * (size + 1) > 3L * capacity()) {
+			grow();
+		}
+		int e = find(x, y, z) * 4;
+		if (entries[e + 3] == EMPTY) {
+			size++;
+		}
+		entries[e] = x;
+		entries[e + 1] = y;
+		entries[e + 2] = z;
+		entries[e + 3] = tile_index;
+	}
+
+	private void grow() {
+		int[] old = entries;
+		allocate(capacity() * 2);
+		size = 0;
+		for (int e = 0; e < old.length; e += 4) {
+			if (old[e + 3] != EMPTY) {
+				insert(old[e], old[e + 1], old[e + 2], old[e + 3]);
+			}
+		}
+	}
+
+	/**
+	 * Removes the given tile and clears its allocated bit
+	 *
+	 * @return the atlas index of the tile, or -1 if it was not allocated
+	 */
+	public int remove(int x, int y, int z) {
+		int slot = find(x, y, z);
+		int tile_index = entries[slot * 4 + 3];
+		if (tile_index == EMPTY) {
+			return EMPTY;
+		}
+		int super_tile = (x >> 2) + (width / 4) * ((y >> 2) + (height / 4) * (z >> 2));
+		compressed_occupancy[super_tile] &= ~(1L << TerrainData.superTileBit(x, y, z));
+
+		// shift back the entries of the probe sequence, so that no empty slot
+		// is left between an entry and its home slot
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (entries[next * 4 + 3] != EMPTY) {
+			int n = next * 4;
+			int home = hash(entries[n], entries[n + 1], entries[n + 2]) & mask;
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				System.arraycopy(entries, n, entries, hole * 4, 4);
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		entries[hole * 4 + 3] = EMPTY;
+		size--;
+		return tile_index;
+	}
+
+	/**
+	 * The entries, as uploaded, see tile_directory.glsl
+	 */
+	public int[] entries() {
+		return entries;
+	}
+
+	/**
+	 * @return a buffer of ivec4, to be read with lookupTileDirectory()
+	 */
+	public BindlessBuffer upload() {
+		ByteBuffer buff = MemoryUtil.memAlloc(entries.length * Integer.BYTES);
+		buff.asIntBuffer().put(entries);
+		BindlessBuffer buffer = new BindlessBuffer(buff.capacity(), 0, buff);
+		MemoryUtil.memFree(buff);
+		return buffer;
+	}
+}
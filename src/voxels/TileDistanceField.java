@@ -0,0 +1,172 @@
+package voxels;
+
+/**
+ * For each tile of a terrain, the Chebyshev distance in tiles to the nearest
+ * allocated tile, on 8 bits: 0 for an allocated tile, 255 for 255 tiles or
+ * more. A tile at distance d is the center of a cube of 2d-1 empty tiles, so
+ * a ray can jump to the side of that cube in one iteration, instead of the 16
+ * voxels of testOccupancy().
+ *
+ * The distances are computed by a breadth first search from the allocated
+ * tiles over the 26 neighbours, and repaired around the tiles given to
+ * update() after edits.
+ */
+public class TileDistanceField extends GridTracer {
+
+	public static final int MAX_DISTANCE = 255;
+
+	public final TerrainData data;
+	public final byte[] distances; // for each tile, see TerrainData.tileIndex()
+
+	private int[] queue;
+
+	public TileDistanceField(TerrainData data) {
+		super(data.width * 4, data.height * 4, data.depth * 4);
+		this.data = data;
+		this.distances = new byte[data.occupancy.length];
+		this.queue = new int[1024];
+		rebuild();
+	}
+
+	public int distance(int x, int y, int z) {
+		return distances[data.tileIndex(x, y, z)] & 0xFF;
+	}
+
+	/**
+	 * Recomputes all the distances
+	 */
+	public void rebuild() {
+		int tail = 0;
+		for (int i = 0; i < distances.length; i++) {
+			if (data.occupancy[i] >= 0) {
+				distances[i] = 0;
+				tail = push(tail, i);
+			} else {
+				distances[i] = (byte) MAX_DISTANCE;
+			}
+		}
+		propagate(0, tail);
+	}
+
+	/**
+	 * Repairs the distances after the given tile was allocated or freed in
+	 * data.occupancy
+	 */
+	public void update(int x, int y, int z) {
+		int tile = data.tileIndex(x, y, z);
+		boolean allocated = data.occupancy[tile] >= 0;
+		if (allocated == (distances[tile] == 0)) {
+			return;
+		}
+		if (allocated) {
+			distances[tile] = 0;
+			push(0, tile);
+			propagate(0, 1);
+			return;
+		}
+
+		// forget the distances which may come from the freed tile, then
+		// propagate again from the tiles around them
+		distances[tile] = (byte) MAX_DISTANCE;
+		int tail = push(0, tile);
+		for (int head = 0; head < tail; head++) {
+			int p = queue[head];
+			int px = p % data.width, py = (p / data.width) % data.height, pz = p / (data.width * data.height);
+			for (int dz = -1; dz <= 1; dz++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						int qx = px + dx, qy = py + dy, qz = pz + dz;
+						if (!inside(qx, qy, qz)) {
+							continue;
+						}
+						int q = data.tileIndex(qx, qy, qz);
+						int d = distances[q] & 0xFF;
+						int chebyshev = Math.max(Math.abs(qx - x), Math.max(Math.abs(qy - y), Math.abs(qz - z)));
+						if (d != 0 && d != MAX_DISTANCE && d == chebyshev) {
+							distances[q] = (byte) MAX_DISTANCE;
+							tail = push(tail, q);
+						}
+					}
+				}
+			}
+		}
+		int forgotten = tail;
+		for (int i = 0; i < forgotten; i++) {
+			int p = queue[i];
+			int px = p % data.width, py = (p / data.width) % data.height, pz = p / (data.width * data.height);
+			for (int dz = -1; dz <= 1; dz++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						int qx = px + dx, qy = py + dy, qz = pz + dz;
+						if (inside(qx, qy, qz) && (distances[data.tileIndex(qx, qy, qz)] & 0xFF) != MAX_DISTANCE) {
+							tail = push(tail, data.tileIndex(qx, qy, qz));
+						}
+					}
+				}
+			}
+		}
+		propagate(forgotten, tail);
+	}
+
+	private boolean inside(int x, int y, int z) {
+		return x >= 0 && y >= 0 && z >= 0 && x < data.width && y < data.height && z < data.depth;
+	}
+
+	private int push(int tail, int tile) {
+		if (tail == queue.length) {
+			int[] larger = new int[queue.length * 2];
+			System.arraycopy(queue, 0, larger, 0, tail);
+			queue = larger;
+		}
+		queue[tail] = tile;
+		return tail + 1;
+	}
+
+	/**
+	 * Breadth first search from the tiles of the queue in [head, tail[, in
+	 * increasing order of distance
+	 */
+	private void propagate(int head, int tail) {
+		// the seeds of a repair are not sorted, so a tile may be lowered again
+		// after it was visited
+		while (head < tail) {
+			int p = queue[head++];
+			int d = (distances[p] & 0xFF) + 1;
+			if (d >= MAX_DISTANCE) {
+				continue;
+			}
+			int px = p % data.width, py = (p / data.width) % data.height, pz = p / (data.width * data.height);
+			for (int dz = -1; dz <= 1; dz++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						int qx = px + dx, qy = py + dy, qz = pz + dz;
+						if (!inside(qx, qy, qz)) {
+							continue;
+						}
+						int q = data.tileIndex(qx, qy, qz);
+						if ((distances[q] & 0xFF) > d) {
+							distances[q] = (byte) d;
+							tail = push(tail, q);
+						}
+					}
+				}
+			}
+		}
+	}
+	/**
+	 * Outside of the terrain and in the allocated tiles as testOccupancy() in
+	 * render_common.glsl, elsewhere the side of the cube of empty tiles
+	 */
+	protected int skip(int x, int y, int z) {
+		if (x < 0 || y < 0 || z < 0 || x >= W || y >= H || z >= D) {
+			return jump(1, 4);
+		}
+		int tile = data.tileIndex(x >> 2, y >> 2, z >> 2);
+		int d = distances[tile] & 0xFF;
+		if (d != 0) {
+			return jump(d, 2);
+		}
+		int tile_index = data.occupancy[tile];
+		return (data.compressed_atlas[tile_index] & (1L << TerrainData.voxelBit(x, y, z))) != 0 ? 0 : jump(1, 0);
+	}
+}
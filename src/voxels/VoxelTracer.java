@@ -0,0 +1,16 @@
+package voxels;
+
+/**
+ * A CPU traversal of the terrain, in grid coords, see trace() in
+ * render_common.glsl
+ */
+public interface VoxelTracer {
+
+	/**
+	 * Finds the first solid voxel along the given ray
+	 *
+	 * @param ray must be unit length
+	 * @return true if a voxel was hit
+	 */
+	boolean trace(float startX, float startY, float startZ, float rayX, float rayY, float rayZ, RayHit hit);
+}
@@ -2,6 +2,8 @@ package voxels;
 
 import utils.BindlessBuffer;
 import utils.Camera;
+import utils.Noise;
+import utils.Noise3D;
 import utils.Query;
 import utils.QueryBuffer;
 import utils.Shader;
@@ -17,7 +19,6 @@ import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Random;
 
 import org.joml.Matrix3f;
 import org.joml.Matrix4f;
@@ -54,6 +55,10 @@ public class World {
 			this.metallic = metallic;
 		}
 		
+		Vector3fc albedo() {
+			return albedo;
+		}
+		
 		private byte toUINT8(float f) {
 			return (byte)(((int)(f * 255.0f)) & 0xFF);
 		}
@@ -81,6 +86,8 @@ public class World {
 	
 	public boolean ShouldUpdateProbes = false;
 	
+	public final long seed;
+	
 	public int width; // number of tiles
 	public int height;// number of tiles
 	public int depth; // number of tiles
@@ -106,6 +113,9 @@ public class World {
 
 	public Texture3D noiseTexture;
 	public Texture3D noiseColorsTexture;
+	public Noise3D noise;       // CPU side of noiseTexture
+	public Noise3D colorNoise;  // CPU side of noiseColorsTexture
+	public DensityFunction density; // density of the terrain, its GLSL is included by generation.glsl
 
 	public BindlessBuffer compressed_occupancy;
 	public BindlessBuffer compressed_atlas;
@@ -118,6 +128,10 @@ public class World {
 	public int num_free_tiles_cpu;
 	public BindlessBuffer performanceCounters;
 
+	public Raycaster raycaster; // CPU ray queries, null unless the terrain was generated on the CPU
+	private final float[] pickOrigin = new float[3];
+	private final float[] pickDirection = new float[3];
+
 	public BindlessBuffer valid_probes_for_raytracing;
 	public BindlessBuffer valid_probes_for_rendering;
 	public BindlessBuffer num_valid_probes_for_rendering_and_raytracing;
@@ -177,12 +191,22 @@ public class World {
 	public ArrayList<QueryBuffer> timer = new ArrayList<>(RenderOperations.values().length);
 
 	public World(float voxelSize, int width, int height, int depth, int maxTiles) {
+		this(System.currentTimeMillis(), voxelSize, width, height, depth, maxTiles);
+	}
+
+	/**
+	 * @param seed the seed of the noise textures, the same seed always gives
+	 *             the same world
+	 */
+	public World(long seed, float voxelSize, int width, int height, int depth, int maxTiles) {
+		this.seed = seed;
 		this.width = width;
 		this.height = height;
 		this.depth = depth;
 		
-		System.out.println("Creating world with size: " + width + "x" + height + "x" + depth + " tiles.");
-		System.out.println("Sparsity: " + maxTiles + " / " + width*height*depth + " = " + maxTiles / (float)(width*height*depth));
+		System.out.println("Creating world with size: " + width + "x" + height + "x" + depth + " tiles, seed: " + seed);
+		final long worldTiles = (long) width * height * depth;
+		System.out.println("Sparsity: " + maxTiles + " / " + worldTiles + " = " + maxTiles / (float) worldTiles);
 
 		this.minCorner = new Vector3f(width, height, depth).mul(voxelSize * -0.5f);
 		this.voxelSize = voxelSize;
@@ -197,17 +221,22 @@ public class World {
 		probes_occupancy.clear(-1);
 
 		int num_compressed_blocks = (width / 4) * (height / 4) * (depth / 4);
-		compressed_occupancy = new BindlessBuffer(num_compressed_blocks * Long.BYTES, 0);
-		compressed_inside_terrain = new BindlessBuffer(num_compressed_blocks * Long.BYTES, 0);
+		compressed_occupancy = new BindlessBuffer((long) num_compressed_blocks * Long.BYTES, 0);
+		compressed_inside_terrain = new BindlessBuffer((long) num_compressed_blocks * Long.BYTES, 0);
 
+		// all the sizes in bytes are computed with longs, the tile indices
+		// must fit in the int of the occupancy
 		int N = (int) Math.ceil(Math.cbrt(maxTiles));
+		if ((long) N * N * N > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many tiles: " + maxTiles);
+		}
 		this.maxTiles = maxTiles = N * N * N;
 
 		block_ids = new Texture3D(GL_R8UI, GL_RED_INTEGER, GL_UNSIGNED_BYTE, N * 4, N * 4, N * 4);
-		compressed_atlas = new BindlessBuffer(this.maxTiles * Long.BYTES, 0);
+		compressed_atlas = new BindlessBuffer((long) this.maxTiles * Long.BYTES, 0);
 		
 
-		int sizeofIvec4 = 4 * Integer.BYTES;
+		long sizeofIvec4 = 4 * Integer.BYTES;
 		tiles = new BindlessBuffer(maxTiles * sizeofIvec4, 0);
 		probes = new BindlessBuffer(maxTiles * sizeofIvec4, 0);
 		
@@ -219,7 +248,7 @@ public class World {
 				(int) (2*Math.ceil(Math.sqrt(maxTiles))), (int) (2*Math.ceil(Math.sqrt(maxTiles))), 32, 
 				GL_LINEAR, GL_LINEAR, GL_REPEAT);
 		
-		probes_values = new BindlessBuffer(this.maxTiles * 16 * 4 * 2, 0); // 16 coeffs, RGBA16F
+		probes_values = new BindlessBuffer((long) this.maxTiles * 16 * 4 * 2, 0); // 16 coeffs, RGBA16F
 		{
 			ByteBuffer rays = MemoryUtil.memAlloc(SAMPLES_PER_PROBE * 4 * Float.BYTES);
 			for(int i=0; i<SAMPLES_PER_PROBE; i++) {
@@ -245,12 +274,12 @@ public class World {
 		// 84 16 6 9 -1 -1 -1 -1 -1 -1 ....
 		// init array with all indices in decreasing order
 		// M-1, M-2, ..., 0
-		ByteBuffer indices = MemoryUtil.memAlloc(maxTiles * Integer.BYTES);
+		ByteBuffer indices = MemoryUtil.memAlloc(Math.multiplyExact(maxTiles, Integer.BYTES));
 		for (int i = maxTiles - 1; i >= 0; i--) {
 			indices.putInt(i);
 		}
-		free_tiles_stack = new BindlessBuffer(maxTiles * Integer.BYTES, 0, indices.flip());
-		free_probes_stack = new BindlessBuffer(maxTiles * Integer.BYTES, 0, indices);
+		free_tiles_stack = new BindlessBuffer((long) maxTiles * Integer.BYTES, 0, indices.flip());
+		free_probes_stack = new BindlessBuffer((long) maxTiles * Integer.BYTES, 0, indices);
 		MemoryUtil.memFree(indices);
 
 		// init as [M]
@@ -264,14 +293,16 @@ public class World {
 		block_types_buffer = new BindlessBuffer(blocks_buff.capacity(), 0, blocks_buff.flip());
 		MemoryUtil.memFree(blocks_buff);
 		
-		valid_probes_for_raytracing = new BindlessBuffer(maxTiles * Integer.BYTES, 0);
-		valid_probes_for_rendering = new BindlessBuffer(maxTiles * Integer.BYTES, 0);
+		valid_probes_for_raytracing = new BindlessBuffer((long) maxTiles * Integer.BYTES, 0);
+		valid_probes_for_rendering = new BindlessBuffer((long) maxTiles * Integer.BYTES, 0);
 		num_valid_probes_for_rendering_and_raytracing = new BindlessBuffer(2 * Integer.BYTES, GL_MAP_READ_BIT);
 		
 		
 		prepareWorldUBO();
-		loadShaders();
 		generateNoiseTextures();
+		density = TerrainGenerator.terrainDensity(noise);
+		Shader.defineHeader("/density.glsl", density.toGLSL("terrainDensity"));
+		loadShaders();
 
 		quad = new VAO();
 		quad.bind();
@@ -344,29 +375,53 @@ public class World {
 		return new Vector3f(voxelCoords).mul(voxelSize).add(minCorner);
 	}
 
+	/**
+	 * Traces the given rays on the CPU, see Raycaster
+	 *
+	 * @param origins    3 floats per ray, in world coords
+	 * @param directions 3 floats per ray
+	 */
+	public void raycast(float[] origins, float[] directions, int rays, Raycaster.Results results) {
+		if (raycaster == null) {
+			throw new IllegalStateException("The terrain is not on the CPU, see generate(TerrainData)");
+		}
+		raycaster.raycast(origins, directions, rays, results);
+	}
+
+	/**
+	 * Traces the ray under the mouse, see Camera.getMouseNDC()
+	 *
+	 * @return true if the mouse is on a voxel, written as the ray 0 of the
+	 *         results
+	 */
+	public boolean pick(Camera camera, Raycaster.Results results) {
+		var P = camera.getProjectionMatrix();
+		var ndc = camera.getMouseNDC();
+		var pos = camera.getCameraPos();
+		Vector3f dir = new Vector3f(ndc.x() / P.m00(), ndc.y() / P.m11(), -1.0f);
+		camera.getInvViewMatrix().transformDirection(dir);
+		pickOrigin[0] = pos.x();
+		pickOrigin[1] = pos.y();
+		pickOrigin[2] = pos.z();
+		pickDirection[0] = dir.x;
+		pickDirection[1] = dir.y;
+		pickDirection[2] = dir.z;
+		raycast(pickOrigin, pickDirection, 1, results);
+		return results.isHit(0);
+	}
+
 	private void generateNoiseTextures() {
 		final int noise_width = 16;
 		noiseTexture = new Texture3D(GL_RGBA16F, GL_RED, GL_FLOAT, noise_width, noise_width, noise_width, GL_LINEAR, GL_LINEAR, GL_REPEAT);
 		noiseColorsTexture = new Texture3D(GL_RGBA16F, GL_RGBA, GL_FLOAT, noise_width, noise_width, noise_width, GL_LINEAR, GL_LINEAR, GL_REPEAT);
 
-		Random random = new Random(System.currentTimeMillis());
-		float maxValue = 1f, minValue = -1f;
-		float amplitude = maxValue - minValue;
-		int length = noise_width * noise_width * noise_width * 4 * 4;
-		ByteBuffer noiseBuff = MemoryUtil.memAlloc(length);
-		for (int i = 0; i < length / 4; i++) {
-			noiseBuff.putFloat(amplitude * random.nextFloat() + minValue);
-		}
-		noiseTexture.uploadData(noiseBuff.flip(), GL_RGBA, GL_FLOAT);
-		MemoryUtil.memFree(noiseBuff);
-
-		ByteBuffer color_noise = MemoryUtil.memAlloc(noise_width * noise_width * noise_width * 4 * 4);
-		for (int i = 0; i < length / 4; i++) {
-			color_noise.putFloat(random.nextFloat()*1.0f);
-		}
-		noiseColorsTexture.uploadData(color_noise.flip(), GL_RGBA, GL_FLOAT);
-		MemoryUtil.memFree(color_noise);
+		// same values as TerrainGenerator.generateNoise(seed)
+		// the half floats are uploaded as they are, the GPU and the CPU sample the same values
+		noise = new Noise3D(seed, noise_width, 4, -1.0f, 1.0f, Noise.Storage.DIRECT_HALF);
+		noiseTexture.uploadData(noise.getDirectBuffer(), GL_RGBA, GL_HALF_FLOAT);
 
+		colorNoise = new Noise3D(~seed, noise_width, 4, 0.0f, 1.0f, Noise.Storage.DIRECT_HALF);
+		noiseColorsTexture.uploadData(colorNoise.getDirectBuffer(), GL_RGBA, GL_HALF_FLOAT);
 	}
 
 	/**
@@ -448,9 +503,10 @@ public class World {
 		q.begin();
 		generateShader.start();
 		generateShader.loadUInt64("noiseTexHandle", noiseTexture.tex_handle);
-		for(int i=0; i<width*height*depth; i += TILES_PER_BATCH) {
-			System.out.println("Offset: " + i + " / " + width*height*depth);
-			generateShader.loadInt("GLOBAL_GENERATION_TILE_OFFSET", i);
+		final long worldTiles = (long) width * height * depth;
+		for(long i=0; i<worldTiles; i += TILES_PER_BATCH) {
+			System.out.println("Offset: " + i + " / " + worldTiles);
+			generateShader.loadInt("GLOBAL_GENERATION_TILE_OFFSET", (int) i);
 			glDispatchCompute(TILES_PER_BATCH, 1, 1);
 			glMemoryBarrier(GL_ALL_BARRIER_BITS);
 			checkErrors();
@@ -463,16 +519,75 @@ public class World {
 
 		System.out.println(String.format("Generated Occupancy in %.3f s", 1.0E-9 * q.getResult()));
 
-		q.begin();
-		generateBlocksShader.start();
-		generateBlocksShader.loadUInt64("noiseTexHandle", noiseColorsTexture.tex_handle);
-		glDispatchCompute(maxTiles, 1, 1);
+		generateFromOccupancy(q, true);
+	}
+
+	/**
+	 * Uploads an occupancy generated on the CPU, see TerrainGenerator, then
+	 * generates the probes on the GPU. The blocks are uploaded too if they were
+	 * generated on the CPU, otherwise they are generated on the GPU.
+	 */
+	public void generate(TerrainData terrain) {
+		if (terrain.width != width || terrain.height != height || terrain.depth != depth
+				|| terrain.maxTiles != maxTiles) {
+			throw new IllegalArgumentException("The terrain does not have the size of the world");
+		}
+
+		ByteBuffer buff = MemoryUtil.memAlloc(terrain.occupancy.length * Integer.BYTES);
+		buff.asIntBuffer().put(terrain.occupancy);
+		occupancy.uploadData(buff, GL_RED_INTEGER, GL_INT);
+		MemoryUtil.memFree(buff);
+
+		uploadLongs(compressed_occupancy, terrain.compressed_occupancy);
+		uploadLongs(compressed_inside_terrain, terrain.compressed_inside_terrain);
+		uploadLongs(compressed_atlas, terrain.compressed_atlas);
+		uploadInts(tiles, terrain.tiles);
+		terrain.free_tiles.upload(free_tiles_stack, num_free_tiles);
 		glMemoryBarrier(GL_ALL_BARRIER_BITS);
-		generateBlocksShader.stop();
-		q.end();
-		
-		checkErrors();
-		System.out.println(String.format("Generated Blocks in %.3f s", 1.0E-9 * q.getResult()));
+
+		System.out.println("Uploaded Occupancy: " + terrain.numAllocatedTiles() + " tiles.");
+
+		if (terrain.block_ids != null) {
+			buff = MemoryUtil.memAlloc(terrain.block_ids.length);
+			buff.put(terrain.block_ids).flip();
+			block_ids.uploadData(buff, GL_RED_INTEGER, GL_UNSIGNED_BYTE);
+			MemoryUtil.memFree(buff);
+			glMemoryBarrier(GL_ALL_BARRIER_BITS);
+			System.out.println("Uploaded Blocks.");
+		}
+
+		raycaster = new Raycaster(new OccupancyPyramid(terrain), minCorner, voxelSize);
+
+		generateFromOccupancy(new Query(GL_TIME_ELAPSED), terrain.block_ids == null);
+	}
+
+	private void uploadLongs(BindlessBuffer dest, long[] values) {
+		ByteBuffer buff = MemoryUtil.memAlloc(values.length * Long.BYTES);
+		buff.asLongBuffer().put(values);
+		dest.upload(0, buff);
+		MemoryUtil.memFree(buff);
+	}
+
+	private void uploadInts(BindlessBuffer dest, int[] values) {
+		ByteBuffer buff = MemoryUtil.memAlloc(values.length * Integer.BYTES);
+		buff.asIntBuffer().put(values);
+		dest.upload(0, buff);
+		MemoryUtil.memFree(buff);
+	}
+
+	private void generateFromOccupancy(Query q, boolean generateBlocks) {
+		if (generateBlocks) {
+			q.begin();
+			generateBlocksShader.start();
+			generateBlocksShader.loadUInt64("noiseTexHandle", noiseColorsTexture.tex_handle);
+			glDispatchCompute(maxTiles, 1, 1);
+			glMemoryBarrier(GL_ALL_BARRIER_BITS);
+			generateBlocksShader.stop();
+			q.end();
+
+			checkErrors();
+			System.out.println(String.format("Generated Blocks in %.3f s", 1.0E-9 * q.getResult()));
+		}
 
 		q.begin();
 		allocate_probes_shader.start();
@@ -519,7 +634,7 @@ public class World {
 		debugTilesShader.loadMat4("projectionView", projview);
 		debugTilesShader.loadInt("level", level);
 
-		int N = 0;
+		long N = 0;
 		if (level == 0) {
 			// number of super tiles
 			N = (width / 4) * (height / 4) * (depth / 4);
@@ -528,12 +643,12 @@ public class World {
 			N = maxTiles;
 		} else {
 			// number of voxels
-			N = maxTiles * 64;
+			N = maxTiles * 64L;
 		}
 
 		VAO vao = new VAO();
 		vao.bind();
-		glDrawArrays(GL_POINTS, 0, N);
+		glDrawArrays(GL_POINTS, 0, (int) Math.min(N, Integer.MAX_VALUE)); // the voxels beyond 2^31 are not drawn
 		vao.unbind();
 		vao.delete();
 
@@ -605,12 +720,8 @@ public class World {
 					GL_CLAMP_TO_EDGE);
 		}
 
-		var P = camera.getProjectionMatrix();
 		var V = new Matrix4f(camera.getViewMatrix());
-
-		float a = P.m00();
-		float b = P.m11();
-		var K = new Vector4f(a * w / 2f, b * h / 2f, w / 2f, h / 2f);
+		var K = Camera.intrinsics(camera.getProjectionMatrix(), w, h);
 
 		renderShader.start();
 		renderShader.loadVec4("K", K);